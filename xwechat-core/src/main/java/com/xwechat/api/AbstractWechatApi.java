@@ -26,6 +26,7 @@ public abstract class AbstractWechatApi<R extends IWechatResponse> implements IW
   protected final HttpUrl.Builder urlBuilder;
   protected final Method method;
   protected RequestBody requestBody;
+  protected String idempotencyKey;
 
   /**
    * @param endpoint 基本的url，即queryString之前的部分
@@ -46,6 +47,21 @@ public abstract class AbstractWechatApi<R extends IWechatResponse> implements IW
     this.requestBody = requestBody;
   }
 
+  /**
+   * 设置幂等key，比如发送消息时用业务id加openid，超时重试时使用同一个key，避免用户收到重复的消息
+   *
+   * @see com.xwechat.core.DedupStore
+   */
+  public AbstractWechatApi<R> setIdempotencyKey(String idempotencyKey) {
+    this.idempotencyKey = idempotencyKey;
+    return this;
+  }
+
+  @Override
+  public String getIdempotencyKey() {
+    return idempotencyKey;
+  }
+
   @Override
   public HttpUrl toOkHttpUrl() {
     return urlBuilder.build();
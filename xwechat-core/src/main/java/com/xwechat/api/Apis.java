@@ -12,6 +12,7 @@ public interface Apis {
   String SNS_USERINFO = "https://api.weixin.qq.com/sns/userinfo";
 
   String CLIENT_CREDENTIAL = "https://api.weixin.qq.com/cgi-bin/token";
+  String STABLE_ACCESS_TOKEN = "https://api.weixin.qq.com/cgi-bin/stable_token";
   String GET_CALLBACK_IP = "https://api.weixin.qq.com/cgi-bin/getcallbackip";
   String MP_USERINFO = "https://api.weixin.qq.com/cgi-bin/user/info";
   String MP_USERINFO_BATCH = "https://api.weixin.qq.com/cgi-bin/user/info/batchget";
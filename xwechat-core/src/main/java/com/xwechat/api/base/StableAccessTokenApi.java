@@ -0,0 +1,75 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.api.base;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.xwechat.api.Apis;
+import com.xwechat.api.ApplicationApi;
+import com.xwechat.api.Method;
+import com.xwechat.api.base.ClientCredentialApi.ClientCredentialResponse;
+import com.xwechat.enums.GrantType;
+import com.xwechat.util.JsonUtil;
+
+import okhttp3.RequestBody;
+
+/**
+ * 获取稳定版接口调用凭据，与{@link ClientCredentialApi}获取的access_token相互独立。<br>
+ * 普通模式下有效期内重复调用返回同一个access_token，不会使之前的失效，平台在过期前5分钟内调用才会返回新的，
+ * 所以多个节点可以各自获取而不用协调；强制刷新模式会使之前的失效，每天有次数限制，只在token确认失效时使用
+ *
+ * @Note 公众平台，小程序
+ * @url https://api.weixin.qq.com/cgi-bin/stable_token
+ * @see https://developers.weixin.qq.com/doc/offiaccount/Basic_Information/getStableAccessToken.html
+ * @author yuanwq
+ */
+public class StableAccessTokenApi extends ApplicationApi<ClientCredentialResponse> {
+  private final ObjectNode root;
+
+  public StableAccessTokenApi() {
+    super(Apis.STABLE_ACCESS_TOKEN, Method.POST);
+    root = JsonUtil.DEFAULT_OBJECT_MAPPER.createObjectNode();
+    root.put("grant_type", GrantType.CLIENT_CREDENTIAL.asParameter());
+    root.put("force_refresh", false);
+    updateRequestBody();
+  }
+
+  @Override
+  public StableAccessTokenApi setAppId(String appId) {
+    Preconditions.checkArgument(StringUtils.isNotBlank(appId), "blank appId");
+    root.put("appid", appId);
+    updateRequestBody();
+    return this;
+  }
+
+  @Override
+  public StableAccessTokenApi setAppSecret(String appSecret) {
+    Preconditions.checkArgument(StringUtils.isNotBlank(appSecret), "blank appSecret");
+    root.put("secret", appSecret);
+    updateRequestBody();
+    return this;
+  }
+
+  /**
+   * @param forceRefresh 是否强制刷新，会使之前的access_token失效
+   * @default false
+   */
+  public StableAccessTokenApi setForceRefresh(boolean forceRefresh) {
+    root.put("force_refresh", forceRefresh);
+    updateRequestBody();
+    return this;
+  }
+
+  private void updateRequestBody() {
+    setRequestBody(RequestBody.create(JSON_MEDIA_TYPE,
+        JsonUtil.writeAsString(JsonUtil.DEFAULT_OBJECT_MAPPER, root)));
+  }
+
+  @Override
+  public Class<ClientCredentialResponse> getResponseClass() {
+    return ClientCredentialResponse.class;
+  }
+}
@@ -3,34 +3,152 @@
  */
 package com.xwechat.api.jssdk;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
+ * jssdk签名。签名直接把各字段按字节写入线程复用的{@link MessageDigest}，不拼接string1（需要时
+ * {@link Signature#getString1()}再生成），适合每次页面访问都签名的场景。线程安全
+ * <p>
+ * ticket通过不可变的{@link TicketState}整体替换，签名时不加锁。{@link #reloadTicket(String)}后旧ticket在
+ * {@link #setTicketOverlap(long, TimeUnit)}的时间内仍可通过{@link #verify(Signature)}校验，
+ * 给替换前已经签名、还在渲染的页面留出时间
+ *
  * @author yuanwq
  */
 public class JsapiSigner {
-  private String jsapiTicket;
+  private static final char[] NONCE_CHARS =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+  private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+  private static final int NONCE_LENGTH = 16;
+  private static final byte[] TIMESTAMP_PART = "&timestamp=".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] URL_PART = "&url=".getBytes(StandardCharsets.US_ASCII);
+
+  private static final ThreadLocal<SignBuffer> buffers = ThreadLocal.withInitial(SignBuffer::new);
+
+  private final AtomicReference<TicketState> state = new AtomicReference<>();
+  private volatile long overlapMillis = TimeUnit.MINUTES.toMillis(5);
+  /** 按规范化url缓存的签名，null表示不缓存 */
+  private final Cache<String, Signature> cache;
 
   public JsapiSigner(String jsapiTicket) {
+    this.cache = null;
+    reloadTicket(jsapiTicket);
+  }
+
+  /**
+   * 缓存模式：{@link #sign(String)}对同一个url（去掉#及之后的部分）在reuseWindow内返回同一个签名，
+   * 最多缓存maxSize个url，按最近使用淘汰；{@link #reloadTicket(String)}后旧ticket的签名全部失效。
+   * 指定了nonceStr或timestamp的签名不使用缓存
+   *
+   * @param reuseWindow 签名的复用时间，需小于ticket的有效期
+   */
+  public JsapiSigner(String jsapiTicket, int maxSize, long reuseWindow, TimeUnit unit) {
+    Preconditions.checkArgument(maxSize > 0, "maxSize must be positive");
+    Preconditions.checkArgument(reuseWindow > 0, "reuseWindow must be positive");
+    this.cache = CacheBuilder.newBuilder().maximumSize(maxSize)
+        .expireAfterWrite(reuseWindow, unit).build();
     reloadTicket(jsapiTicket);
   }
 
+  /**
+   * 替换后旧ticket的保留时间，只影响之后的{@link #reloadTicket(String)}
+   *
+   * @default 5分钟
+   */
+  public void setTicketOverlap(long overlap, TimeUnit unit) {
+    Preconditions.checkArgument(overlap >= 0, "negative overlap");
+    this.overlapMillis = unit.toMillis(overlap);
+  }
+
+  /** 替换当前ticket，原ticket保留{@link #setTicketOverlap(long, TimeUnit)}的时间。ticket未变时不做任何事 */
   public void reloadTicket(String jsapiTicket) {
     Preconditions.checkArgument(StringUtils.isNotBlank(jsapiTicket), "blank jsapi ticket");
-    this.jsapiTicket = jsapiTicket;
+    long now = System.currentTimeMillis();
+    TicketState old = state.getAndUpdate(current -> {
+      if (current == null) {
+        return new TicketState(new TicketPrefix(jsapiTicket), null, 0L);
+      }
+      if (current.current.value.equals(jsapiTicket)) {
+        return current;
+      }
+      return new TicketState(new TicketPrefix(jsapiTicket), current.current, now + overlapMillis);
+    });
+    if (cache != null && old != null && !old.current.value.equals(jsapiTicket)) {
+      cache.invalidateAll();
+    }
+  }
+
+  public String getJsapiTicket() {
+    return state.get().current.value;
+  }
+
+  /** @return 仍在保留时间内的上一个ticket，没有时返回null */
+  public String getPreviousJsapiTicket() {
+    TicketPrefix previous = state.get().previous(System.currentTimeMillis());
+    return previous == null ? null : previous.value;
+  }
+
+  /** @return 是当前ticket，或仍在保留时间内的上一个ticket */
+  public boolean isValidTicket(String jsapiTicket) {
+    TicketState current = state.get();
+    if (current.current.value.equals(jsapiTicket)) return true;
+    TicketPrefix previous = current.previous(System.currentTimeMillis());
+    return previous != null && previous.value.equals(jsapiTicket);
+  }
+
+  /** @return 签名使用的ticket仍然有效，且签名正确 */
+  public boolean verify(Signature signature) {
+    return verify(signature.url, signature.nonceStr, signature.timestamp, signature.signature);
+  }
+
+  /** @return 用当前ticket或保留时间内的上一个ticket签名，结果与signature一致 */
+  public boolean verify(String url, String nonceStr, long timestamp, String signature) {
+    TicketState current = state.get();
+    SignBuffer buf = buffers.get();
+    if (buf.digest(current.current, nonceStr, timestamp, url).equals(signature)) return true;
+    TicketPrefix previous = current.previous(System.currentTimeMillis());
+    return previous != null
+        && buf.digest(previous, nonceStr, timestamp, url).equals(signature);
   }
 
   /**
+   * 缓存模式下返回缓存的签名
+   *
    * @param url
    * @see #sign(String, String, long)
+   * @see #JsapiSigner(String, int, long, TimeUnit)
    */
   public Signature sign(String url) {
-    return sign(url, 0);
+    if (cache == null) {
+      return sign(url, 0);
+    }
+    Preconditions.checkArgument(StringUtils.isNotBlank(url), "blank url");
+    String normalized = normalizeUrl(url);
+    Signature signature = cache.getIfPresent(normalized);
+    // 签名期间ticket可能被替换，写入缓存的旧签名在这里过滤
+    if (signature == null || !signature.jsapiTicket.equals(getJsapiTicket())) {
+      signature = sign(normalized, 0);
+      cache.put(normalized, signature);
+    }
+    return signature;
+  }
+
+  /** 微信要求签名的url不包含#及之后的部分 */
+  public static String normalizeUrl(String url) {
+    int idx = url.indexOf('#');
+    return idx < 0 ? url : url.substring(0, idx);
   }
 
   /**
@@ -53,30 +171,121 @@ public class JsapiSigner {
   }
 
   /**
+   * 所有签名方法都经过这里，url中#及之后的部分不参与签名，缓存和非缓存模式结果一致
+   *
    * @param url
    * @param nonceStr 随机字符串，若为空，默认为随机16位字符串
    * @param timestamp 时间戳，秒，若{@code <=0}，默认为当前时间戳
    */
   public Signature sign(String url, String nonceStr, long timestamp) {
     Preconditions.checkArgument(StringUtils.isNotBlank(url), "blank url");
-    if (StringUtils.isBlank(nonceStr)) {
-      nonceStr = RandomStringUtils.randomAlphanumeric(16);
-    }
+    url = normalizeUrl(url);
     if (timestamp <= 0) {
       timestamp = System.currentTimeMillis() / 1000;
     }
+    TicketPrefix ticket = state.get().current;
+    SignBuffer buf = buffers.get();
+    if (StringUtils.isBlank(nonceStr)) {
+      nonceStr = buf.randomNonce();
+    }
     Signature signature = new Signature();
-    signature.jsapiTicket = jsapiTicket;
+    signature.jsapiTicket = ticket.value;
     signature.nonceStr = nonceStr;
     signature.timestamp = timestamp;
     signature.url = url;
-
-    signature.string1 = String.format("jsapi_ticket=%s&noncestr=%s&timestamp=%d&url=%s",
-        signature.jsapiTicket, signature.nonceStr, signature.timestamp, signature.url);
-    signature.signature = DigestUtils.sha1Hex(signature.string1);
+    signature.signature = buf.digest(ticket, nonceStr, timestamp, url);
     return signature;
   }
 
+  /** 当前ticket，以及替换前的ticket和它的保留截止时间。不可变 */
+  private static class TicketState {
+    private final TicketPrefix current;
+    private final TicketPrefix previous;
+    private final long previousUntil;
+
+    private TicketState(TicketPrefix current, TicketPrefix previous, long previousUntil) {
+      this.current = current;
+      this.previous = previous;
+      this.previousUntil = previousUntil;
+    }
+
+    private TicketPrefix previous(long now) {
+      return now < previousUntil ? previous : null;
+    }
+  }
+
+  /** ticket及预先编码的{@code jsapi_ticket=...&noncestr=} */
+  private static class TicketPrefix {
+    private final String value;
+    private final byte[] prefix;
+
+    private TicketPrefix(String value) {
+      this.value = value;
+      this.prefix = ("jsapi_ticket=" + value + "&noncestr=").getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  /** 每个线程复用的摘要和缓冲区 */
+  private static class SignBuffer {
+    private final MessageDigest sha1 = DigestUtils.getSha1Digest();
+    private final char[] hex = new char[40];
+    private final char[] nonce = new char[NONCE_LENGTH];
+    private byte[] bytes = new byte[256];
+
+    private String randomNonce() {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      for (int i = 0; i < NONCE_LENGTH; i++) {
+        nonce[i] = NONCE_CHARS[random.nextInt(NONCE_CHARS.length)];
+      }
+      return new String(nonce);
+    }
+
+    private String digest(TicketPrefix ticket, String nonceStr, long timestamp, String url) {
+      sha1.update(ticket.prefix);
+      update(nonceStr);
+      sha1.update(TIMESTAMP_PART);
+      update(timestamp);
+      sha1.update(URL_PART);
+      update(url);
+      return hexDigest();
+    }
+
+    private void update(long value) {
+      int pos = bytes.length;
+      do {
+        bytes[--pos] = (byte) ('0' + value % 10);
+        value /= 10;
+      } while (value > 0);
+      sha1.update(bytes, pos, bytes.length - pos);
+    }
+
+    /** ASCII直接按字节写入，含非ASCII字符时按UTF-8编码 */
+    private void update(String value) {
+      int length = value.length();
+      if (length > bytes.length) {
+        bytes = new byte[Math.max(length, bytes.length * 2)];
+      }
+      for (int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        if (c >= 0x80) {
+          sha1.update(value.getBytes(StandardCharsets.UTF_8));
+          return;
+        }
+        bytes[i] = (byte) c;
+      }
+      sha1.update(bytes, 0, length);
+    }
+
+    private String hexDigest() {
+      byte[] digest = sha1.digest();
+      for (int i = 0; i < digest.length; i++) {
+        hex[i << 1] = HEX_CHARS[(digest[i] >> 4) & 0x0f];
+        hex[(i << 1) + 1] = HEX_CHARS[digest[i] & 0x0f];
+      }
+      return new String(hex);
+    }
+  }
+
   public static class Signature {
     private String jsapiTicket;
     private String nonceStr;
@@ -106,6 +315,10 @@ public class JsapiSigner {
     }
 
     public String getString1() {
+      if (string1 == null) {
+        string1 = "jsapi_ticket=" + jsapiTicket + "&noncestr=" + nonceStr + "&timestamp="
+            + timestamp + "&url=" + url;
+      }
       return string1;
     }
 
@@ -117,7 +330,7 @@ public class JsapiSigner {
     public String toString() {
       return MoreObjects.toStringHelper(getClass()).add("jaspi_ticket", jsapiTicket)
           .add("noncestr", nonceStr).add("timestamp", timestamp).add("url", url)
-          .add("string1", string1).add("signature", signature).toString();
+          .add("string1", getString1()).add("signature", signature).toString();
     }
   }
 
@@ -20,8 +20,15 @@ import com.xwechat.enums.TicketType;
 public class JsapiTicketApi extends AuthorizedApi<JsapiTicketResponse> {
 
   public JsapiTicketApi() {
+    this(TicketType.JSAPI);
+  }
+
+  /**
+   * @param type ticket类型，卡券api使用{@link TicketType#WX_CARD}
+   */
+  public JsapiTicketApi(TicketType type) {
     super(Apis.JSAPI_TICKET);
-    this.urlBuilder.setQueryParameter("type", TicketType.JSAPI.asParameter());
+    this.urlBuilder.setQueryParameter("type", type.asParameter());
   }
 
   @Override
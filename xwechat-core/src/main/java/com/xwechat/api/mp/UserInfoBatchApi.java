@@ -3,22 +3,24 @@
  */
 package com.xwechat.api.mp;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.xwechat.api.Apis;
 import com.xwechat.api.AuthorizedApi;
 import com.xwechat.api.Method;
 import com.xwechat.api.mp.UserInfoBatchApi.UserInfoBatchResponse;
 import com.xwechat.core.IWechatResponse;
 import com.xwechat.util.CollectionUtil;
+import com.xwechat.util.JsonRequestBody;
 import com.xwechat.util.JsonUtil;
 
-import okhttp3.RequestBody;
-
 /**
  * 批量获取用户基本信息，公众号和小程序使用
  * 
@@ -29,28 +31,46 @@ import okhttp3.RequestBody;
  */
 public class UserInfoBatchApi extends AuthorizedApi<UserInfoBatchResponse> {
 
-  private final ObjectNode root;
+  private final List<String> openids = Lists.newArrayList();
 
   public UserInfoBatchApi() {
     super(Apis.MP_USERINFO_BATCH, Method.POST);
-    root = JsonUtil.DEFAULT_OBJECT_MAPPER.createObjectNode();
-    root.putArray("user_list");
+    updateRequestBody();
   }
 
   /** 一次最多100个 */
   public UserInfoBatchApi setOpenids(Collection<String> openids) {
     Preconditions.checkArgument(openids != null && !openids.isEmpty(), "empty openids");
     Preconditions.checkArgument(openids.size() <= 100, "at most 100 openids");
-    ArrayNode userList = root.withArray("user_list");
+    this.openids.addAll(openids);
+    updateRequestBody();
+    return this;
+  }
+
+  /** 请求体在设置时序列化，openid变化后重新生成 */
+  private void updateRequestBody() {
+    setRequestBody(new JsonRequestBody(JSON_MEDIA_TYPE, this::writeJson));
+  }
+
+  private void writeJson(JsonGenerator generator) throws IOException {
+    generator.writeStartObject();
+    generator.writeArrayFieldStart("user_list");
     for (String openid : openids) {
-      userList.addObject().put("openid", openid).put("lang", "zh_CN");
+      generator.writeStartObject();
+      generator.writeStringField("openid", openid);
+      generator.writeStringField("lang", "zh_CN");
+      generator.writeEndObject();
     }
-    String content = JsonUtil.writeAsString(JsonUtil.DEFAULT_OBJECT_MAPPER, root);
-    setRequestBody(RequestBody.create(JSON_MEDIA_TYPE, content));
-    return this;
+    generator.writeEndArray();
+    generator.writeEndObject();
   }
 
   public String getPrettyBody() {
+    ObjectNode root = JsonUtil.DEFAULT_OBJECT_MAPPER.createObjectNode();
+    ArrayNode userList = root.putArray("user_list");
+    for (String openid : openids) {
+      userList.addObject().put("openid", openid).put("lang", "zh_CN");
+    }
     return JsonUtil.writeAsPrettyString(JsonUtil.DEFAULT_OBJECT_MAPPER, root);
   }
 
@@ -3,14 +3,15 @@
  */
 package com.xwechat.api.msg;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
 import com.xwechat.util.JsonUtil;
@@ -143,50 +144,109 @@ public class Message {
     this.sendIgnoreReprint = sendIgnoreReprint;
   }
 
+  /** 复制消息内容（类型、素材、文本等），不复制发送对象，用于同一内容分批发给不同的openid */
+  public Message copyContent() {
+    Message copy = new Message(type);
+    copy.mediaId = mediaId;
+    copy.textContent = textContent;
+    copy.cardId = cardId;
+    copy.title = title;
+    copy.description = description;
+    copy.thumbMediaId = thumbMediaId;
+    copy.sendIgnoreReprint = sendIgnoreReprint;
+    return copy;
+  }
+
   @Override
   public String toString() {
     return JsonUtil.writeAsString(JsonUtil.DEFAULT_OBJECT_MAPPER, this);
   }
 
   public String toJson() {
-    return JsonUtil.writeAsString(JsonUtil.DEFAULT_OBJECT_MAPPER, toJsonNode());
+    StringWriter writer = new StringWriter();
+    try (JsonGenerator generator = JsonUtil.DEFAULT_OBJECT_MAPPER.getFactory()
+        .createGenerator(writer)) {
+      writeJson(generator);
+    } catch (IOException e) {
+      throw new RuntimeException("never here, message=" + this, e);
+    }
+    return writer.toString();
   }
 
-  private ObjectNode toJsonNode() {
-    ObjectNode root = JsonUtil.DEFAULT_OBJECT_MAPPER.createObjectNode();
+  /** 写入完整的消息json，包括发送对象 */
+  public void writeJson(JsonGenerator generator) throws IOException {
+    generator.writeStartObject();
     if (toAll) {
-      root.putObject("filter").put("is_to_all", true);
+      generator.writeObjectFieldStart("filter");
+      generator.writeBooleanField("is_to_all", true);
+      generator.writeEndObject();
     } else if (tagId != null) {
-      root.putObject("filter").put("is_to_all", false).put("tag_id", tagId.intValue());
+      generator.writeObjectFieldStart("filter");
+      generator.writeBooleanField("is_to_all", false);
+      generator.writeNumberField("tag_id", tagId.intValue());
+      generator.writeEndObject();
     } else if (!openids.isEmpty()) {
-      ArrayNode arr = root.putArray("touser");
-      openids.forEach(o -> arr.add(o));
+      generator.writeArrayFieldStart("touser");
+      for (String openid : openids) {
+        generator.writeString(openid);
+      }
+      generator.writeEndArray();
     } else {
       throw new IllegalStateException("no set target(all/tagId/openid)");
     }
-    root.put("msgtype", type.asParameter());
+    writeContent(generator);
+    generator.writeEndObject();
+  }
+
+  /**
+   * 预先序列化消息内容（不含发送对象），同一内容分批发送时只序列化一次，见
+   * {@link SendMessageApi#setMessage(PreparedMessage, Collection)}
+   */
+  public PreparedMessage prepare() {
+    StringWriter writer = new StringWriter();
+    try (JsonGenerator generator = JsonUtil.DEFAULT_OBJECT_MAPPER.getFactory()
+        .createGenerator(writer)) {
+      generator.writeStartObject();
+      writeContent(generator);
+      generator.writeEndObject();
+    } catch (IOException e) {
+      throw new RuntimeException("never here, message=" + this, e);
+    }
+    String json = writer.toString();
+    return new PreparedMessage(type, json.substring(1, json.length() - 1));
+  }
+
+  private void writeContent(JsonGenerator generator) throws IOException {
+    generator.writeStringField("msgtype", type.asParameter());
     switch (type) {
       case TEXT:
         Preconditions.checkArgument(StringUtils.isNotBlank(textContent), "blank text content");
-        root.putObject(type.asParameter()).put("content", textContent);
+        generator.writeObjectFieldStart(type.asParameter());
+        generator.writeStringField("content", textContent);
+        generator.writeEndObject();
         break;
       case MPNEWS:
       case VOICE:
       case IMAGE:
       case MPVIDEO:
         Preconditions.checkArgument(StringUtils.isNotBlank(mediaId), "blank mediaId");
-        root.putObject(type.asParameter()).put("media_id", mediaId);
+        generator.writeObjectFieldStart(type.asParameter());
+        generator.writeStringField("media_id", mediaId);
+        generator.writeEndObject();
         break;
       case WXCARD:
         Preconditions.checkArgument(StringUtils.isNotBlank(cardId), "blank cardId");
-        root.putObject(type.asParameter()).put("card_id", cardId);
+        generator.writeObjectFieldStart(type.asParameter());
+        generator.writeStringField("card_id", cardId);
+        generator.writeEndObject();
         break;
       default:
         break;
     }
-    root.put("title", title).put("description", description).put("thumb_media_id", thumbMediaId)
-        .put("send_ignore_reprint", sendIgnoreReprint);
-    return root;
+    generator.writeStringField("title", title);
+    generator.writeStringField("description", description);
+    generator.writeStringField("thumb_media_id", thumbMediaId);
+    generator.writeNumberField("send_ignore_reprint", sendIgnoreReprint);
   }
 
 }
@@ -0,0 +1,49 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.api.msg;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * 已序列化的消息内容（msgtype、素材、标题等，不含发送对象），由{@link Message#prepare()}生成。不可变，
+ * 可以在多个线程、多次请求中复用
+ *
+ * @author yuanwq
+ */
+public class PreparedMessage {
+  private final MessageType type;
+  /** 内容部分的json字段，不含首尾的大括号 */
+  private final String contentFields;
+
+  PreparedMessage(MessageType type, String contentFields) {
+    this.type = type;
+    this.contentFields = contentFields;
+  }
+
+  public MessageType getType() {
+    return type;
+  }
+
+  /** 写入发给openids的完整消息json，openids不去重 */
+  public void writeJson(JsonGenerator generator, Collection<String> openids) throws IOException {
+    generator.writeStartObject();
+    generator.writeArrayFieldStart("touser");
+    for (String openid : openids) {
+      generator.writeString(openid);
+    }
+    generator.writeEndArray();
+    // 前面至少有touser一个字段，直接接上内容部分
+    generator.writeRaw(',');
+    generator.writeRaw(contentFields);
+    generator.writeEndObject();
+  }
+
+  @Override
+  public String toString() {
+    return "{" + contentFields + "}";
+  }
+}
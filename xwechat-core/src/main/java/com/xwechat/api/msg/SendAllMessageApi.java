@@ -6,8 +6,7 @@ package com.xwechat.api.msg;
 import com.xwechat.api.Apis;
 import com.xwechat.api.AuthorizedApi;
 import com.xwechat.api.Method;
-
-import okhttp3.RequestBody;
+import com.xwechat.util.JsonRequestBody;
 
 /**
  * @author yuanwq
@@ -19,9 +18,10 @@ public class SendAllMessageApi extends AuthorizedApi<SendMessageResponse> {
     super(Apis.MESSAGE_SENDALL, Method.POST);
   }
 
+  /** 请求体在设置时序列化，之后修改msg不影响请求 */
   public SendAllMessageApi setMessage(Message msg) {
     this.message = msg;
-    setRequestBody(RequestBody.create(JSON_MEDIA_TYPE, msg.toJson()));
+    setRequestBody(new JsonRequestBody(JSON_MEDIA_TYPE, msg::writeJson));
     return this;
   }
 
@@ -29,6 +29,13 @@ public class SendAllMessageApi extends AuthorizedApi<SendMessageResponse> {
     return message;
   }
 
+  /** 超时重试时使用同一个key，比如群发批次id */
+  @Override
+  public SendAllMessageApi setIdempotencyKey(String idempotencyKey) {
+    super.setIdempotencyKey(idempotencyKey);
+    return this;
+  }
+
   @Override
   public Class<SendMessageResponse> getResponseClass() {
     return SendMessageResponse.class;
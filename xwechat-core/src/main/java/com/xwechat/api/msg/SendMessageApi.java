@@ -3,11 +3,13 @@
  */
 package com.xwechat.api.msg;
 
+import java.util.Collection;
+
+import com.google.common.base.Preconditions;
 import com.xwechat.api.Apis;
 import com.xwechat.api.AuthorizedApi;
 import com.xwechat.api.Method;
-
-import okhttp3.RequestBody;
+import com.xwechat.util.JsonRequestBody;
 
 /**
  * @author yuanwq
@@ -19,16 +21,39 @@ public class SendMessageApi extends AuthorizedApi<SendMessageResponse> {
     super(Apis.MESSAGE_SEND, Method.POST);
   }
 
+  /** 请求体在设置时序列化，之后修改msg不影响请求 */
   public SendMessageApi setMessage(Message msg) {
     this.message = msg;
-    setRequestBody(RequestBody.create(JSON_MEDIA_TYPE, msg.toJson()));
+    setRequestBody(new JsonRequestBody(JSON_MEDIA_TYPE, msg::writeJson));
+    return this;
+  }
+
+  /**
+   * 同一内容分批发送时使用，内容部分不再序列化
+   *
+   * @param openids 最少2个，最多10000个，不去重
+   */
+  public SendMessageApi setMessage(PreparedMessage content, Collection<String> openids) {
+    Preconditions.checkArgument(openids != null && openids.size() >= 2 && openids.size() < 10000,
+        "2 to 9999 openids required");
+    this.message = null;
+    setRequestBody(
+        new JsonRequestBody(JSON_MEDIA_TYPE, generator -> content.writeJson(generator, openids)));
     return this;
   }
 
+  /** 使用{@link #setMessage(PreparedMessage, Collection)}时返回null */
   public Message getMessage() {
     return message;
   }
 
+  /** 超时重试时使用同一个key，比如群发批次id加批次序号 */
+  @Override
+  public SendMessageApi setIdempotencyKey(String idempotencyKey) {
+    super.setIdempotencyKey(idempotencyKey);
+    return this;
+  }
+
   @Override
   public Class<SendMessageResponse> getResponseClass() {
     return SendMessageResponse.class;
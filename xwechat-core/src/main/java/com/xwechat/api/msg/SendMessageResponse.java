@@ -13,8 +13,8 @@ public class SendMessageResponse implements IWechatResponse {
   private String errmsg;
 
   private String type;
-  private int msgId;
-  private int msgDataId;
+  private long msgId;
+  private long msgDataId;
 
   public int getErrcode() {
     return errcode;
@@ -40,19 +40,19 @@ public class SendMessageResponse implements IWechatResponse {
     this.type = type;
   }
 
-  public int getMsgId() {
+  public long getMsgId() {
     return msgId;
   }
 
-  public void setMsgId(int msgId) {
+  public void setMsgId(long msgId) {
     this.msgId = msgId;
   }
 
-  public int getMsgDataId() {
+  public long getMsgDataId() {
     return msgDataId;
   }
 
-  public void setMsgDataId(int msgDataId) {
+  public void setMsgDataId(long msgDataId) {
     this.msgDataId = msgDataId;
   }
 
@@ -0,0 +1,195 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.api.wxapp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.xwechat.util.JsonUtil;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+
+/**
+ * 预编译的模板消息：模板id、跳转页面、颜色和关键词布局在{@link Builder#build()}时编码为固定的字节片段，
+ * 每个接收者只需要写入touser、form_id和关键词的值，json与{@link TemplateMsg}序列化的结果等价。
+ * 用于同一模板发给大量用户，见{@link TemplateMsgSendApi#setMessage(CompiledTemplate, String, String, String...)}。
+ * 不可变，线程安全
+ *
+ * @author yuanwq
+ */
+public class CompiledTemplate {
+  private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+  /** 变量之间的固定部分，依次为：touser之前、form_id之前、每个关键词的值之前、结尾 */
+  private final byte[][] segments;
+  private final int keywordCount;
+  private final String templateId;
+
+  private CompiledTemplate(String templateId, byte[][] segments, int keywordCount) {
+    this.templateId = templateId;
+    this.segments = segments;
+    this.keywordCount = keywordCount;
+  }
+
+  public String getTemplateId() {
+    return templateId;
+  }
+
+  public int getKeywordCount() {
+    return keywordCount;
+  }
+
+  /**
+   * @param values 按顺序对应keyword1、keyword2...，数量需与模板一致
+   */
+  public void writeTo(BufferedSink sink, String touser, String formId, String... values)
+      throws IOException {
+    Preconditions.checkArgument(values.length == keywordCount, "expect %s keywords, got %s",
+        keywordCount, values.length);
+    sink.write(segments[0]);
+    writeString(sink, touser);
+    sink.write(segments[1]);
+    writeString(sink, formId);
+    for (int i = 0; i < keywordCount; i++) {
+      sink.write(segments[i + 2]);
+      writeString(sink, values[i]);
+    }
+    sink.write(segments[keywordCount + 2]);
+  }
+
+  /**
+   * 创建时直接写入okio的缓冲区，不生成中间的字符串；请求带Content-Length，不使用chunked编码，
+   * keyword数量不对时在这里抛出
+   */
+  public RequestBody toRequestBody(MediaType contentType, String touser, String formId,
+      String... values) {
+    // snapshot与buffer共享segment，不复制整个请求体
+    return RequestBody.create(contentType, bufferOf(touser, formId, values).snapshot());
+  }
+
+  public String render(String touser, String formId, String... values) {
+    return bufferOf(touser, formId, values).readUtf8();
+  }
+
+  private Buffer bufferOf(String touser, String formId, String... values) {
+    Buffer buffer = new Buffer();
+    try {
+      writeTo(buffer, touser, formId, values);
+    } catch (IOException e) {
+      throw new RuntimeException("never here", e);
+    }
+    return buffer;
+  }
+
+  /** 写入json字符串（含引号），null写入null */
+  private static void writeString(BufferedSink sink, String value) throws IOException {
+    if (value == null) {
+      sink.writeUtf8("null");
+      return;
+    }
+    sink.writeByte('"');
+    int start = 0;
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\' || c < 0x20) {
+        if (i > start) {
+          sink.writeUtf8(value, start, i);
+        }
+        if (c == '"' || c == '\\') {
+          sink.writeByte('\\').writeByte(c);
+        } else {
+          sink.writeUtf8("\\u00").writeByte(HEX_CHARS[c >> 4]).writeByte(HEX_CHARS[c & 0x0f]);
+        }
+        start = i + 1;
+      }
+    }
+    if (length > start) {
+      sink.writeUtf8(value, start, length);
+    }
+    sink.writeByte('"');
+  }
+
+  public static Builder newBuilder(String templateId) {
+    return new Builder(templateId);
+  }
+
+  public static class Builder {
+    private final String templateId;
+    private String page;
+    private String color;
+    private String emphasisKeyword;
+    private final List<String> keywordColors = Lists.newArrayList();
+
+    private Builder(String templateId) {
+      Preconditions.checkArgument(StringUtils.isNotBlank(templateId), "blank templateId");
+      this.templateId = templateId;
+    }
+
+    public Builder setPage(String page) {
+      this.page = page;
+      return this;
+    }
+
+    public Builder setColor(String color) {
+      this.color = color;
+      return this;
+    }
+
+    public Builder setEmphasisKeyword(String emphasisKeyword) {
+      this.emphasisKeyword = emphasisKeyword;
+      return this;
+    }
+
+    /** 下一个关键词（keyword1、keyword2...），不指定颜色 */
+    public Builder addKeyword() {
+      return addKeyword(StringUtils.EMPTY);
+    }
+
+    public Builder addKeyword(String color) {
+      keywordColors.add(color);
+      return this;
+    }
+
+    public CompiledTemplate build() {
+      int count = keywordColors.size();
+      byte[][] segments = new byte[count + 3][];
+      segments[0] = bytes("{\"touser\":");
+      segments[1] = bytes(",\"template_id\":" + quote(templateId) + ",\"page\":" + quote(page)
+          + ",\"form_id\":");
+      StringBuilder sb = new StringBuilder(",\"data\":{");
+      for (int i = 0; i < count; i++) {
+        if (i > 0) {
+          sb.append(",\"color\":").append(quote(keywordColors.get(i - 1))).append("},");
+        }
+        sb.append(quote("keyword" + (i + 1))).append(":{\"value\":");
+        segments[i + 2] = bytes(sb.toString());
+        sb.setLength(0);
+      }
+      if (count > 0) {
+        sb.append(",\"color\":").append(quote(keywordColors.get(count - 1))).append("}");
+      }
+      sb.append("},\"color\":").append(quote(color)).append(",\"emphasis_keyword\":")
+          .append(quote(emphasisKeyword)).append("}");
+      segments[count + 2] = bytes(sb.toString());
+      return new CompiledTemplate(templateId, segments, count);
+    }
+
+    private static String quote(String value) {
+      return JsonUtil.writeAsString(JsonUtil.DEFAULT_OBJECT_MAPPER, value);
+    }
+
+    private static byte[] bytes(String value) {
+      return value.getBytes(StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -1,10 +1,9 @@
 package com.xwechat.api.wxapp;
 
-import okhttp3.RequestBody;
-
 import com.xwechat.api.Apis;
 import com.xwechat.api.AuthorizedApi;
 import com.xwechat.api.Method;
+import com.xwechat.util.JsonRequestBody;
 import com.xwechat.util.JsonUtil;
 
 /**
@@ -23,16 +22,38 @@ public class TemplateMsgSendApi extends AuthorizedApi<WxappApiResp> {
     super(Apis.WXAPP_TEMPLATE_MSG_SEND, Method.POST);
   }
 
+  /** 请求体在设置时序列化，之后修改msg不影响请求 */
   public TemplateMsgSendApi setMessage(TemplateMsg msg) {
     this.msg = msg;
-    setRequestBody(RequestBody.create(JSON_MEDIA_TYPE, JsonUtil.writeAsString(JsonUtil.DEFAULT_OBJECT_MAPPER, msg)));
+    setRequestBody(new JsonRequestBody(JSON_MEDIA_TYPE,
+        generator -> JsonUtil.DEFAULT_OBJECT_MAPPER.writeValue(generator, msg)));
+    return this;
+  }
+
+  /**
+   * 使用预编译的模板，只写入接收者相关的部分
+   *
+   * @param values 按顺序对应keyword1、keyword2...
+   */
+  public TemplateMsgSendApi setMessage(CompiledTemplate template, String touser, String formId,
+      String... values) {
+    this.msg = null;
+    setRequestBody(template.toRequestBody(JSON_MEDIA_TYPE, touser, formId, values));
     return this;
   }
 
+  /** 使用{@link #setMessage(CompiledTemplate, String, String, String...)}时返回null */
   public TemplateMsg getTemplateMsg() {
     return msg;
   }
 
+  /** 超时重试时使用同一个key，比如业务id加openid */
+  @Override
+  public TemplateMsgSendApi setIdempotencyKey(String idempotencyKey) {
+    super.setIdempotencyKey(idempotencyKey);
+    return this;
+  }
+
   @Override
   public Class<WxappApiResp> getResponseClass() {
     return WxappApiResp.class;
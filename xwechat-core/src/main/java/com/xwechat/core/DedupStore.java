@@ -0,0 +1,287 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.core;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.xwechat.schedule.Clock;
+
+/**
+ * 发送请求的幂等去重，配合{@link IWechatApi#getIdempotencyKey()}使用，见{@link Wechat#setDedupStore(DedupStore)}。
+ * <ul>
+ * <li>窗口期内同一个key只有第一次请求真正发出，之后的请求直接返回记录的响应文本，不再请求微信</li>
+ * <li>第一次请求还没返回时，重复的请求等待它的结果</li>
+ * <li>微信明确返回错误码时放弃记录，之后的重试会重新发出</li>
+ * <li>请求异常（比如读超时）时无法确定微信是否已经收到，key保持占用，窗口期内的重试抛出{@link InDoubtException}，
+ * 不会重发；确认结果后调用{@link #resolve(String, String)}或{@link #release(String)}</li>
+ * </ul>
+ * 查询走{@link ConcurrentHashMap#get(Object)}，抢占走{@code putIfAbsent}，不加锁；过期的记录按写入顺序从队列头部清理，
+ * owner还没返回的记录超过窗口期也保留，避免发送较慢时重复发出。
+ * 需要跨进程或重启后仍然去重时，提供{@link Persistence}，内存未命中时会再查一次持久化存储；
+ * 结果未知的状态只保存在内存中
+ *
+ * @author yuanwq
+ */
+public class DedupStore {
+  private static final Logger logger = LoggerFactory.getLogger(DedupStore.class);
+  /** 每次清理最多放回队尾的记录数，并发清理时也不会一直转圈 */
+  private static final int MAX_REQUEUE = 16;
+
+  /** 持久化存储，比如redis或数据库，实现需要线程安全 */
+  public interface Persistence {
+    /** @return 未过期的响应文本，没有返回null */
+    public String load(String key) throws IOException;
+
+    /** @param expireTime 记录的过期时间，之后可以删除 */
+    public void save(String key, String body, long expireTime) throws IOException;
+  }
+
+  /** 同一个key之前的请求结果未知，为避免重复发送不再请求微信 */
+  public static class InDoubtException extends IOException {
+    private static final long serialVersionUID = 1L;
+    private final String key;
+
+    private InDoubtException(String key, Throwable cause) {
+      super("outcome of previous request unknown, not resent, key=" + key, cause);
+      this.key = key;
+    }
+
+    public String getKey() {
+      return key;
+    }
+  }
+
+  private final long windowMillis;
+  private final Persistence persistence;
+  private final Clock clock;
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  /** 按写入顺序排列，用于清理过期记录 */
+  private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+
+  public DedupStore(long window, TimeUnit unit) {
+    this(window, unit, null);
+  }
+
+  /**
+   * @param persistence 可以为null，即只在内存中去重
+   */
+  public DedupStore(long window, TimeUnit unit, Persistence persistence) {
+    this(window, unit, persistence, Clock.SYSTEM);
+  }
+
+  public DedupStore(long window, TimeUnit unit, Persistence persistence, Clock clock) {
+    Preconditions.checkArgument(window > 0, "window must be positive");
+    this.windowMillis = unit.toMillis(window);
+    this.persistence = persistence;
+    this.clock = Preconditions.checkNotNull(clock, "clock");
+  }
+
+  /**
+   * 抢占key：返回的{@link Claim}如果是owner，调用方需要发出请求并调用{@link Claim#complete(String)}、
+   * {@link Claim#abandon()}或{@link Claim#markInDoubt(Throwable)}之一；否则调用{@link Claim#await()}获取记录的响应
+   */
+  public Claim claim(String key) {
+    Preconditions.checkNotNull(key, "key");
+    for (;;) {
+      long now = clock.currentTimeMillis();
+      expire(now);
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        if (now - entry.createTime < windowMillis || !entry.future.isDone()) {
+          return new Claim(entry, false);
+        }
+        entries.remove(key, entry);
+        continue;
+      }
+      String body = loadPersisted(key);
+      Entry created = new Entry(key, now);
+      if (body != null) {
+        created.future.complete(Outcome.recorded(body));
+      }
+      if (entries.putIfAbsent(key, created) == null) {
+        order.add(created);
+        return new Claim(created, body == null);
+      }
+      // 并发的请求先抢占了，重新查询
+    }
+  }
+
+  /** @return key的请求结果未知 */
+  public boolean isInDoubt(String key) {
+    Entry entry = entries.get(key);
+    return entry != null && entry.future.isDone() && entry.future.join().inDoubt != null;
+  }
+
+  /**
+   * 确认结果未知的请求微信已经收到，记录响应，窗口期内的重试直接返回它
+   *
+   * @return key不是结果未知的状态时返回false
+   */
+  public boolean resolve(String key, String body) {
+    Preconditions.checkNotNull(body, "body");
+    Entry entry = entries.get(key);
+    if (entry == null || !isInDoubt(key)) return false;
+    Entry resolved = new Entry(key, entry.createTime);
+    resolved.future.complete(Outcome.recorded(body));
+    if (!entries.replace(key, entry, resolved)) return false;
+    order.add(resolved);
+    save(key, body, entry.createTime + windowMillis);
+    return true;
+  }
+
+  /**
+   * 确认结果未知的请求微信没有收到，释放key，之后的重试会重新发出
+   *
+   * @return key不是结果未知的状态时返回false
+   */
+  public boolean release(String key) {
+    Entry entry = entries.get(key);
+    return entry != null && isInDoubt(key) && entries.remove(key, entry);
+  }
+
+  /** @return 内存中的记录数，包括还没返回的请求 */
+  public int size() {
+    return entries.size();
+  }
+
+  public long getWindowMillis() {
+    return windowMillis;
+  }
+
+  private void expire(long now) {
+    Entry head;
+    Entry firstRequeued = null;
+    int requeued = 0;
+    while ((head = order.peek()) != null && head != firstRequeued && requeued < MAX_REQUEUE
+        && now - head.createTime >= windowMillis) {
+      if (!order.remove(head)) continue;
+      if (head.future.isDone()) {
+        entries.remove(head.key, head);
+      } else {
+        // owner还在发送，放回队尾，转一圈回到它时停止
+        order.add(head);
+        requeued++;
+        if (firstRequeued == null) {
+          firstRequeued = head;
+        }
+      }
+    }
+  }
+
+  private String loadPersisted(String key) {
+    if (persistence == null) return null;
+    try {
+      return persistence.load(key);
+    } catch (IOException | RuntimeException e) {
+      // 持久化不可用时退化为只用内存去重，不影响发送
+      logger.warn("fail to load dedup record, key=" + key, e);
+      return null;
+    }
+  }
+
+  private void save(String key, String body, long expireTime) {
+    if (persistence == null) return;
+    try {
+      persistence.save(key, body, expireTime);
+    } catch (IOException | RuntimeException e) {
+      logger.warn("fail to save dedup record, key=" + key, e);
+    }
+  }
+
+  /** owner请求的结果，三个状态互斥：记录了响应、放弃、结果未知 */
+  private static class Outcome {
+    private static final Outcome RELEASED = new Outcome(null, null);
+    private final String body;
+    private final Throwable inDoubt;
+
+    private Outcome(String body, Throwable inDoubt) {
+      this.body = body;
+      this.inDoubt = inDoubt;
+    }
+
+    private static Outcome recorded(String body) {
+      return new Outcome(body, null);
+    }
+  }
+
+  private static class Entry {
+    private final String key;
+    private final long createTime;
+    private final CompletableFuture<Outcome> future = new CompletableFuture<>();
+
+    private Entry(String key, long createTime) {
+      this.key = key;
+      this.createTime = createTime;
+    }
+  }
+
+  /** 一次抢占的结果 */
+  public class Claim {
+    private final Entry entry;
+    private final boolean owner;
+
+    private Claim(Entry entry, boolean owner) {
+      this.entry = entry;
+      this.owner = owner;
+    }
+
+    /** @return true表示需要由调用方发出请求 */
+    public boolean isOwner() {
+      return owner;
+    }
+
+    /**
+     * 等待owner的结果
+     *
+     * @return 记录的响应文本；owner放弃时返回null，调用方应重新{@link DedupStore#claim(String)}
+     * @throws InDoubtException owner的请求结果未知
+     */
+    public String await() throws IOException {
+      Outcome outcome;
+      try {
+        outcome = entry.future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted while waiting for key " + entry.key, e);
+      } catch (ExecutionException e) {
+        throw new IOException(e.getCause());
+      }
+      if (outcome.inDoubt != null) {
+        throw new InDoubtException(entry.key, outcome.inDoubt);
+      }
+      return outcome.body;
+    }
+
+    /** 记录成功的响应，窗口期内的重复请求都会得到它 */
+    public void complete(String body) {
+      Preconditions.checkState(owner, "not owner");
+      entry.future.complete(Outcome.recorded(body));
+      save(entry.key, body, entry.createTime + windowMillis);
+    }
+
+    /** 微信明确返回了错误，放弃记录，之后同一个key的请求会重新发出 */
+    public void abandon() {
+      Preconditions.checkState(owner, "not owner");
+      entries.remove(entry.key, entry);
+      entry.future.complete(Outcome.RELEASED);
+    }
+
+    /** 请求结果未知，窗口期内保持占用，直到{@link DedupStore#resolve}或{@link DedupStore#release} */
+    public void markInDoubt(Throwable cause) {
+      Preconditions.checkState(owner, "not owner");
+      logger.warn("outcome unknown, key={} is held in doubt", entry.key);
+      entry.future.complete(new Outcome(null, cause));
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.core;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * access_token的来源，比如{@link com.xwechat.schedule.WechatScheduler}。批量发送等需要反复读取token的组件依赖这个接口，
+ * 不直接依赖调度器
+ *
+ * @author yuanwq
+ */
+public interface IAccessTokenSource {
+  /**
+   * @return appId当前的access_token，没有时返回null
+   */
+  public String getAccessToken(String appId);
+
+  /**
+   * 批量读取，默认逐个调用{@link #getAccessToken(String)}，远程存储的实现应该覆盖为一次请求
+   *
+   * @return 只包含有token的appId
+   */
+  default public Map<String, String> getAccessTokens(Collection<String> appIds) {
+    Map<String, String> tokens = Maps.newHashMapWithExpectedSize(appIds.size());
+    for (String appId : appIds) {
+      String token = getAccessToken(appId);
+      if (token != null) {
+        tokens.put(appId, token);
+      }
+    }
+    return tokens;
+  }
+}
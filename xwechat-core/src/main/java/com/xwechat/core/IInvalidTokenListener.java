@@ -0,0 +1,17 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.core;
+
+/**
+ * 接口返回access_token失效（见{@link Wechat#INVALID_TOKEN_ERRCODES}）时的回调，在发起请求的线程中执行，不要阻塞
+ *
+ * @author yuanwq
+ */
+public interface IInvalidTokenListener {
+  /**
+   * @param accessToken 请求中使用的、已失效的access_token
+   * @param errcode 微信返回的errcode
+   */
+  public void onInvalidToken(String accessToken, int errcode);
+}
@@ -24,4 +24,13 @@ public interface IWechatApi<R extends IWechatResponse> {
    * 请求结果的映射类，用于json形式的结果
    */
   public Class<R> getResponseClass();
+
+  /**
+   * 幂等key，配置了{@link DedupStore}时，窗口期内相同key的请求只发出一次，见{@link Wechat#call(IWechatApi)}
+   *
+   * @return 默认null，即不去重
+   */
+  default public String getIdempotencyKey() {
+    return null;
+  }
 }
@@ -4,6 +4,9 @@
 package com.xwechat.core;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,6 +15,7 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy.LowerCaseWithUnderscoresStrategy;
+import com.google.common.collect.ImmutableSet;
 
 import okhttp3.OkHttpClient;
 import okhttp3.Response;
@@ -32,13 +36,25 @@ public class Wechat {
     return Holder.instance;
   }
 
+  /** access_token失效的errcode：40001不合法的凭证，40014不合法的access_token，42001 access_token超时 */
+  public static final Set<Integer> INVALID_TOKEN_ERRCODES = ImmutableSet.of(40001, 40014, 42001);
+
   private final OkHttpClient httpClient;
   private final ObjectMapper objectMapper;
+  private final List<IInvalidTokenListener> invalidTokenListeners = new CopyOnWriteArrayList<>();
+  private volatile DedupStore dedupStore;
 
   // private final ExecutorService executorService;
 
   private Wechat() {
-    this.httpClient = new OkHttpClient.Builder().retryOnConnectionFailure(true).build();
+    this(new OkHttpClient.Builder().retryOnConnectionFailure(true).build());
+  }
+
+  /**
+   * 一般使用{@link #get()}；需要定制httpClient时使用，比如代理、超时，或者测试时用拦截器模拟微信接口
+   */
+  public Wechat(OkHttpClient httpClient) {
+    this.httpClient = httpClient;
     this.objectMapper = new ObjectMapper();
     // 变量的驼峰命名和json中的下划线命名映射
     this.objectMapper.setPropertyNamingStrategy(new LowerCaseWithUnderscoresStrategy());
@@ -59,18 +75,93 @@ public class Wechat {
     return httpClient;
   }
 
+  /** 注册access_token失效的回调，比如用于通知调度器立即刷新 */
+  public void addInvalidTokenListener(IInvalidTokenListener listener) {
+    invalidTokenListeners.add(listener);
+  }
+
+  public void removeInvalidTokenListener(IInvalidTokenListener listener) {
+    invalidTokenListeners.remove(listener);
+  }
+
+  /**
+   * 设置后，带{@link IWechatApi#getIdempotencyKey()}的请求在窗口期内只发出一次，重复的请求返回记录的结果
+   *
+   * @param dedupStore null表示不去重
+   */
+  public void setDedupStore(DedupStore dedupStore) {
+    this.dedupStore = dedupStore;
+  }
+
+  public DedupStore getDedupStore() {
+    return dedupStore;
+  }
+
   public Response rawCall(IWechatApi<?> request) throws IOException {
     return httpClient.newCall(request.toOkHttpRequest()).execute();
   }
 
   public <R extends IWechatResponse> ResponseWrapper<R> call(IWechatApi<R> request)
       throws IOException {
+    DedupStore store = dedupStore;
+    String key = request.getIdempotencyKey();
+    if (store == null || key == null) {
+      return execute(request);
+    }
+    for (;;) {
+      DedupStore.Claim claim = store.claim(key);
+      if (!claim.isOwner()) {
+        String body = claim.await();
+        if (body == null) continue; // 之前的请求失败了，重新抢占
+        logger.debug("duplicate request answered from dedup store, key={}", key);
+        ResponseWrapper<R> wrapper = new ResponseWrapper<>(body);
+        parseResponse(wrapper, request.getResponseClass());
+        return wrapper;
+      }
+      ResponseWrapper<R> wrapper;
+      try {
+        wrapper = execute(request);
+      } catch (IOException | RuntimeException e) {
+        // 超时等异常时微信可能已经收到并发出，保持占用，窗口期内的重试不再重发
+        claim.markInDoubt(e);
+        throw e;
+      }
+      if (wrapper.isError()) {
+        // 微信明确拒绝，没有发出，允许重试
+        claim.abandon();
+      } else if (wrapper.getErrmsg() != null && wrapper.getErrcode() < 0) {
+        // -1系统繁忙，不确定是否已经发出
+        claim.markInDoubt(new IOException(wrapper.toString()));
+      } else {
+        claim.complete(wrapper.getBody());
+      }
+      return wrapper;
+    }
+  }
+
+  private <R extends IWechatResponse> ResponseWrapper<R> execute(IWechatApi<R> request)
+      throws IOException {
     Response rawResponse = rawCall(request);
     ResponseWrapper<R> wrapper = new ResponseWrapper<>(rawResponse.body().string());
     parseResponse(wrapper, request.getResponseClass());
+    if (wrapper.isError() && INVALID_TOKEN_ERRCODES.contains(wrapper.getErrcode())) {
+      notifyInvalidToken(request, wrapper.getErrcode());
+    }
     return wrapper;
   }
 
+  private void notifyInvalidToken(IWechatApi<?> request, int errcode) {
+    String accessToken = request.toOkHttpUrl().queryParameter("access_token");
+    if (accessToken == null) return;
+    for (IInvalidTokenListener listener : invalidTokenListeners) {
+      try {
+        listener.onInvalidToken(accessToken, errcode);
+      } catch (Exception e) {
+        logger.error("error in invalid token listener: " + listener, e);
+      }
+    }
+  }
+
   /**
    * <b>Warning:</b> this method silently converts {@link IOException} to {@link RuntimeException}
    * for some case where no handle IOException and just throw it upper
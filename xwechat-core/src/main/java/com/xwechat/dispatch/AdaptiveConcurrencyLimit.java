@@ -0,0 +1,70 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * 按请求耗时调整的并发上限（AIMD）：并发已用满且耗时不超过目标时，每完成一个请求上限增加1/limit，
+ * 即每轮增加约1；耗时超过目标、请求异常或被限流时上限乘以{@link #DECREASE_RATIO}，每个目标耗时内最多减少一次
+ *
+ * @author yuanwq
+ */
+class AdaptiveConcurrencyLimit {
+  static final double DECREASE_RATIO = 0.9;
+
+  private final int min;
+  private final int max;
+  private final long targetLatencyNanos;
+
+  private double limit;
+  private int inFlight;
+  private long lastDecreaseNanos;
+
+  AdaptiveConcurrencyLimit(int min, int initial, int max, long targetLatencyNanos) {
+    Preconditions.checkArgument(0 < min && min <= initial && initial <= max,
+        "required 0 < min <= initial <= max");
+    this.min = min;
+    this.max = max;
+    this.limit = initial;
+    this.targetLatencyNanos = targetLatencyNanos;
+    this.lastDecreaseNanos = System.nanoTime() - targetLatencyNanos;
+  }
+
+  synchronized void acquire() throws InterruptedException {
+    while (inFlight >= (int) limit) {
+      wait();
+    }
+    inFlight++;
+  }
+
+  /**
+   * @param latencyNanos 请求耗时，没有发出请求时传负数，不调整上限
+   * @param dropped 请求异常，或者微信返回了过载、限流的错误码
+   */
+  synchronized void release(long latencyNanos, boolean dropped) {
+    boolean saturated = inFlight >= (int) limit;
+    inFlight--;
+    if (latencyNanos >= 0) {
+      long now = System.nanoTime();
+      if (dropped || latencyNanos > targetLatencyNanos) {
+        if (now - lastDecreaseNanos >= targetLatencyNanos) {
+          limit = Math.max(min, limit * DECREASE_RATIO);
+          lastDecreaseNanos = now;
+        }
+      } else if (saturated) {
+        limit = Math.min(max, limit + 1.0 / limit);
+      }
+    }
+    notifyAll();
+  }
+
+  synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  synchronized int getInFlight() {
+    return inFlight;
+  }
+}
@@ -0,0 +1,18 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+/**
+ * 待发送的消息数越过高水位或回落到低水位时的通知，用于让生产者暂停或恢复。在提交或发送线程中执行，不要阻塞
+ *
+ * @author yuanwq
+ */
+@FunctionalInterface
+public interface BackpressureListener {
+  /**
+   * @param overloaded true为越过高水位，应暂停提交；false为回落到低水位，可以恢复
+   * @param pending 队列中和发送中的消息数
+   */
+  public void onBackpressure(boolean overloaded, int pending);
+}
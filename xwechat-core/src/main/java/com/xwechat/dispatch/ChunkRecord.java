@@ -0,0 +1,96 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * 群发中一个分块的状态，按分块序号记录在{@link MassSendCheckpoint}中。不可变
+ *
+ * @author yuanwq
+ */
+public class ChunkRecord {
+  public enum State {
+    /** 已开始请求，结果未知：可能已经发出，恢复时不会重发 */
+    SENDING,
+    /** 已发送，有msgId */
+    SENT,
+    /** 微信返回错误，没有发出，恢复时重发 */
+    FAILED;
+  }
+
+  private final int index;
+  private final long offset;
+  private final int count;
+  private final State state;
+  private final long msgId;
+  private final long msgDataId;
+  private final int errcode;
+  private final String errmsg;
+
+  public ChunkRecord(int index, long offset, int count, State state, long msgId, long msgDataId,
+      int errcode, String errmsg) {
+    this.index = index;
+    this.offset = offset;
+    this.count = count;
+    this.state = state;
+    this.msgId = msgId;
+    this.msgDataId = msgDataId;
+    this.errcode = errcode;
+    this.errmsg = errmsg;
+  }
+
+  static ChunkRecord sending(int index, long offset, int count) {
+    return new ChunkRecord(index, offset, count, State.SENDING, 0, 0, 0, null);
+  }
+
+  ChunkRecord sent(long msgId, long msgDataId) {
+    return new ChunkRecord(index, offset, count, State.SENT, msgId, msgDataId, 0, null);
+  }
+
+  ChunkRecord failed(int errcode, String errmsg) {
+    return new ChunkRecord(index, offset, count, State.FAILED, 0, 0, errcode, errmsg);
+  }
+
+  /** 分块序号，从0开始 */
+  public int getIndex() {
+    return index;
+  }
+
+  /** 分块第一个openid在整个openid序列中的位置 */
+  public long getOffset() {
+    return offset;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public long getMsgId() {
+    return msgId;
+  }
+
+  public long getMsgDataId() {
+    return msgDataId;
+  }
+
+  public int getErrcode() {
+    return errcode;
+  }
+
+  public String getErrmsg() {
+    return errmsg;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("index", index).add("offset", offset)
+        .add("count", count).add("state", state).add("msgId", msgId).add("msgDataId", msgDataId)
+        .add("errcode", errcode).add("errmsg", errmsg).toString();
+  }
+}
@@ -0,0 +1,375 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.xwechat.api.msg.Message;
+import com.xwechat.api.wxapp.TemplateMsg;
+import com.xwechat.schedule.Clock;
+
+/**
+ * 定时发送：消息连同发送时间写入{@link OutboundLog}，内存中的{@link TimingWheel}只保存发送时间和日志位置，
+ * 到时间后从日志读出消息交给{@link DueHandler}，处理成功后ack。
+ * <ul>
+ * <li>精度为秒，时间轮每秒推进一次</li>
+ * <li>重启后从日志中恢复未ack的消息，停机期间到期的消息在启动后的第一次推进时发出</li>
+ * <li>{@link DueHandler}抛出异常时，消息在{@code retryDelay}后重试</li>
+ * <li>投递语义是至少一次：onDue成功后、ack写入日志前停机，或者ack失败，重启后消息会再次到期。需要严格只发一次时，
+ * 给消息设置{@link com.xwechat.core.IWechatApi#getIdempotencyKey()}并开启
+ * {@link com.xwechat.core.Wechat#setDedupStore(com.xwechat.core.DedupStore)}</li>
+ * <li>日志的段按顺序删除，一条很久以后才发送的消息会让之后的段都保留。段数超过{@code compactThreshold}并且大部分
+ * 空间已经无用时，每次推进把最早的段中未发出的消息重新追加到日志末尾（压缩），最早的段随之删除；
+ * 搬移后消息的id不变，{@link #cancel(long)}仍然有效</li>
+ * </ul>
+ * DueHandler在时间轮线程中执行，应该只是把消息转交给发送队列，比如{@link #toQueue(OutboundQueue)}或
+ * {@link TemplateMsgDispatcher#offer(String, TemplateMsg, DispatchCallback)}，不要直接请求微信。
+ * 日志中的记录格式为{@code [long fireTime][long originId][UTF appId][消息]}，originId为0表示id就是记录的位置，
+ * 否则是搬移前最初的位置
+ *
+ * @author yuanwq
+ */
+public class DelayedSendQueue<T> {
+  private static final Logger logger = LoggerFactory.getLogger(DelayedSendQueue.class);
+
+  /** 消息到期时的处理 */
+  @FunctionalInterface
+  public interface DueHandler<T> {
+    public void onDue(String appId, T msg) throws Exception;
+  }
+
+  private final OutboundLog log;
+  private final OutboundCodec<T> codec;
+  private final DueHandler<T> handler;
+  private final Clock clock;
+  private final ScheduledExecutorService executor;
+  private final boolean ownExecutor;
+  private final long retryDelayMillis;
+  private final int compactThreshold;
+  private final TimingWheel wheel;
+  /** 压缩时搬移过的消息：id -> 当前的日志位置，没有搬移过的消息id就是位置 */
+  private final ConcurrentMap<Long, Long> relocated = new ConcurrentHashMap<>();
+  /** 搬移、取消和到期互斥，避免取消的是搬移前的旧位置或者已经交给handler的消息 */
+  private final Object relocateLock = new Object();
+  /** 正在交给handler的消息id，由relocateLock保护，这期间不能取消 */
+  private final Set<Long> firing = new HashSet<>();
+  /** 未发出的消息在日志中占用的字节数，用于判断压缩是否值得 */
+  private final AtomicLong liveBytes = new AtomicLong();
+
+  private final AtomicLong fired = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong compacted = new AtomicLong();
+  private ScheduledFuture<?> tickFuture;
+
+  private DelayedSendQueue(Builder<T> builder) throws IOException {
+    this.log = builder.log;
+    this.codec = builder.codec;
+    this.handler = builder.handler;
+    this.clock = builder.clock;
+    this.ownExecutor = builder.executor == null;
+    this.executor = ownExecutor ? Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("delayed-send-%d").build())
+        : builder.executor;
+    this.retryDelayMillis = builder.retryDelayMillis;
+    this.compactThreshold = builder.compactThreshold;
+    this.wheel = new TimingWheel(builder.wheelSize, clock.currentTimeMillis() / 1000);
+    Map<Long, OutboundLog.Record> restored = new LinkedHashMap<>();
+    for (OutboundLog.Record record : log.getReplayed()) {
+      long id = idOf(record.getPayload(), record.getPosition());
+      OutboundLog.Record previous = restored.put(id, record);
+      if (previous != null) {
+        // 搬移后还没来得及ack旧位置就停机了，保留后写入的副本
+        log.ack(previous.getPosition());
+      }
+    }
+    for (Map.Entry<Long, OutboundLog.Record> entry : restored.entrySet()) {
+      OutboundLog.Record record = entry.getValue();
+      wheel.add(toSecond(readFireTime(record.getPayload())), entry.getKey());
+      if (entry.getKey() != record.getPosition()) {
+        relocated.put(entry.getKey(), record.getPosition());
+      }
+      liveBytes.addAndGet(record.getPayload().length);
+    }
+    log.releaseReplayed();
+    if (wheel.size() > 0) {
+      logger.info("restore {} delayed messages from {}", wheel.size(), log);
+    }
+  }
+
+  /** 转交给持久化的发送队列 */
+  public static <T> DueHandler<T> toQueue(OutboundQueue<T> queue) {
+    return queue::append;
+  }
+
+  /** 开始每秒推进时间轮 */
+  public synchronized void start() {
+    Preconditions.checkState(tickFuture == null, "already started");
+    long delay = 1000 - clock.currentTimeMillis() % 1000; // 对齐到整秒
+    tickFuture = executor.scheduleAtFixedRate(this::tick, delay, 1000, TimeUnit.MILLISECONDS);
+  }
+
+  /** 停止推进，未到期的消息保留在日志中，下次启动后恢复 */
+  public synchronized void shutdown() {
+    if (tickFuture != null) {
+      tickFuture.cancel(false);
+    }
+    if (ownExecutor) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * @param fireTime 发送时间（毫秒），向上取整到秒；已经过去的时间在下一秒发出
+   * @return 消息的id，用于{@link #cancel(long)}
+   */
+  public long schedule(String appId, T msg, long fireTime) throws IOException {
+    Preconditions.checkNotNull(appId, "appId");
+    Preconditions.checkNotNull(msg, "msg");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeLong(fireTime);
+    out.writeLong(0);
+    out.writeUTF(appId);
+    codec.write(msg, out);
+    byte[] payload = bytes.toByteArray();
+    long position = log.append(payload);
+    liveBytes.addAndGet(payload.length);
+    wheel.add(toSecond(fireTime), position);
+    return position;
+  }
+
+  public long schedule(String appId, T msg, long delay, TimeUnit unit) throws IOException {
+    return schedule(appId, msg, clock.currentTimeMillis() + unit.toMillis(delay));
+  }
+
+  /** @return 消息还没有发出并且取消成功；已经在交给handler或已发出时返回false */
+  public boolean cancel(long id) throws IOException {
+    synchronized (relocateLock) {
+      if (firing.contains(id)) return false;
+      return ack(id, positionOf(id));
+    }
+  }
+
+  private void tick() {
+    try {
+      wheel.advance(clock.currentTimeMillis() / 1000, this::fire);
+      compact();
+    } catch (Exception e) {
+      logger.error("error in delayed send tick", e);
+    }
+  }
+
+  private void fire(long id) {
+    String appId = null;
+    try {
+      // 先确认还没有取消并标记为发送中，之后cancel返回false；搬移也在时间轮线程中执行，位置不会变
+      long position;
+      byte[] payload;
+      synchronized (relocateLock) {
+        position = positionOf(id);
+        payload = log.read(position);
+        if (payload == null) return; // 已取消
+        firing.add(id);
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+      in.readLong();
+      in.readLong();
+      appId = in.readUTF();
+      T msg = codec.read(in);
+      handler.onDue(appId, msg);
+      synchronized (relocateLock) {
+        firing.remove(id);
+        ack(id, position);
+      }
+      fired.incrementAndGet();
+    } catch (Exception e) {
+      synchronized (relocateLock) {
+        firing.remove(id);
+      }
+      failed.incrementAndGet();
+      logger.warn("fail to handle delayed message, appId=" + appId + ", retry in "
+          + retryDelayMillis + "ms", e);
+      wheel.add(toSecond(clock.currentTimeMillis() + retryDelayMillis), id);
+    }
+  }
+
+  /** 调用方持有relocateLock */
+  private boolean ack(long id, long position) throws IOException {
+    byte[] payload = log.read(position);
+    if (payload == null) return false;
+    log.ack(position);
+    relocated.remove(id);
+    liveBytes.addAndGet(-payload.length);
+    return true;
+  }
+
+  /**
+   * 段数超过阈值并且未发出的消息不到已封闭的段的一半时，把最早的段中未发出的消息搬到日志末尾，最早的段随之删除。
+   * 每次推进最多搬移一个段
+   */
+  private void compact() throws IOException {
+    int segments = log.getSegmentCount();
+    if (segments <= compactThreshold) return;
+    if (liveBytes.get() * 2 > (long) (segments - 1) * log.getSegmentSize()) return;
+    long[] positions = log.pendingInFirstSegment();
+    for (long position : positions) {
+      relocate(position);
+    }
+    compacted.addAndGet(positions.length);
+  }
+
+  private void relocate(long position) throws IOException {
+    synchronized (relocateLock) {
+      byte[] payload = log.read(position);
+      if (payload == null) return; // 已发出或取消
+      long id = idOf(payload, position);
+      ByteBuffer.wrap(payload).putLong(8, id);
+      relocated.put(id, log.append(payload));
+      log.ack(position);
+    }
+  }
+
+  private long positionOf(long id) {
+    return relocated.getOrDefault(id, id);
+  }
+
+  private static long idOf(byte[] payload, long position) {
+    long originId = ByteBuffer.wrap(payload).getLong(8);
+    return originId == 0 ? position : originId;
+  }
+
+  private static long readFireTime(byte[] payload) {
+    return ByteBuffer.wrap(payload).getLong(0);
+  }
+
+  private static long toSecond(long millis) {
+    return (millis + 999) / 1000;
+  }
+
+  /** @return 时间轮中的消息数，包括已取消但还没到期的 */
+  public int size() {
+    return wheel.size();
+  }
+
+  public long getFired() {
+    return fired.get();
+  }
+
+  public long getFailed() {
+    return failed.get();
+  }
+
+  /** @return 压缩时搬移过的消息数 */
+  public long getCompacted() {
+    return compacted.get();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("size", wheel.size()).add("fired", fired)
+        .add("failed", failed).add("compacted", compacted).add("log", log).toString();
+  }
+
+  public static Builder<TemplateMsg> forTemplateMsg() {
+    return new Builder<>(OutboundCodec.TEMPLATE_MSG);
+  }
+
+  public static Builder<Message> forMessage() {
+    return new Builder<>(OutboundCodec.MESSAGE);
+  }
+
+  public static <T> Builder<T> newBuilder(OutboundCodec<T> codec) {
+    return new Builder<>(codec);
+  }
+
+  public static class Builder<T> {
+    private final OutboundCodec<T> codec;
+    private OutboundLog log;
+    private DueHandler<T> handler;
+    private Clock clock = Clock.SYSTEM;
+    private ScheduledExecutorService executor;
+    private int wheelSize = 4096;
+    private long retryDelayMillis = 10_000;
+    private int compactThreshold = 4;
+
+    private Builder(OutboundCodec<T> codec) {
+      this.codec = Preconditions.checkNotNull(codec, "codec");
+    }
+
+    /** 必须，专用的日志目录，不要和{@link OutboundQueue}共用 */
+    public Builder<T> setLog(OutboundLog log) {
+      this.log = log;
+      return this;
+    }
+
+    /** 必须 */
+    public Builder<T> setHandler(DueHandler<T> handler) {
+      this.handler = handler;
+      return this;
+    }
+
+    public Builder<T> setClock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /** 推进时间轮的线程，默认创建单线程的执行器，{@link DelayedSendQueue#shutdown()}时关闭 */
+    public Builder<T> setExecutor(ScheduledExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * 时间轮的槽数，即一圈的秒数，默认4096（约68分钟）。一圈以后的消息每圈被检查一次
+     */
+    public Builder<T> setWheelSize(int wheelSize) {
+      Preconditions.checkArgument(wheelSize > 0, "wheelSize must be positive");
+      this.wheelSize = wheelSize;
+      return this;
+    }
+
+    /** 处理失败后重试的间隔，默认10秒 */
+    public Builder<T> setRetryDelay(long retryDelay, TimeUnit unit) {
+      Preconditions.checkArgument(retryDelay > 0, "retryDelay must be positive");
+      this.retryDelayMillis = unit.toMillis(retryDelay);
+      return this;
+    }
+
+    /** 日志段数超过该值时才考虑压缩，默认4 */
+    public Builder<T> setCompactThreshold(int compactThreshold) {
+      Preconditions.checkArgument(compactThreshold > 1, "compactThreshold must be greater than 1");
+      this.compactThreshold = compactThreshold;
+      return this;
+    }
+
+    public DelayedSendQueue<T> build() throws IOException {
+      Preconditions.checkNotNull(log, "log is required");
+      Preconditions.checkNotNull(handler, "handler is required");
+      Preconditions.checkNotNull(clock, "clock is required");
+      return new DelayedSendQueue<>(this);
+    }
+  }
+}
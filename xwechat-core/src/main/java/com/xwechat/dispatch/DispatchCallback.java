@@ -0,0 +1,14 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+/**
+ * 单条消息发送完成（成功或失败）的回调，在发送线程中执行，不要阻塞
+ *
+ * @author yuanwq
+ */
+@FunctionalInterface
+public interface DispatchCallback {
+  public void onResult(DispatchResult result);
+}
@@ -0,0 +1,77 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import com.google.common.base.MoreObjects;
+import com.xwechat.api.wxapp.TemplateMsg;
+
+/**
+ * {@link TemplateMsgDispatcher}中单条消息的发送结果。不可变
+ *
+ * @author yuanwq
+ */
+public class DispatchResult {
+  private final String appId;
+  private final TemplateMsg msg;
+  private final int errcode;
+  private final String errmsg;
+  private final Throwable error;
+  private final long latencyMillis;
+
+  DispatchResult(String appId, TemplateMsg msg, int errcode, String errmsg, Throwable error,
+      long latencyMillis) {
+    this.appId = appId;
+    this.msg = msg;
+    this.errcode = errcode;
+    this.errmsg = errmsg;
+    this.error = error;
+    this.latencyMillis = latencyMillis;
+  }
+
+  public String getAppId() {
+    return appId;
+  }
+
+  public TemplateMsg getMsg() {
+    return msg;
+  }
+
+  public boolean isSuccess() {
+    return errcode == 0 && error == null;
+  }
+
+  /**
+   * @return 临时失败，重试可能成功：没有拿到微信的返回（没有token、提交失败、IO异常或超时），或者微信返回过载/限流的
+   *         errcode（{@link TemplateMsgDispatcher#THROTTLE_ERRCODES}）；微信返回的其它errcode是确定的失败，重试也不会成功
+   */
+  public boolean isRetryable() {
+    return !isSuccess() && TemplateMsgDispatcher.THROTTLE_ERRCODES.contains(errcode);
+  }
+
+  /** @return 微信返回的errcode，没有拿到返回（没有token、IO异常）时为-1 */
+  public int getErrcode() {
+    return errcode;
+  }
+
+  public String getErrmsg() {
+    return errmsg;
+  }
+
+  /** @return 请求异常，微信返回错误时为null */
+  public Throwable getError() {
+    return error;
+  }
+
+  /** @return 请求耗时，没有发出请求时为0 */
+  public long getLatencyMillis() {
+    return latencyMillis;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("appId", appId)
+        .add("touser", msg.getTouser()).add("errcode", errcode).add("errmsg", errmsg)
+        .add("error", error).add("latencyMillis", latencyMillis).toString();
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * 文件中的群发进度：每个campaign一个文件，每次{@link #save(String, ChunkRecord)}追加一行并fsync，
+ * 读取时同一分块以最后一行为准。最后一行写了一半（进程在写入时退出）时忽略该行
+ *
+ * @author yuanwq
+ */
+public class FileMassSendCheckpoint implements MassSendCheckpoint {
+  private static final Logger logger = LoggerFactory.getLogger(FileMassSendCheckpoint.class);
+  private static final String SEPARATOR = "\t";
+
+  private final File dir;
+
+  public FileMassSendCheckpoint(File dir) throws IOException {
+    FileUtils.forceMkdir(dir);
+    this.dir = dir;
+  }
+
+  private File fileOf(String campaignId) {
+    Preconditions.checkArgument(campaignId != null && campaignId.matches("[\\w.-]+"),
+        "invalid campaignId: %s", campaignId);
+    return new File(dir, campaignId + ".chk");
+  }
+
+  @Override
+  public synchronized Map<Integer, ChunkRecord> load(String campaignId) throws IOException {
+    File file = fileOf(campaignId);
+    Map<Integer, ChunkRecord> records = Maps.newHashMap();
+    if (!file.exists()) return records;
+    List<String> lines = FileUtils.readLines(file, StandardCharsets.UTF_8);
+    for (String line : lines) {
+      String[] parts = line.split(SEPARATOR, -1);
+      try {
+        Preconditions.checkArgument(parts.length == 8);
+        ChunkRecord record = new ChunkRecord(Integer.parseInt(parts[0]),
+            Long.parseLong(parts[1]), Integer.parseInt(parts[2]),
+            ChunkRecord.State.valueOf(parts[3]), Long.parseLong(parts[4]),
+            Long.parseLong(parts[5]), Integer.parseInt(parts[6]),
+            parts[7].isEmpty() ? null : parts[7]);
+        records.put(record.getIndex(), record);
+      } catch (IllegalArgumentException e) {
+        logger.warn("skip broken checkpoint line, campaignId={}, line={}", campaignId, line);
+      }
+    }
+    return records;
+  }
+
+  @Override
+  public synchronized void save(String campaignId, ChunkRecord record) throws IOException {
+    String errmsg = StringUtils.defaultString(record.getErrmsg()).replaceAll("[\\t\\r\\n]", " ");
+    String line = Joiner.on(SEPARATOR).join(record.getIndex(), record.getOffset(),
+        record.getCount(), record.getState(), record.getMsgId(), record.getMsgDataId(),
+        record.getErrcode(), errmsg) + "\n";
+    File file = fileOf(campaignId);
+    if (!endsWithNewline(file)) {
+      line = "\n" + line; // 上次写了一半的行单独成行，不影响这一行
+    }
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(line.getBytes(StandardCharsets.UTF_8));
+      out.getFD().sync();
+    }
+  }
+
+  private static boolean endsWithNewline(File file) throws IOException {
+    if (file.length() == 0) return true;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      raf.seek(raf.length() - 1);
+      return raf.read() == '\n';
+    }
+  }
+}
@@ -0,0 +1,288 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.xwechat.schedule.Clock;
+
+/**
+ * 按openid保存小程序模板消息可用的form_id和prepay_id（{@link com.xwechat.api.wxapp.TemplateMsg#setForm_id(String)}）：
+ * <ul>
+ * <li>每个openid的记录按过期时间排列在一个环形数组中，{@link #take(String)}取最早过期的一个，均摊O(1)</li>
+ * <li>过期时间按小时分桶索引，{@link #evictExpired()}只检查整桶已过期的openid，需要定期调用；
+ * {@link #take(String)}也会顺便清理该openid已过期的记录</li>
+ * <li>每次变化回调{@link FormIdStore}，重启后{@link #restore()}恢复</li>
+ * </ul>
+ * 线程安全
+ *
+ * @author yuanwq
+ */
+public class FormIdPool {
+  private static final Logger logger = LoggerFactory.getLogger(FormIdPool.class);
+  /** form_id和prepay_id的有效期 */
+  public static final long TTL_MILLIS = TimeUnit.DAYS.toMillis(7);
+  /** prepay_id可以发送的次数 */
+  public static final int PREPAY_ID_USES = 3;
+  /** 剩余有效期不足该值的记录不再取出，留给发送请求的时间 */
+  public static final long TAKE_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final long INDEX_BUCKET_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private final FormIdStore store;
+  private final Clock clock;
+  private final ConcurrentMap<String, Entries> pool = Maps.newConcurrentMap();
+  /** 过期时间所在的小时 -> 在这个小时有记录过期的openid */
+  private final ConcurrentNavigableMap<Long, Set<String>> expiryIndex =
+      new ConcurrentSkipListMap<>();
+  private final AtomicInteger size = new AtomicInteger();
+
+  public FormIdPool() {
+    this(FormIdStore.NONE, Clock.SYSTEM);
+  }
+
+  public FormIdPool(FormIdStore store, Clock clock) {
+    this.store = Preconditions.checkNotNull(store);
+    this.clock = Preconditions.checkNotNull(clock);
+  }
+
+  /** 从{@link FormIdStore}恢复，启动时调用一次 */
+  public void restore() throws IOException {
+    long now = clock.currentTimeMillis();
+    store.load((openid, value, expireTime, uses) -> {
+      if (expireTime > now && uses > 0) {
+        doAdd(openid, value, expireTime, uses);
+      }
+    });
+    logger.info("restored form ids, size={}", size.get());
+  }
+
+  /** 表单提交得到的form_id，有效期7天，可以使用1次 */
+  public void addFormId(String openid, String formId) {
+    add(openid, formId, clock.currentTimeMillis() + TTL_MILLIS, 1);
+  }
+
+  /** 支付得到的prepay_id，有效期7天，可以使用3次 */
+  public void addPrepayId(String openid, String prepayId) {
+    add(openid, prepayId, clock.currentTimeMillis() + TTL_MILLIS, PREPAY_ID_USES);
+  }
+
+  public void add(String openid, String value, long expireTime, int uses) {
+    Preconditions.checkArgument(StringUtils.isNotBlank(openid), "blank openid");
+    Preconditions.checkArgument(StringUtils.isNotBlank(value), "blank value");
+    Preconditions.checkArgument(uses > 0 && uses <= Byte.MAX_VALUE, "invalid uses: %s", uses);
+    if (expireTime <= clock.currentTimeMillis()) return;
+    doAdd(openid, value, expireTime, uses);
+    try {
+      store.onAdd(openid, value, expireTime, uses);
+    } catch (Exception e) {
+      logger.error("error in form id store onAdd, openid=" + openid, e);
+    }
+  }
+
+  private void doAdd(String openid, String value, long expireTime, int uses) {
+    pool.compute(openid, (k, entries) -> {
+      if (entries == null) {
+        entries = new Entries();
+      }
+      entries.add(value, expireTime, (byte) uses);
+      return entries;
+    });
+    size.incrementAndGet();
+    expiryIndex.computeIfAbsent(expireTime / INDEX_BUCKET_MILLIS, k -> Sets.newConcurrentHashSet())
+        .add(openid);
+  }
+
+  /**
+   * 取出openid最早过期的一个可用值，prepay_id在用完3次前会留在池中
+   *
+   * @return 没有可用值时返回null
+   */
+  public String take(String openid) {
+    long deadline = clock.currentTimeMillis() + TAKE_MARGIN_MILLIS;
+    List<String> expired = Lists.newArrayListWithCapacity(0);
+    String[] taken = new String[1];
+    int[] remaining = new int[1];
+    pool.computeIfPresent(openid, (k, entries) -> {
+      entries.trim(deadline, expired);
+      if (entries.size > 0) {
+        taken[0] = entries.values[entries.head];
+        remaining[0] = entries.use();
+      }
+      return entries.size > 0 ? entries : null;
+    });
+    afterRemove(openid, expired);
+    if (taken[0] != null) {
+      if (remaining[0] == 0) {
+        size.decrementAndGet();
+      }
+      try {
+        store.onTake(openid, taken[0], remaining[0]);
+      } catch (Exception e) {
+        logger.error("error in form id store onTake, openid=" + openid, e);
+      }
+    }
+    return taken[0];
+  }
+
+  /** @return openid可用的记录数（prepay_id按1条计） */
+  public int count(String openid) {
+    long deadline = clock.currentTimeMillis() + TAKE_MARGIN_MILLIS;
+    Entries entries = pool.get(openid);
+    if (entries == null) return 0;
+    synchronized (entries) {
+      return entries.countAfter(deadline);
+    }
+  }
+
+  /** @return 所有记录数，包括已过期但还未清理的 */
+  public int size() {
+    return size.get();
+  }
+
+  /** @return 有记录的openid数 */
+  public int openids() {
+    return pool.size();
+  }
+
+  /**
+   * 清理整个小时都已过期的记录，建议每小时调用一次
+   *
+   * @return 清理的记录数
+   */
+  public int evictExpired() {
+    long now = clock.currentTimeMillis();
+    int evicted = 0;
+    Map.Entry<Long, Set<String>> bucket;
+    while ((bucket = expiryIndex.firstEntry()) != null
+        && (bucket.getKey() + 1) * INDEX_BUCKET_MILLIS <= now) {
+      expiryIndex.remove(bucket.getKey());
+      for (String openid : bucket.getValue()) {
+        List<String> expired = Lists.newArrayListWithCapacity(0);
+        pool.computeIfPresent(openid, (k, entries) -> {
+          entries.trim(now, expired);
+          return entries.size > 0 ? entries : null;
+        });
+        afterRemove(openid, expired);
+        evicted += expired.size();
+      }
+    }
+    if (evicted > 0) {
+      logger.info("evicted {} expired form ids, size={}", evicted, size.get());
+    }
+    return evicted;
+  }
+
+  private void afterRemove(String openid, List<String> expired) {
+    if (expired.isEmpty()) return;
+    size.addAndGet(-expired.size());
+    for (String value : expired) {
+      try {
+        store.onExpire(openid, value);
+      } catch (Exception e) {
+        logger.error("error in form id store onExpire, openid=" + openid, e);
+      }
+    }
+  }
+
+  /**
+   * 一个openid的记录，按过期时间升序排列的环形数组。只在{@link ConcurrentMap#compute}中修改，
+   * {@link #count(String)}读取时同步
+   */
+  private static class Entries {
+    private String[] values = new String[2];
+    private long[] expireTimes = new long[2];
+    private byte[] uses = new byte[2];
+    private int head;
+    private int size;
+
+    private int index(int i) {
+      return (head + i) % values.length;
+    }
+
+    private synchronized void add(String value, long expireTime, byte use) {
+      if (size == values.length) {
+        grow();
+      }
+      // 通常按时间顺序加入，只有乱序时需要向前移动
+      int pos = size;
+      while (pos > 0 && expireTimes[index(pos - 1)] > expireTime) {
+        int from = index(pos - 1);
+        int to = index(pos);
+        values[to] = values[from];
+        expireTimes[to] = expireTimes[from];
+        uses[to] = uses[from];
+        pos--;
+      }
+      int idx = index(pos);
+      values[idx] = value;
+      expireTimes[idx] = expireTime;
+      uses[idx] = use;
+      size++;
+    }
+
+    private void grow() {
+      int capacity = values.length * 2;
+      String[] newValues = new String[capacity];
+      long[] newExpireTimes = new long[capacity];
+      byte[] newUses = new byte[capacity];
+      for (int i = 0; i < size; i++) {
+        int idx = index(i);
+        newValues[i] = values[idx];
+        newExpireTimes[i] = expireTimes[idx];
+        newUses[i] = uses[idx];
+      }
+      values = newValues;
+      expireTimes = newExpireTimes;
+      uses = newUses;
+      head = 0;
+    }
+
+    /** 移除在deadline之前过期的记录 */
+    private synchronized void trim(long deadline, List<String> removed) {
+      while (size > 0 && expireTimes[head] <= deadline) {
+        removed.add(values[head]);
+        removeHead();
+      }
+    }
+
+    /** 使用头部记录一次，用完时移除 */
+    private synchronized int use() {
+      int remaining = --uses[head];
+      if (remaining == 0) {
+        removeHead();
+      }
+      return remaining;
+    }
+
+    private void removeHead() {
+      values[head] = null;
+      head = (head + 1) % values.length;
+      size--;
+    }
+
+    private int countAfter(long deadline) {
+      int count = 0;
+      for (int i = size - 1; i >= 0 && expireTimes[index(i)] > deadline; i--) {
+        count++;
+      }
+      return count;
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.IOException;
+
+/**
+ * {@link FormIdPool}的持久化，池中每次变化都会同步回调（在锁外），实现可以写入数据库或追加到文件，
+ * 重启后通过{@link #load(Loader)}恢复。回调抛出的异常只记录日志，不影响池中的数据。实现需要线程安全
+ *
+ * @author yuanwq
+ */
+public interface FormIdStore {
+  /** 不持久化 */
+  public static final FormIdStore NONE = new FormIdStore() {
+    @Override
+    public void load(Loader loader) {}
+
+    @Override
+    public void onAdd(String openid, String value, long expireTime, int uses) {}
+
+    @Override
+    public void onTake(String openid, String value, int remainingUses) {}
+
+    @Override
+    public void onExpire(String openid, String value) {}
+  };
+
+  /** 恢复时接收记录 */
+  @FunctionalInterface
+  public interface Loader {
+    public void add(String openid, String value, long expireTime, int uses);
+  }
+
+  /** 对每条未用完的记录调用loader，已过期的会被忽略 */
+  public void load(Loader loader) throws IOException;
+
+  public void onAdd(String openid, String value, long expireTime, int uses);
+
+  /** 使用了一次，remainingUses为0时记录可以删除 */
+  public void onTake(String openid, String value, int remainingUses);
+
+  /** 过期未使用，记录可以删除 */
+  public void onExpire(String openid, String value);
+}
@@ -0,0 +1,23 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * 群发进度的存储，{@link MassSendPlanner}据此在中断后继续，不重复发送。默认实现{@link MemoryMassSendCheckpoint}
+ * 只适合测试，生产环境请使用{@link FileMassSendCheckpoint}或自行实现（比如数据库）。实现需要线程安全
+ *
+ * @author yuanwq
+ */
+public interface MassSendCheckpoint {
+  /**
+   * @return campaignId已记录的分块，key为分块序号，同一分块只返回最后一次{@link #save(String, ChunkRecord)}的记录
+   */
+  public Map<Integer, ChunkRecord> load(String campaignId) throws IOException;
+
+  /** 记录分块的最新状态，返回前需要持久化，否则中断后可能重复发送 */
+  public void save(String campaignId, ChunkRecord record) throws IOException;
+}
@@ -0,0 +1,310 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.xwechat.api.msg.Message;
+import com.xwechat.api.msg.PreparedMessage;
+import com.xwechat.api.msg.SendMessageApi;
+import com.xwechat.api.msg.SendMessageResponse;
+import com.xwechat.core.IAccessTokenSource;
+import com.xwechat.core.ResponseWrapper;
+import com.xwechat.core.Wechat;
+import com.xwechat.dispatch.ChunkRecord.State;
+
+/**
+ * 按openid列表群发（{@link SendMessageApi}）大量用户：
+ * <ul>
+ * <li>逐个读取openid，按微信的限制（2~9999个）分块，不需要一次性加载所有openid</li>
+ * <li>同时最多concurrency个分块在发送，所有请求共享一个限速器</li>
+ * <li>每个分块的状态记录在{@link MassSendCheckpoint}中，中断后用相同的campaignId和相同顺序的openid重新调用，
+ * 已发送的分块会跳过</li>
+ * </ul>
+ * 分块开始请求前记录为{@link State#SENDING}，请求出现IO异常或微信返回系统繁忙（-1）时无法确定微信是否已经收到，
+ * 保持该状态，恢复时也不会重发，需要人工确认（见{@link MassSendResult#count(State)}）；微信返回错误的分块记录为
+ * {@link State#FAILED}，恢复时重发
+ *
+ * @author yuanwq
+ */
+public class MassSendPlanner {
+  private static final Logger logger = LoggerFactory.getLogger(MassSendPlanner.class);
+  /** 每次群发的openid数量上限（不含） */
+  public static final int MAX_OPENIDS = 10000;
+  /** 每次群发的openid数量下限 */
+  public static final int MIN_OPENIDS = 2;
+
+  private Wechat wechat;
+  private IAccessTokenSource tokenSource;
+  private MassSendCheckpoint checkpoint;
+  private ExecutorService executor;
+  private RateLimiter rateLimiter;
+  private int chunkSize;
+  private int concurrency;
+
+  private MassSendPlanner() {}
+
+  public MassSendResult send(String appId, String campaignId, Message content,
+      Stream<String> openids) throws IOException, InterruptedException {
+    return send(appId, campaignId, content, openids.iterator());
+  }
+
+  /**
+   * 阻塞直到所有分块完成（成功、失败或结果未知）
+   *
+   * @param content 消息内容，发送对象会被每个分块的openid替换
+   * @param openids 重试时需要与上次顺序相同
+   * @throws IllegalStateException openid序列与checkpoint中的记录不一致
+   */
+  public MassSendResult send(String appId, String campaignId, Message content,
+      Iterator<String> openids) throws IOException, InterruptedException {
+    PreparedMessage prepared = content.prepare();
+    Map<Integer, ChunkRecord> saved = checkpoint.load(campaignId);
+    ConcurrentSkipListMap<Integer, ChunkRecord> results = new ConcurrentSkipListMap<>();
+    AtomicInteger sent = new AtomicInteger();
+    Semaphore permits = new Semaphore(concurrency);
+    List<CompletableFuture<Void>> futures = Lists.newArrayList();
+    Chunker chunker = new Chunker(openids);
+    int index = 0;
+    long offset = 0;
+    for (List<String> chunk = chunker.next(); !chunk.isEmpty(); chunk = chunker.next()) {
+      ChunkRecord record = saved.get(index);
+      if (record != null) {
+        Preconditions.checkState(record.getOffset() == offset && record.getCount() == chunk.size(),
+            "openids changed since last run, campaignId=%s, chunk=%s", campaignId, record);
+      }
+      if (record != null && record.getState() != State.FAILED) {
+        if (record.getState() == State.SENDING) {
+          logger.warn("[massSend] skip chunk with unknown result, campaignId={}, chunk={}",
+              campaignId, record);
+        }
+        results.put(index, record);
+      } else {
+        ChunkRecord sending = ChunkRecord.sending(index, offset, chunk.size());
+        List<String> targets = chunk;
+        permits.acquire();
+        futures.add(CompletableFuture.runAsync(() -> {
+          try {
+            ChunkRecord done = sendChunk(appId, campaignId, prepared, sending, targets);
+            results.put(done.getIndex(), done);
+            if (done.getState() == State.SENT) {
+              sent.incrementAndGet();
+            }
+          } finally {
+            permits.release();
+          }
+        }, executor));
+      }
+      offset += chunk.size();
+      index++;
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    MassSendResult result =
+        new MassSendResult(campaignId, Lists.newArrayList(results.values()), sent.get());
+    logger.info("[massSend] done, appId={}, result={}", appId, result);
+    return result;
+  }
+
+  private ChunkRecord sendChunk(String appId, String campaignId, PreparedMessage content,
+      ChunkRecord sending, List<String> openids) {
+    rateLimiter.acquire();
+    boolean checkpointed = false;
+    try {
+      String accessToken = tokenSource.getAccessToken(appId);
+      if (accessToken == null) {
+        return save(campaignId, sending.failed(-1, "no access token"));
+      }
+      // 内容部分每个campaign只序列化一次，openid在发送时直接写入请求
+      SendMessageApi api = new SendMessageApi().setMessage(content, openids);
+      api.setAccessToken(accessToken);
+      checkpoint.save(campaignId, sending);
+      checkpointed = true;
+      ResponseWrapper<SendMessageResponse> wrapper;
+      try {
+        wrapper = wechat.call(api);
+      } catch (IOException e) {
+        logger.error("[massSend] unknown result, will not resend, campaignId=" + campaignId
+            + ", chunk=" + sending, e);
+        return sending;
+      }
+      if (wrapper.isError()) {
+        logger.warn("[massSend] fail, campaignId={}, chunk={}, response={}", campaignId, sending,
+            wrapper);
+        return save(campaignId, sending.failed(wrapper.getErrcode(), wrapper.getErrmsg()));
+      }
+      if (wrapper.getErrmsg() != null && wrapper.getErrcode() < 0) {
+        logger.error("[massSend] system busy, unknown result, will not resend, campaignId={}, "
+            + "chunk={}, response={}", campaignId, sending, wrapper);
+        return sending;
+      }
+      // 没有错误即已发出，响应中缺少msg_id时仍记为已发送，避免恢复时重发
+      SendMessageResponse response = wrapper.getResponse();
+      if (response == null) {
+        logger.warn("[massSend] sent without msg_id, campaignId={}, chunk={}, response={}",
+            campaignId, sending, wrapper);
+        return save(campaignId, sending.sent(0, 0));
+      }
+      return save(campaignId, sending.sent(response.getMsgId(), response.getMsgDataId()));
+    } catch (IOException e) {
+      // 写checkpoint失败，状态以checkpoint中的记录为准
+      logger.error("[massSend] fail to save checkpoint, campaignId=" + campaignId + ", chunk="
+          + sending, e);
+      return sending;
+    } catch (RuntimeException e) {
+      if (checkpointed) {
+        // 请求可能已被微信接受（比如解析响应时出错），与checkpoint中的SENDING一致，不重发
+        logger.error("[massSend] unknown result, will not resend, campaignId=" + campaignId
+            + ", chunk=" + sending, e);
+        return sending;
+      }
+      logger.error("[massSend] fail to send, campaignId=" + campaignId + ", chunk=" + sending, e);
+      return sending.failed(-1, e.toString());
+    }
+  }
+
+  private ChunkRecord save(String campaignId, ChunkRecord record) throws IOException {
+    checkpoint.save(campaignId, record);
+    return record;
+  }
+
+  /**
+   * 按chunkSize分块；如果最后只剩1个openid（不能单独群发），并入前一块，前一块已满时从中分出1个与它组成最后一块。
+   * 分块结果只取决于openid序列和chunkSize，保证重试时序号和偏移一致
+   */
+  private class Chunker {
+    private final PeekingIterator<String> openids;
+    private List<String> carry = Lists.newArrayList();
+
+    private Chunker(Iterator<String> openids) {
+      this.openids = Iterators.peekingIterator(openids);
+    }
+
+    private List<String> next() {
+      List<String> chunk = carry;
+      carry = Lists.newArrayList();
+      while (chunk.size() < chunkSize && openids.hasNext()) {
+        chunk.add(openids.next());
+      }
+      if (openids.hasNext()) {
+        String next = openids.next();
+        if (openids.hasNext()) {
+          carry.add(next);
+        } else if (chunk.size() + 1 < MAX_OPENIDS) {
+          chunk.add(next);
+        } else {
+          carry.add(chunk.remove(chunk.size() - 1));
+          carry.add(next);
+        }
+      }
+      Preconditions.checkArgument(chunk.isEmpty() || chunk.size() >= MIN_OPENIDS,
+          "at least %s openids to mass send", MIN_OPENIDS);
+      return chunk;
+    }
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private Wechat wechat;
+    private IAccessTokenSource tokenSource;
+    private MassSendCheckpoint checkpoint;
+    private ExecutorService executor;
+    private double permitsPerSecond = 5;
+    private int chunkSize = MAX_OPENIDS - 1;
+    private int concurrency = 4;
+
+    private Builder() {}
+
+    /** @default {@link Wechat#get()} */
+    public Builder setWechat(Wechat wechat) {
+      this.wechat = wechat;
+      return this;
+    }
+
+    /** 必填，比如{@link com.xwechat.schedule.WechatScheduler} */
+    public Builder setTokenSource(IAccessTokenSource tokenSource) {
+      this.tokenSource = tokenSource;
+      return this;
+    }
+
+    /** @default {@link MemoryMassSendCheckpoint} */
+    public Builder setCheckpoint(MassSendCheckpoint checkpoint) {
+      this.checkpoint = checkpoint;
+      return this;
+    }
+
+    /** @default concurrency个daemon线程的线程池 */
+    public Builder setExecutor(ExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * 每秒最多发出的群发请求数
+     *
+     * @default 5
+     */
+    public Builder setRate(double permitsPerSecond) {
+      Preconditions.checkArgument(permitsPerSecond > 0, "rate must be positive");
+      this.permitsPerSecond = permitsPerSecond;
+      return this;
+    }
+
+    /**
+     * 每个分块的openid数，已有checkpoint的campaign重试时不要修改
+     *
+     * @default 9999
+     */
+    public Builder setChunkSize(int chunkSize) {
+      Preconditions.checkArgument(chunkSize >= MIN_OPENIDS && chunkSize < MAX_OPENIDS,
+          "chunkSize must be in [%s, %s)", MIN_OPENIDS, MAX_OPENIDS);
+      this.chunkSize = chunkSize;
+      return this;
+    }
+
+    /** @default 4 */
+    public Builder setConcurrency(int concurrency) {
+      Preconditions.checkArgument(concurrency > 0, "concurrency must be positive");
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    public MassSendPlanner build() {
+      Preconditions.checkNotNull(tokenSource, "null tokenSource");
+      MassSendPlanner planner = new MassSendPlanner();
+      planner.wechat = this.wechat != null ? this.wechat : Wechat.get();
+      planner.tokenSource = this.tokenSource;
+      planner.checkpoint =
+          this.checkpoint != null ? this.checkpoint : new MemoryMassSendCheckpoint();
+      planner.executor = this.executor != null ? this.executor
+          : Executors.newFixedThreadPool(concurrency,
+              new ThreadFactoryBuilder().setDaemon(true).setNameFormat("mass-send-%d").build());
+      planner.rateLimiter = RateLimiter.create(permitsPerSecond);
+      planner.chunkSize = this.chunkSize;
+      planner.concurrency = this.concurrency;
+      return planner;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.util.List;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.xwechat.dispatch.ChunkRecord.State;
+
+/**
+ * 一次{@link MassSendPlanner#send}的结果，包括之前中断时已完成的分块。不可变
+ *
+ * @author yuanwq
+ */
+public class MassSendResult {
+  private final String campaignId;
+  private final List<ChunkRecord> chunks;
+  private final int sentInThisRun;
+
+  MassSendResult(String campaignId, List<ChunkRecord> chunks, int sentInThisRun) {
+    this.campaignId = campaignId;
+    this.chunks = ImmutableList.copyOf(chunks);
+    this.sentInThisRun = sentInThisRun;
+  }
+
+  public String getCampaignId() {
+    return campaignId;
+  }
+
+  /** @return 所有分块的最终状态，按序号排列 */
+  public List<ChunkRecord> getChunks() {
+    return chunks;
+  }
+
+  /** @return 本次运行新发送成功的分块数，不含之前已发送的 */
+  public int getSentInThisRun() {
+    return sentInThisRun;
+  }
+
+  public int count(State state) {
+    return (int) chunks.stream().filter(c -> c.getState() == state).count();
+  }
+
+  /** @return 已发送的openid数 */
+  public long getSentOpenids() {
+    return chunks.stream().filter(c -> c.getState() == State.SENT)
+        .mapToLong(ChunkRecord::getCount).sum();
+  }
+
+  /** @return 所有分块都已发送 */
+  public boolean isComplete() {
+    return chunks.stream().allMatch(c -> c.getState() == State.SENT);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("campaignId", campaignId)
+        .add("chunks", chunks.size()).add("sent", count(State.SENT))
+        .add("sentInThisRun", sentInThisRun).add("failed", count(State.FAILED))
+        .add("sending", count(State.SENDING)).add("sentOpenids", getSentOpenids()).toString();
+  }
+}
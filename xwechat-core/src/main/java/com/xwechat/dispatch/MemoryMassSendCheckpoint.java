@@ -0,0 +1,32 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * 内存中的群发进度，进程退出后丢失，只能在同一进程内重试
+ *
+ * @author yuanwq
+ */
+public class MemoryMassSendCheckpoint implements MassSendCheckpoint {
+  private final ConcurrentMap<String, ConcurrentMap<Integer, ChunkRecord>> campaigns =
+      Maps.newConcurrentMap();
+
+  @Override
+  public Map<Integer, ChunkRecord> load(String campaignId) {
+    Map<Integer, ChunkRecord> records = campaigns.get(campaignId);
+    return records == null ? ImmutableMap.of() : ImmutableMap.copyOf(records);
+  }
+
+  @Override
+  public void save(String campaignId, ChunkRecord record) {
+    campaigns.computeIfAbsent(campaignId, k -> Maps.newConcurrentMap()).put(record.getIndex(),
+        record);
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.xwechat.api.msg.Message;
+import com.xwechat.api.msg.MessageType;
+import com.xwechat.api.wxapp.TemplateMsg;
+
+/**
+ * {@link OutboundQueue}中消息的二进制编码，写入{@link OutboundLog}前编码，重放时解码。
+ * 比json更紧凑，也不需要消息类有默认构造函数
+ *
+ * @author yuanwq
+ */
+public interface OutboundCodec<T> {
+  public void write(T msg, DataOutput out) throws IOException;
+
+  public T read(DataInput in) throws IOException;
+
+  /** 小程序模板消息 */
+  public static final OutboundCodec<TemplateMsg> TEMPLATE_MSG = new OutboundCodec<TemplateMsg>() {
+    @Override
+    public void write(TemplateMsg msg, DataOutput out) throws IOException {
+      writeString(out, msg.getTouser());
+      writeString(out, msg.getTemplate_id());
+      writeString(out, msg.getPage());
+      writeString(out, msg.getForm_id());
+      writeString(out, msg.getColor());
+      writeString(out, msg.getEmphasis_keyword());
+      Map<String, TemplateMsg.Keyword> data = msg.getData();
+      out.writeInt(data.size());
+      for (Map.Entry<String, TemplateMsg.Keyword> entry : data.entrySet()) {
+        writeString(out, entry.getKey());
+        writeString(out, entry.getValue().getValue());
+        writeString(out, entry.getValue().getColor());
+      }
+    }
+
+    @Override
+    public TemplateMsg read(DataInput in) throws IOException {
+      TemplateMsg msg = new TemplateMsg();
+      msg.setTouser(readString(in));
+      msg.setTemplate_id(readString(in));
+      msg.setPage(readString(in));
+      msg.setForm_id(readString(in));
+      msg.setColor(readString(in));
+      msg.setEmphasis_keyword(readString(in));
+      int size = in.readInt();
+      Map<String, TemplateMsg.Keyword> data = Maps.newTreeMap();
+      for (int i = 0; i < size; i++) {
+        String key = readString(in);
+        data.put(key, new TemplateMsg.Keyword(readString(in), readString(in)));
+      }
+      msg.setData(data);
+      return msg;
+    }
+  };
+
+  /** 公众号群发消息，包括发送对象 */
+  public static final OutboundCodec<Message> MESSAGE = new OutboundCodec<Message>() {
+    @Override
+    public void write(Message msg, DataOutput out) throws IOException {
+      out.writeByte(msg.getType().ordinal());
+      out.writeBoolean(msg.isToAll());
+      Integer tagId = msg.getTagId();
+      out.writeInt(tagId == null ? -1 : tagId);
+      Set<String> openids = msg.getOpenids();
+      out.writeInt(openids.size());
+      for (String openid : openids) {
+        writeString(out, openid);
+      }
+      writeString(out, msg.getMediaId());
+      writeString(out, msg.getTextContent());
+      writeString(out, msg.getCardId());
+      writeString(out, msg.getTitle());
+      writeString(out, msg.getDescription());
+      writeString(out, msg.getThumbMediaId());
+      out.writeInt(msg.getSendIgnoreReprint());
+    }
+
+    @Override
+    public Message read(DataInput in) throws IOException {
+      Message msg = new Message(MessageType.values()[in.readByte()]);
+      boolean toAll = in.readBoolean();
+      int tagId = in.readInt();
+      int size = in.readInt();
+      if (toAll) {
+        msg.setToAll(true);
+      } else if (tagId > 0) {
+        msg.setTagId(tagId);
+      }
+      if (size > 0) {
+        List<String> openids = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+          openids.add(readString(in));
+        }
+        msg.addOpenids(openids);
+      }
+      msg.setMediaId(readString(in));
+      msg.setTextContent(readString(in));
+      msg.setCardId(readString(in));
+      msg.setTitle(readString(in));
+      msg.setDescription(readString(in));
+      msg.setThumbMediaId(readString(in));
+      msg.setSendIgnoreReprint(in.readInt());
+      return msg;
+    }
+  };
+
+  /** 长度为-1表示null，不受{@link DataOutput#writeUTF(String)}的64K限制 */
+  public static void writeString(DataOutput out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  public static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) return null;
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,597 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * 基于内存映射文件的分段预写日志（write-ahead log），用于待发送消息的持久化：
+ * <ul>
+ * <li>{@link #append(byte[])}只是把记录复制到当前段的映射内存中，返回记录的位置（段号&lt;&lt;32 | 段内偏移），
+ * 写入后进程崩溃不会丢失（数据已在操作系统的page cache中）</li>
+ * <li>后台线程每隔{@code syncInterval}把写过的段force到磁盘（组提交），需要确认落盘时使用
+ * {@link #awaitDurable(long)}；机器掉电时最多丢失最近一个间隔内的记录</li>
+ * <li>消费完成后调用{@link #ack(long)}，也以记录的形式追加到日志中；最早的段中的记录全部ack后删除该段</li>
+ * <li>{@link #open(File)}时扫描所有段，没有ack的记录按写入顺序放在{@link #getReplayed()}中，
+ * 之后的写入从新的段开始</li>
+ * </ul>
+ * 每条记录为 {@code [长度][crc32][类型][内容]}，长度最后写入，所以写了一半的记录长度为0，扫描到这里结束；
+ * 掉电导致的不完整记录由crc检出。段按顺序删除，一条一直不ack的记录会让之后的段都保留，长期保留的记录需要使用方通过
+ * {@link #pendingInFirstSegment()}重新追加（压缩），见{@link DelayedSendQueue}。删除的段立即解除映射，不等GC
+ *
+ * @author yuanwq
+ */
+public class OutboundLog implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(OutboundLog.class);
+
+  private static final int MAGIC = 0x5857414c; // "XWAL"
+  private static final int VERSION = 1;
+  private static final int SEGMENT_HEADER_SIZE = 16;
+  /** 长度 + crc + 类型 */
+  private static final int RECORD_HEADER_SIZE = 9;
+  private static final byte TYPE_DATA = 1;
+  private static final byte TYPE_ACK = 2;
+  private static final String SUFFIX = ".wal";
+  private static final String PREPARED_NAME = "next.tmp";
+
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+  public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 10;
+
+  /** 立即释放映射内存的方法，jvm不支持时为null，交给GC释放 */
+  private static final MethodHandle UNMAP = unmapHandle();
+
+  private final File dir;
+  private final int segmentSize;
+  private final long syncIntervalMillis;
+
+  /** 还有未ack记录或者正在写入的段，按段号排序 */
+  private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+  private volatile List<Record> replayed;
+  private final CRC32 crc = new CRC32();
+
+  private volatile Segment current;
+  /** 后台预先创建的下一个段文件，切换时改名即可使用，不用等待创建文件 */
+  private volatile MappedByteBuffer prepared;
+  /** 已切换出去还没force的段 */
+  private final List<Segment> rolled = Lists.newArrayList();
+  private volatile long writePosition;
+  private volatile long durablePosition;
+  private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> waiters =
+      new ConcurrentSkipListMap<>();
+
+  private final Thread syncThread;
+  private volatile boolean closed = false;
+
+  private OutboundLog(File dir, int segmentSize, long syncIntervalMillis) throws IOException {
+    this.dir = dir;
+    this.segmentSize = segmentSize;
+    this.syncIntervalMillis = syncIntervalMillis;
+    this.replayed = Collections.unmodifiableList(recover());
+    int next = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+    this.current = createSegment(next, map(fileOf(next)));
+    this.writePosition = position(current.index, SEGMENT_HEADER_SIZE);
+    this.durablePosition = writePosition;
+    deleteAckedSegments();
+    if (syncIntervalMillis > 0) {
+      syncThread = new Thread(this::syncLoop, "outbound-log-sync-" + dir.getName());
+      syncThread.setDaemon(true);
+      syncThread.start();
+    } else {
+      syncThread = null;
+    }
+  }
+
+  /** 使用默认的段大小和组提交间隔打开 */
+  public static OutboundLog open(File dir) throws IOException {
+    return open(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param segmentSize 每个段文件的大小，单条记录不能超过它
+   * @param syncInterval 组提交的间隔，0表示不主动force，只依赖操作系统回写
+   */
+  public static OutboundLog open(File dir, int segmentSize, long syncInterval, TimeUnit unit)
+      throws IOException {
+    Preconditions.checkArgument(segmentSize >= 4096, "segmentSize too small: %s", segmentSize);
+    Preconditions.checkArgument(syncInterval >= 0, "negative syncInterval");
+    FileUtils.forceMkdir(dir);
+    return new OutboundLog(dir, segmentSize, unit.toMillis(syncInterval));
+  }
+
+  public static int segmentOf(long position) {
+    return (int) (position >>> 32);
+  }
+
+  public static int offsetOf(long position) {
+    return (int) position;
+  }
+
+  private static long position(int segment, int offset) {
+    return ((long) segment << 32) | (offset & 0xffffffffL);
+  }
+
+  /**
+   * 追加一条记录
+   *
+   * @return 记录的位置，用于{@link #ack(long)}和{@link #awaitDurable(long)}
+   */
+  public long append(byte[] payload) throws IOException {
+    Preconditions.checkArgument(
+        payload.length <= segmentSize - SEGMENT_HEADER_SIZE - RECORD_HEADER_SIZE,
+        "payload too large: %s", payload.length);
+    synchronized (this) {
+      Preconditions.checkState(!closed, "closed");
+      long position = write(TYPE_DATA, payload);
+      current.pending.add(offsetOf(position));
+      return position;
+    }
+  }
+
+  /**
+   * 确认一条记录已消费完成，重启后不再重放；重复ack同一位置会被忽略
+   */
+  public void ack(long position) throws IOException {
+    Segment segment = segments.get(segmentOf(position));
+    if (segment == null || !segment.pending.remove(offsetOf(position))) return;
+    byte[] target = new byte[8];
+    for (int i = 0; i < 8; i++) {
+      target[i] = (byte) (position >>> (56 - i * 8));
+    }
+    synchronized (this) {
+      if (closed) return;
+      write(TYPE_ACK, target);
+    }
+    if (segment != current && segment.pending.isEmpty()) {
+      deleteAckedSegments();
+    }
+  }
+
+  private long write(byte type, byte[] body) throws IOException {
+    int length = 1 + body.length;
+    if (current.writeOffset + RECORD_HEADER_SIZE - 1 + length > segmentSize) {
+      roll();
+    }
+    int offset = current.writeOffset;
+    crc.reset();
+    crc.update(type);
+    crc.update(body, 0, body.length);
+    MappedByteBuffer buffer = current.buffer;
+    buffer.putInt(offset + 4, (int) crc.getValue());
+    buffer.put(offset + 8, type);
+    buffer.position(offset + RECORD_HEADER_SIZE);
+    buffer.put(body);
+    buffer.putInt(offset, length); // 最后写长度，写了一半的记录扫描时看到的长度为0
+    current.writeOffset = offset + RECORD_HEADER_SIZE - 1 + length;
+    writePosition = position(current.index, current.writeOffset);
+    return position(current.index, offset);
+  }
+
+  private void roll() throws IOException {
+    int index = current.index + 1;
+    File file = fileOf(index);
+    MappedByteBuffer buffer = prepared;
+    prepared = null;
+    if (buffer == null || !new File(dir, PREPARED_NAME).renameTo(file)) {
+      buffer = map(file);
+    }
+    Segment next = createSegment(index, buffer);
+    rolled.add(current);
+    current = next;
+    if (syncThread != null) {
+      synchronized (rolled) {
+        rolled.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * @return 记录落盘后完成的future；组提交关闭时（syncInterval为0）立即force
+   */
+  public CompletableFuture<Void> awaitDurable(long position) {
+    if (position < durablePosition) return CompletableFuture.completedFuture(null);
+    if (syncThread == null) {
+      try {
+        sync();
+        return CompletableFuture.completedFuture(null);
+      } catch (IOException e) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+      }
+    }
+    CompletableFuture<Void> future =
+        waiters.computeIfAbsent(position, k -> new CompletableFuture<>());
+    if (position < durablePosition && waiters.remove(position, future)) {
+      future.complete(null);
+    }
+    return future;
+  }
+
+  /** 把已写入的记录force到磁盘 */
+  public void sync() throws IOException {
+    List<Segment> toForce;
+    Segment active;
+    long position;
+    synchronized (this) {
+      toForce = Lists.newArrayList(rolled);
+      rolled.clear();
+      active = current;
+      position = writePosition;
+    }
+    for (Segment segment : toForce) {
+      segment.force();
+    }
+    if (position > durablePosition) {
+      active.buffer.force();
+      durablePosition = position;
+    }
+    ConcurrentNavigableMap<Long, CompletableFuture<Void>> done = waiters.headMap(position);
+    for (Iterator<CompletableFuture<Void>> it = done.values().iterator(); it.hasNext();) {
+      CompletableFuture<Void> future = it.next();
+      it.remove();
+      future.complete(null);
+    }
+  }
+
+  private void syncLoop() {
+    while (!closed) {
+      try {
+        sync();
+        prepareNext();
+        synchronized (rolled) {
+          rolled.wait(syncIntervalMillis);
+        }
+      } catch (InterruptedException e) {
+        break;
+      } catch (Exception e) {
+        logger.error("fail to sync outbound log " + dir, e);
+        failWaiters(e);
+      }
+    }
+  }
+
+  /** 当前段用过一半后预先创建下一个段文件，只在sync线程中执行 */
+  private void prepareNext() throws IOException {
+    if (prepared != null || current.writeOffset < segmentSize / 2) return;
+    MappedByteBuffer buffer = map(new File(dir, PREPARED_NAME));
+    synchronized (this) {
+      prepared = buffer;
+    }
+  }
+
+  private void failWaiters(Throwable e) {
+    for (Iterator<CompletableFuture<Void>> it = waiters.values().iterator(); it.hasNext();) {
+      CompletableFuture<Void> future = it.next();
+      it.remove();
+      future.completeExceptionally(e);
+    }
+  }
+
+  private Segment createSegment(int index, MappedByteBuffer buffer) {
+    Segment segment = new Segment(index, fileOf(index), buffer);
+    segments.put(index, segment);
+    return segment;
+  }
+
+  /** 创建并映射一个空的段文件，已存在的同名文件先删除，避免残留旧记录 */
+  private MappedByteBuffer map(File file) throws IOException {
+    FileUtils.deleteQuietly(file);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(segmentSize);
+      MappedByteBuffer buffer = raf.getChannel().map(MapMode.READ_WRITE, 0, segmentSize);
+      buffer.putInt(4, VERSION);
+      buffer.putInt(8, segmentSize);
+      buffer.putInt(0, MAGIC);
+      return buffer;
+    }
+  }
+
+  private File fileOf(int index) {
+    return new File(dir, String.format("%010d%s", index, SUFFIX));
+  }
+
+  /** 扫描所有段，返回没有ack的记录 */
+  private List<Record> recover() throws IOException {
+    File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+    Arrays.sort(files);
+    Map<Long, Record> unacked = Maps.newLinkedHashMap();
+    for (File file : files) {
+      int index = Integer.parseInt(file.getName().substring(0, file.getName().length() - 4));
+      if (file.length() < SEGMENT_HEADER_SIZE) {
+        logger.warn("delete incomplete segment {}", file);
+        FileUtils.forceDelete(file);
+        continue;
+      }
+      Segment segment;
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        MappedByteBuffer buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+        Preconditions.checkState(buffer.getInt(0) == MAGIC, "not an outbound log: %s", file);
+        Preconditions.checkState(buffer.getInt(4) == VERSION, "unsupported version: %s",
+            buffer.getInt(4));
+        segment = new Segment(index, file, null);
+        scan(segment, buffer, unacked);
+        unmap(buffer);
+      }
+      segments.put(index, segment);
+    }
+    return Lists.newArrayList(unacked.values());
+  }
+
+  private void scan(Segment segment, MappedByteBuffer buffer, Map<Long, Record> unacked) {
+    int offset = SEGMENT_HEADER_SIZE;
+    int limit = buffer.capacity();
+    while (offset + RECORD_HEADER_SIZE <= limit) {
+      int length = buffer.getInt(offset);
+      if (length <= 0 || offset + RECORD_HEADER_SIZE - 1 + length > limit) break;
+      byte type = buffer.get(offset + 8);
+      byte[] body = new byte[length - 1];
+      buffer.position(offset + RECORD_HEADER_SIZE);
+      buffer.get(body);
+      CRC32 checksum = new CRC32();
+      checksum.update(type);
+      checksum.update(body);
+      if ((int) checksum.getValue() != buffer.getInt(offset + 4)) {
+        logger.warn("corrupted record at {}:{}, ignore the rest of segment", segment.file,
+            offset);
+        break;
+      }
+      long position = position(segment.index, offset);
+      if (type == TYPE_DATA) {
+        unacked.put(position, new Record(position, body));
+        segment.pending.add(offset);
+      } else if (type == TYPE_ACK) {
+        long target = 0;
+        for (int i = 0; i < 8; i++) {
+          target = (target << 8) | (body[i] & 0xff);
+        }
+        if (unacked.remove(target) != null) {
+          Segment owner = segment.index == segmentOf(target) ? segment
+              : segments.get(segmentOf(target));
+          if (owner != null) {
+            owner.pending.remove(offsetOf(target));
+          }
+        }
+      }
+      offset += RECORD_HEADER_SIZE - 1 + length;
+    }
+  }
+
+  /** 按顺序删除最早的、记录已全部ack的段，保证被删的段中的ack指向的记录也已被删除 */
+  private synchronized void deleteAckedSegments() {
+    for (Iterator<Segment> it = segments.values().iterator(); it.hasNext();) {
+      Segment segment = it.next();
+      if (segment == current || !segment.pending.isEmpty()) break;
+      it.remove();
+      rolled.remove(segment);
+      segment.release();
+      if (!segment.file.delete()) {
+        logger.warn("fail to delete segment {}", segment.file);
+      }
+    }
+  }
+
+  /** @return {@link #open(File)}时还没有ack的记录，按写入顺序，调用方需要重新处理并ack */
+  public List<Record> getReplayed() {
+    return replayed;
+  }
+
+  /** 重放的记录处理完后释放其内容占用的内存，之后{@link #getReplayed()}返回空列表 */
+  public void releaseReplayed() {
+    replayed = Collections.emptyList();
+  }
+
+  /**
+   * 最早的段中还没有ack的记录，把它们重新{@link #append(byte[])}并ack旧的位置后该段即被删除
+   *
+   * @return 记录的位置；最早的段就是正在写入的段时返回空数组
+   */
+  public long[] pendingInFirstSegment() {
+    Map.Entry<Integer, Segment> first = segments.firstEntry();
+    if (first == null || first.getValue() == current) return new long[0];
+    Segment segment = first.getValue();
+    return segment.pending.stream().sorted()
+        .mapToLong(offset -> position(segment.index, offset)).toArray();
+  }
+
+  /** @return 记录还没有ack */
+  public boolean isPending(long position) {
+    Segment segment = segments.get(segmentOf(position));
+    return segment != null && segment.pending.contains(offsetOf(position));
+  }
+
+  /**
+   * 按位置读取记录的内容，重启前写入的段在第一次读取时以只读方式映射
+   *
+   * @return 记录已ack或所在的段已删除时返回null
+   */
+  public byte[] read(long position) throws IOException {
+    Segment segment = segments.get(segmentOf(position));
+    int offset = offsetOf(position);
+    if (segment == null || !segment.pending.contains(offset)) return null;
+    // 持有段的锁复制，避免读取时段被删除并解除映射
+    synchronized (segment) {
+      if (segment.released) return null;
+      ByteBuffer buffer = segment.mapped().duplicate(); // 不影响写入线程使用的position
+      int length = buffer.getInt(offset);
+      Preconditions.checkState(length > 0 && buffer.get(offset + 8) == TYPE_DATA,
+          "no data record at %s", Long.toHexString(position));
+      byte[] payload = new byte[length - 1];
+      buffer.position(offset + RECORD_HEADER_SIZE);
+      buffer.get(payload);
+      return payload;
+    }
+  }
+
+  /** @return 未ack的记录数 */
+  public int getPendingCount() {
+    int count = 0;
+    for (Segment segment : segments.values()) {
+      count += segment.pending.size();
+    }
+    return count;
+  }
+
+  public int getSegmentCount() {
+    return segments.size();
+  }
+
+  public int getSegmentSize() {
+    return segmentSize;
+  }
+
+  public long getWritePosition() {
+    return writePosition;
+  }
+
+  public long getDurablePosition() {
+    return durablePosition;
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+    }
+    if (syncThread != null) {
+      syncThread.interrupt();
+      try {
+        syncThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    sync();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("dir", dir)
+        .add("segments", segments.size()).add("writePosition", Long.toHexString(writePosition))
+        .add("durablePosition", Long.toHexString(durablePosition)).toString();
+  }
+
+  private static class Segment {
+    private final int index;
+    private final File file;
+    /** 本次打开后创建的段写入时映射，之前的段在{@link OutboundLog#read(long)}时才映射 */
+    private volatile MappedByteBuffer buffer;
+    private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+    private int writeOffset = SEGMENT_HEADER_SIZE;
+    /** 已删除并解除映射，之后不能再访问buffer，由段的锁保护 */
+    private boolean released = false;
+
+    private Segment(int index, File file, MappedByteBuffer buffer) {
+      this.index = index;
+      this.file = file;
+      this.buffer = buffer;
+    }
+
+    private synchronized MappedByteBuffer mapped() throws IOException {
+      if (buffer == null) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+          buffer = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+        }
+      }
+      return buffer;
+    }
+
+    private synchronized void force() {
+      if (!released && buffer != null) {
+        buffer.force();
+      }
+    }
+
+    private synchronized void release() {
+      released = true;
+      if (buffer != null) {
+        unmap(buffer);
+        buffer = null;
+      }
+    }
+  }
+
+  private static void unmap(MappedByteBuffer buffer) {
+    if (UNMAP == null) return;
+    try {
+      UNMAP.invokeExact((ByteBuffer) buffer);
+    } catch (Throwable e) {
+      logger.warn("fail to unmap buffer, leave it to gc", e);
+    }
+  }
+
+  /** java 9以上使用{@code Unsafe.invokeCleaner}，java 8使用{@code DirectBuffer.cleaner().clean()} */
+  private static MethodHandle unmapHandle() {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    MethodType type = MethodType.methodType(void.class, ByteBuffer.class);
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      return lookup.findVirtual(unsafeClass, "invokeCleaner", type).bindTo(field.get(null));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // java 8没有invokeCleaner
+    }
+    try {
+      Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+      Method clean = cleaner.getReturnType().getMethod("clean");
+      return MethodHandles.filterReturnValue(lookup.unreflect(cleaner), lookup.unreflect(clean))
+          .asType(type);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      logger.warn("unmapping not supported, deleted segments are released by gc");
+      return null;
+    }
+  }
+
+  /** 日志中的一条记录 */
+  public static class Record {
+    private final long position;
+    private final byte[] payload;
+
+    private Record(long position, byte[] payload) {
+      this.position = position;
+      this.payload = payload;
+    }
+
+    public long getPosition() {
+      return position;
+    }
+
+    public byte[] getPayload() {
+      return payload;
+    }
+  }
+}
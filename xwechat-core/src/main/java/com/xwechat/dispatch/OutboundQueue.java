@@ -0,0 +1,164 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.xwechat.api.msg.Message;
+import com.xwechat.api.wxapp.TemplateMsg;
+
+/**
+ * 持久化的待发送队列：生产者{@link #append(String, Object)}写入{@link OutboundLog}后进入内存队列，
+ * 消费者{@link #poll()}取出发送，完成后{@link #ack(Entry)}。进程重启后，没有ack的消息先于新消息重新入队，
+ * 所以消费是至少一次的，需要严格去重时配合{@link com.xwechat.core.DedupStore}使用
+ *
+ * @author yuanwq
+ */
+public class OutboundQueue<T> implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+  private final OutboundLog log;
+  private final OutboundCodec<T> codec;
+  private final BlockingQueue<Entry<T>> queue = new LinkedBlockingQueue<>();
+
+  /**
+   * 打开时把log中未ack的记录解码后放入队列，无法解码的记录记日志后ack掉，避免每次重启都重放
+   */
+  public OutboundQueue(OutboundLog log, OutboundCodec<T> codec) throws IOException {
+    this.log = Preconditions.checkNotNull(log, "log");
+    this.codec = Preconditions.checkNotNull(codec, "codec");
+    for (OutboundLog.Record record : log.getReplayed()) {
+      try {
+        queue.add(decode(record));
+      } catch (IOException | RuntimeException e) {
+        logger.error("drop undecodable record at " + Long.toHexString(record.getPosition()), e);
+        log.ack(record.getPosition());
+      }
+    }
+    log.releaseReplayed();
+    if (!queue.isEmpty()) {
+      logger.info("replay {} unacked entries from {}", queue.size(), log);
+    }
+  }
+
+  public static OutboundQueue<TemplateMsg> forTemplateMsg(OutboundLog log) throws IOException {
+    return new OutboundQueue<>(log, OutboundCodec.TEMPLATE_MSG);
+  }
+
+  public static OutboundQueue<Message> forMessage(OutboundLog log) throws IOException {
+    return new OutboundQueue<>(log, OutboundCodec.MESSAGE);
+  }
+
+  /**
+   * 写入日志后入队，返回时消息已不会因进程崩溃丢失；需要等待落盘时对返回值调用
+   * {@link OutboundLog#awaitDurable(long)}
+   *
+   * @return 消息在日志中的位置
+   */
+  public long append(String appId, T msg) throws IOException {
+    Preconditions.checkNotNull(appId, "appId");
+    Preconditions.checkNotNull(msg, "msg");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(appId);
+    codec.write(msg, out);
+    long position = log.append(bytes.toByteArray());
+    queue.add(new Entry<>(position, appId, msg));
+    return position;
+  }
+
+  private Entry<T> decode(OutboundLog.Record record) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.getPayload()));
+    String appId = in.readUTF();
+    return new Entry<>(record.getPosition(), appId, codec.read(in));
+  }
+
+  /** @return 队首的消息，不出队；队列为空返回null */
+  public Entry<T> peek() {
+    return queue.peek();
+  }
+
+  /** @return 出队的消息，队列为空返回null */
+  public Entry<T> poll() {
+    return queue.poll();
+  }
+
+  public Entry<T> poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return queue.poll(timeout, unit);
+  }
+
+  /** 出队的消息临时失败，不ack，放回队尾等待再次消费 */
+  public void requeue(Entry<T> entry) {
+    queue.add(entry);
+  }
+
+  /** 消息处理完成（成功或者不再重试的失败），重启后不再重放 */
+  public void ack(Entry<T> entry) throws IOException {
+    log.ack(entry.position);
+  }
+
+  /** @return 内存队列中等待消费的消息数，不包括已出队未ack的 */
+  public int size() {
+    return queue.size();
+  }
+
+  public OutboundLog getLog() {
+    return log;
+  }
+
+  @Override
+  public void close() throws IOException {
+    log.close();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("log", log).add("size", queue.size())
+        .toString();
+  }
+
+  /** 队列中的一条消息 */
+  public static class Entry<T> {
+    private final long position;
+    private final String appId;
+    private final T msg;
+
+    private Entry(long position, String appId, T msg) {
+      this.position = position;
+      this.appId = appId;
+      this.msg = msg;
+    }
+
+    public long getPosition() {
+      return position;
+    }
+
+    public String getAppId() {
+      return appId;
+    }
+
+    public T getMsg() {
+      return msg;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(getClass()).add("position", Long.toHexString(position))
+          .add("appId", appId).toString();
+    }
+  }
+}
@@ -0,0 +1,498 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.xwechat.api.wxapp.TemplateMsg;
+import com.xwechat.api.wxapp.TemplateMsgSendApi;
+import com.xwechat.api.wxapp.WxappApiResp;
+import com.xwechat.core.IAccessTokenSource;
+import com.xwechat.core.ResponseWrapper;
+import com.xwechat.core.Wechat;
+
+/**
+ * 小程序模板消息的异步发送：
+ * <ul>
+ * <li>提交：{@link #offer}队列满时立即返回false，{@link #put}阻塞等待；待发送数越过高水位（容量的80%）和回落到低水位
+ * （50%）时通知{@link BackpressureListener}</li>
+ * <li>分发：单个线程从队列批量取出消息，按appId限速（{@link #setRateLimit(String, double)}），被限速的消息留在该app的等待队列中，
+ * 不影响其它app；每批消息的access_token通过{@link IAccessTokenSource#getAccessTokens}一次读取</li>
+ * <li>发送：并发上限按请求耗时自动调整（AIMD），请求异常或微信返回限流错误码（{@link #THROTTLE_ERRCODES}）时
+ * 同样减小，完成后调用每条消息的{@link DispatchCallback}</li>
+ * </ul>
+ * 失败不重试，由回调决定是否重新提交
+ *
+ * @author yuanwq
+ */
+public class TemplateMsgDispatcher {
+  private static final Logger logger = LoggerFactory.getLogger(TemplateMsgDispatcher.class);
+  private static final double HIGH_WATERMARK = 0.8;
+  private static final double LOW_WATERMARK = 0.5;
+  /** 有被限速的消息时，两次分发之间最多等待的时间 */
+  private static final long THROTTLED_POLL_MILLIS = 1;
+  private static final long IDLE_POLL_MILLIS = 100;
+  /** 不限速 */
+  private static final RateLimiter UNLIMITED = RateLimiter.create(Double.MAX_VALUE);
+  /** 微信过载或限流的errcode：-1系统繁忙，45009接口调用超过限额，45011 API调用太频繁 */
+  public static final Set<Integer> THROTTLE_ERRCODES = ImmutableSet.of(-1, 45009, 45011);
+
+  private Wechat wechat;
+  private IAccessTokenSource tokenSource;
+  private ExecutorService workers;
+  private BackpressureListener backpressureListener;
+  private AdaptiveConcurrencyLimit concurrency;
+  private int capacity;
+  private int batchSize;
+  private double defaultRate;
+
+  private Semaphore slots;
+  private final BlockingQueue<Envelope> queue = new LinkedBlockingQueue<>();
+  private final ConcurrentMap<String, RateLimiter> rateLimiters = Maps.newConcurrentMap();
+  private final AtomicBoolean overloaded = new AtomicBoolean();
+  private final AtomicLong success = new AtomicLong();
+  private final AtomicLong failure = new AtomicLong();
+  private Thread dispatchThread;
+  private volatile boolean running;
+
+  /** 只在分发线程中访问：被限速、等待发送的消息 */
+  private final Map<String, ArrayDeque<Envelope>> throttled = Maps.newLinkedHashMap();
+  private int throttledCount = 0;
+
+  private TemplateMsgDispatcher() {}
+
+  public synchronized void start() {
+    Preconditions.checkState(dispatchThread == null, "already started");
+    running = true;
+    dispatchThread = new Thread(this::dispatchLoop, "template-msg-dispatcher");
+    dispatchThread.setDaemon(true);
+    dispatchThread.start();
+  }
+
+  /** 不再接受新消息，已提交的消息继续发送 */
+  public void shutdown() {
+    running = false;
+  }
+
+  /** @return 所有已提交的消息都已完成；没有{@link #start()}过时不会有已提交的消息，关闭workers后返回 */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    Thread thread;
+    synchronized (this) {
+      thread = dispatchThread;
+    }
+    if (thread != null) {
+      thread.join(Math.max(1, unit.toMillis(timeout)));
+      if (thread.isAlive()) return false;
+    }
+    workers.shutdown();
+    return workers.awaitTermination(Math.max(0, deadline - System.nanoTime()),
+        TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * 设置appId每秒最多发送的消息数，覆盖默认值，&lt;=0为不限速
+   */
+  public void setRateLimit(String appId, double permitsPerSecond) {
+    if (permitsPerSecond > 0) {
+      rateLimiters.put(appId, RateLimiter.create(permitsPerSecond));
+    } else {
+      rateLimiters.put(appId, UNLIMITED);
+    }
+  }
+
+  /** @return 队列已满或已关闭时返回false，不会阻塞 */
+  public boolean offer(String appId, TemplateMsg msg, DispatchCallback callback) {
+    if (!running || !slots.tryAcquire()) {
+      checkWatermark();
+      return false;
+    }
+    enqueue(appId, msg, callback);
+    return true;
+  }
+
+  /** @return 等待timeout后队列仍满或已关闭时返回false */
+  public boolean offer(String appId, TemplateMsg msg, DispatchCallback callback, long timeout,
+      TimeUnit unit) throws InterruptedException {
+    if (!running || !slots.tryAcquire(timeout, unit)) {
+      return false;
+    }
+    enqueue(appId, msg, callback);
+    return true;
+  }
+
+  /** 队列满时阻塞等待 */
+  public void put(String appId, TemplateMsg msg, DispatchCallback callback)
+      throws InterruptedException {
+    Preconditions.checkState(running, "not running");
+    slots.acquire();
+    enqueue(appId, msg, callback);
+  }
+
+  /**
+   * 从持久化队列中取出消息提交发送，dispatcher已满或队列已空时返回。同一个queue只应由一个线程调用。
+   * 发送成功或微信返回确定的错误码时ack；临时失败（见{@link DispatchResult#isRetryable()}）不ack，
+   * 放回队尾由之后的drain重试，进程重启后也会重放。每次发送完成都会调用callback
+   *
+   * @param callback 可以为null
+   * @return 本次提交的消息数
+   */
+  public int drain(OutboundQueue<TemplateMsg> queue, int max, DispatchCallback callback) {
+    int count = 0;
+    OutboundQueue.Entry<TemplateMsg> entry;
+    while (count < max && (entry = queue.peek()) != null) {
+      OutboundQueue.Entry<TemplateMsg> current = entry;
+      boolean accepted = offer(entry.getAppId(), entry.getMsg(), result -> {
+        if (result.isRetryable()) {
+          queue.requeue(current);
+        } else {
+          try {
+            queue.ack(current);
+          } catch (IOException | RuntimeException e) {
+            logger.error("fail to ack " + current, e);
+          }
+        }
+        if (callback != null) {
+          callback.onResult(result);
+        }
+      });
+      if (!accepted) break;
+      queue.poll();
+      count++;
+    }
+    return count;
+  }
+
+  private void enqueue(String appId, TemplateMsg msg, DispatchCallback callback) {
+    Preconditions.checkNotNull(appId, "null appId");
+    Preconditions.checkNotNull(msg, "null msg");
+    queue.add(new Envelope(appId, msg, callback));
+    checkWatermark();
+  }
+
+  /** @return 队列中和发送中的消息数 */
+  public int getPending() {
+    return capacity - slots.availablePermits();
+  }
+
+  public boolean isOverloaded() {
+    return overloaded.get();
+  }
+
+  public int getConcurrencyLimit() {
+    return concurrency.getLimit();
+  }
+
+  public long getSuccess() {
+    return success.get();
+  }
+
+  public long getFailure() {
+    return failure.get();
+  }
+
+  private void checkWatermark() {
+    int pending = getPending();
+    boolean changed;
+    if (pending >= capacity * HIGH_WATERMARK) {
+      changed = overloaded.compareAndSet(false, true);
+    } else if (pending <= capacity * LOW_WATERMARK) {
+      changed = overloaded.compareAndSet(true, false);
+    } else {
+      changed = false;
+    }
+    if (changed && backpressureListener != null) {
+      try {
+        backpressureListener.onBackpressure(overloaded.get(), pending);
+      } catch (Exception e) {
+        logger.error("error in backpressure listener", e);
+      }
+    }
+  }
+
+  private RateLimiter rateLimiterOf(String appId) {
+    return rateLimiters.computeIfAbsent(appId,
+        k -> defaultRate > 0 ? RateLimiter.create(defaultRate) : UNLIMITED);
+  }
+
+  private void dispatchLoop() {
+    List<Envelope> batch = Lists.newArrayListWithCapacity(batchSize);
+    List<Envelope> ready = Lists.newArrayListWithCapacity(batchSize);
+    while (running || !queue.isEmpty() || throttledCount > 0) {
+      try {
+        Envelope first = queue.poll(throttledCount > 0 ? THROTTLED_POLL_MILLIS : IDLE_POLL_MILLIS,
+            TimeUnit.MILLISECONDS);
+        if (first != null) {
+          batch.add(first);
+          queue.drainTo(batch, batchSize - 1);
+        }
+        for (Envelope envelope : batch) {
+          if (throttledCount == 0 && rateLimiterOf(envelope.appId).tryAcquire()) {
+            ready.add(envelope);
+          } else {
+            throttled.computeIfAbsent(envelope.appId, k -> new ArrayDeque<>()).add(envelope);
+            throttledCount++;
+          }
+        }
+        batch.clear();
+        collectThrottled(ready);
+        if (!ready.isEmpty()) {
+          dispatch(ready);
+          ready.clear();
+        }
+      } catch (InterruptedException e) {
+        logger.warn("dispatch thread interrupted, pending={}", getPending());
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        logger.error("error in dispatch loop", e);
+      }
+    }
+    logger.info("dispatch loop exit, {}", this);
+  }
+
+  /** 按appId取出已可以发送的消息，同一app保持提交顺序 */
+  private void collectThrottled(List<Envelope> ready) {
+    Iterator<Map.Entry<String, ArrayDeque<Envelope>>> it = throttled.entrySet().iterator();
+    while (it.hasNext() && ready.size() < batchSize) {
+      Map.Entry<String, ArrayDeque<Envelope>> entry = it.next();
+      RateLimiter rateLimiter = rateLimiterOf(entry.getKey());
+      ArrayDeque<Envelope> waiting = entry.getValue();
+      while (!waiting.isEmpty() && ready.size() < batchSize && rateLimiter.tryAcquire()) {
+        ready.add(waiting.poll());
+        throttledCount--;
+      }
+      if (waiting.isEmpty()) {
+        it.remove();
+      }
+    }
+  }
+
+  private void dispatch(List<Envelope> ready) throws InterruptedException {
+    Set<String> appIds = Sets.newHashSet();
+    for (Envelope envelope : ready) {
+      appIds.add(envelope.appId);
+    }
+    Map<String, String> tokens;
+    try {
+      tokens = tokenSource.getAccessTokens(appIds);
+    } catch (Exception e) {
+      logger.error("fail to get access tokens: " + appIds, e);
+      tokens = Maps.newHashMap();
+    }
+    for (Envelope envelope : ready) {
+      String accessToken = tokens.get(envelope.appId);
+      concurrency.acquire();
+      try {
+        workers.execute(() -> send(envelope, accessToken));
+      } catch (RuntimeException e) {
+        concurrency.release(-1, false);
+        complete(envelope, new DispatchResult(envelope.appId, envelope.msg, -1,
+            "fail to submit", e, 0));
+      }
+    }
+  }
+
+  private void send(Envelope envelope, String accessToken) {
+    if (accessToken == null) {
+      concurrency.release(-1, false);
+      complete(envelope, new DispatchResult(envelope.appId, envelope.msg, -1,
+          "no access token", null, 0));
+      return;
+    }
+    long start = System.nanoTime();
+    DispatchResult result;
+    try {
+      TemplateMsgSendApi api = new TemplateMsgSendApi().setMessage(envelope.msg);
+      api.setAccessToken(accessToken);
+      ResponseWrapper<WxappApiResp> wrapper = wechat.call(api);
+      long latency = System.nanoTime() - start;
+      concurrency.release(latency, isThrottled(wrapper));
+      result = new DispatchResult(envelope.appId, envelope.msg, wrapper.getErrcode(),
+          wrapper.getErrmsg(), null, TimeUnit.NANOSECONDS.toMillis(latency));
+    } catch (IOException | RuntimeException e) {
+      long latency = System.nanoTime() - start;
+      concurrency.release(latency, e instanceof IOException);
+      result = new DispatchResult(envelope.appId, envelope.msg, -1, null, e,
+          TimeUnit.NANOSECONDS.toMillis(latency));
+    }
+    complete(envelope, result);
+  }
+
+  /** errmsg为null说明响应中没有errcode，-1只是默认值 */
+  private static boolean isThrottled(ResponseWrapper<?> wrapper) {
+    return wrapper.getErrmsg() != null && THROTTLE_ERRCODES.contains(wrapper.getErrcode());
+  }
+
+  private void complete(Envelope envelope, DispatchResult result) {
+    (result.isSuccess() ? success : failure).incrementAndGet();
+    slots.release();
+    checkWatermark();
+    if (envelope.callback == null) return;
+    try {
+      envelope.callback.onResult(result);
+    } catch (Exception e) {
+      logger.error("error in dispatch callback, result=" + result, e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("pending", getPending())
+        .add("overloaded", overloaded).add("concurrencyLimit", concurrency.getLimit())
+        .add("inFlight", concurrency.getInFlight()).add("success", success)
+        .add("failure", failure).toString();
+  }
+
+  private static class Envelope {
+    private final String appId;
+    private final TemplateMsg msg;
+    private final DispatchCallback callback;
+
+    private Envelope(String appId, TemplateMsg msg, DispatchCallback callback) {
+      this.appId = appId;
+      this.msg = msg;
+      this.callback = callback;
+    }
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private Wechat wechat;
+    private IAccessTokenSource tokenSource;
+    private ExecutorService workers;
+    private BackpressureListener backpressureListener;
+    private int capacity = 10000;
+    private int batchSize = 256;
+    private double defaultRate = 0;
+    private int minConcurrency = 4;
+    private int initialConcurrency = 16;
+    private int maxConcurrency = 256;
+    private long targetLatencyMillis = 300;
+
+    private Builder() {}
+
+    /** @default {@link Wechat#get()} */
+    public Builder setWechat(Wechat wechat) {
+      this.wechat = wechat;
+      return this;
+    }
+
+    /** 必填，比如{@link com.xwechat.schedule.WechatScheduler} */
+    public Builder setTokenSource(IAccessTokenSource tokenSource) {
+      this.tokenSource = tokenSource;
+      return this;
+    }
+
+    /** @default 最多maxConcurrency个daemon线程的线程池 */
+    public Builder setWorkers(ExecutorService workers) {
+      this.workers = workers;
+      return this;
+    }
+
+    public Builder setBackpressureListener(BackpressureListener backpressureListener) {
+      this.backpressureListener = backpressureListener;
+      return this;
+    }
+
+    /**
+     * 队列中和发送中的消息总数上限
+     *
+     * @default 10000
+     */
+    public Builder setCapacity(int capacity) {
+      Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+      this.capacity = capacity;
+      return this;
+    }
+
+    /**
+     * 每次从队列取出、批量读取token的消息数
+     *
+     * @default 256
+     */
+    public Builder setBatchSize(int batchSize) {
+      Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * 每个appId默认每秒最多发送的消息数，可以用{@link TemplateMsgDispatcher#setRateLimit(String, double)}单独设置
+     *
+     * @default 0，不限速
+     */
+    public Builder setDefaultRate(double permitsPerSecond) {
+      this.defaultRate = permitsPerSecond;
+      return this;
+    }
+
+    /** @default 4, 16, 256 */
+    public Builder setConcurrency(int min, int initial, int max) {
+      Preconditions.checkArgument(0 < min && min <= initial && initial <= max,
+          "required 0 < min <= initial <= max");
+      this.minConcurrency = min;
+      this.initialConcurrency = initial;
+      this.maxConcurrency = max;
+      return this;
+    }
+
+    /**
+     * 请求耗时超过该值时降低并发
+     *
+     * @default 300ms
+     */
+    public Builder setTargetLatency(long targetLatency, TimeUnit unit) {
+      Preconditions.checkArgument(targetLatency > 0, "targetLatency must be positive");
+      this.targetLatencyMillis = unit.toMillis(targetLatency);
+      return this;
+    }
+
+    public TemplateMsgDispatcher build() {
+      Preconditions.checkNotNull(tokenSource, "null tokenSource");
+      TemplateMsgDispatcher dispatcher = new TemplateMsgDispatcher();
+      dispatcher.wechat = this.wechat != null ? this.wechat : Wechat.get();
+      dispatcher.tokenSource = this.tokenSource;
+      dispatcher.workers = this.workers != null ? this.workers
+          : Executors.newFixedThreadPool(maxConcurrency,
+              new ThreadFactoryBuilder().setDaemon(true).setNameFormat("template-msg-%d").build());
+      dispatcher.backpressureListener = this.backpressureListener;
+      dispatcher.concurrency = new AdaptiveConcurrencyLimit(minConcurrency, initialConcurrency,
+          maxConcurrency, TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis));
+      dispatcher.capacity = this.capacity;
+      dispatcher.slots = new Semaphore(this.capacity);
+      dispatcher.batchSize = this.batchSize;
+      dispatcher.defaultRate = this.defaultRate;
+      return dispatcher;
+    }
+  }
+}
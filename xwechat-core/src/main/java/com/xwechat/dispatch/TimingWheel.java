@@ -0,0 +1,128 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * 以秒为刻度的哈希时间轮，条目只有(到期秒, id)两个long，连续存放在每个槽的数组中，不为每个条目创建对象，
+ * 百万条目只占几十MB。到期时间超过一圈的条目留在槽中，每转一圈检查一次。
+ * <p>
+ * 推进时在槽的锁内更新{@code currentSecond}，加入时在目标槽的锁内检查，保证不会加入到刚刚处理过的槽而晚一圈才触发
+ *
+ * @author yuanwq
+ */
+class TimingWheel {
+  private final Slot[] slots;
+  private final int mask;
+  /** 已处理到的秒 */
+  private volatile long currentSecond;
+  private final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * @param wheelSize 槽数，向上取为2的幂
+   * @param startSecond 从这一秒之后开始触发
+   */
+  TimingWheel(int wheelSize, long startSecond) {
+    Preconditions.checkArgument(wheelSize > 0 && wheelSize <= 1 << 20, "invalid wheelSize");
+    int n = Integer.highestOneBit(wheelSize - 1) << 1;
+    n = Math.max(n, 1);
+    this.slots = new Slot[n];
+    for (int i = 0; i < n; i++) {
+      slots[i] = new Slot();
+    }
+    this.mask = n - 1;
+    this.currentSecond = startSecond;
+  }
+
+  /** 加入条目，已经过去的到期时间在下一次推进时触发 */
+  void add(long deadlineSecond, long id) {
+    for (;;) {
+      long target = Math.max(deadlineSecond, currentSecond + 1);
+      Slot slot = slots[(int) (target & mask)];
+      synchronized (slot) {
+        if (currentSecond >= target) continue; // 目标槽刚被处理过，重新选槽
+        slot.add(deadlineSecond, id);
+      }
+      size.incrementAndGet();
+      return;
+    }
+  }
+
+  /**
+   * 推进到nowSecond，到期的id在槽的锁外依次交给consumer；落后超过一圈时（比如进程停止了很久）
+   * 直接跳到最后一圈，每个槽只检查一次
+   */
+  void advance(long nowSecond, LongConsumer consumer) {
+    if (nowSecond - currentSecond > slots.length) {
+      currentSecond = nowSecond - slots.length;
+    }
+    long[] due = new long[16];
+    while (currentSecond < nowSecond) {
+      long second = currentSecond + 1;
+      Slot slot = slots[(int) (second & mask)];
+      int count;
+      synchronized (slot) {
+        currentSecond = second;
+        due = slot.drainDue(second, due);
+        count = slot.drained;
+      }
+      size.addAndGet(-count);
+      for (int i = 0; i < count; i++) {
+        consumer.accept(due[i]);
+      }
+    }
+  }
+
+  long getCurrentSecond() {
+    return currentSecond;
+  }
+
+  /** @return 条目数，包括已取消但还没到期的 */
+  int size() {
+    return size.get();
+  }
+
+  private static class Slot {
+    /** deadline和id交替存放 */
+    private long[] entries = new long[0];
+    private int length;
+    /** 最近一次drainDue取出的条目数 */
+    private int drained;
+
+    private void add(long deadlineSecond, long id) {
+      if (length + 2 > entries.length) {
+        entries = Arrays.copyOf(entries, Math.max(8, entries.length * 2));
+      }
+      entries[length++] = deadlineSecond;
+      entries[length++] = id;
+    }
+
+    /** 取出不晚于second的条目放入due（不够时扩容），其余的原地压缩 */
+    private long[] drainDue(long second, long[] due) {
+      int kept = 0;
+      drained = 0;
+      for (int i = 0; i < length; i += 2) {
+        if (entries[i] <= second) {
+          if (drained == due.length) {
+            due = Arrays.copyOf(due, due.length * 2);
+          }
+          due[drained++] = entries[i + 1];
+        } else {
+          entries[kept++] = entries[i];
+          entries[kept++] = entries[i + 1];
+        }
+      }
+      length = kept;
+      if (length == 0 && entries.length > 64) {
+        entries = new long[0]; // 释放高峰时扩容的数组
+      }
+      return due;
+    }
+  }
+}
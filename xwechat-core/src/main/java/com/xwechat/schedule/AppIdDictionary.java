@@ -0,0 +1,46 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * appId与连续int的双向映射，供紧凑存储以数组下标保存每个app的状态。只增不减，可以在多个存储间共享
+ *
+ * @author yuanwq
+ */
+public class AppIdDictionary {
+  private final Map<String, Integer> ids = Maps.newHashMap();
+  private String[] appIds = new String[16];
+  private int size = 0;
+
+  /** @return appId的编号，不存在时分配一个 */
+  public synchronized int idOf(String appId) {
+    Integer id = ids.get(appId);
+    if (id != null) return id;
+    if (size == appIds.length) {
+      appIds = Arrays.copyOf(appIds, size * 2);
+    }
+    appIds[size] = appId;
+    ids.put(appId, size);
+    return size++;
+  }
+
+  /** @return appId的编号，不存在时返回-1 */
+  public synchronized int find(String appId) {
+    Integer id = ids.get(appId);
+    return id == null ? -1 : id;
+  }
+
+  public synchronized String appIdOf(int id) {
+    return id < size ? appIds[id] : null;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+}
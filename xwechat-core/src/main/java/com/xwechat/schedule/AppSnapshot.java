@@ -0,0 +1,67 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.Collection;
+
+import com.google.common.base.MoreObjects;
+import com.xwechat.enums.TicketType;
+import com.xwechat.schedule.SchedulerMetrics.AppStats;
+
+/**
+ * 单个app的调度状态快照，不包含token等敏感值，见{@link WechatScheduler#snapshot(java.util.function.Consumer)}
+ *
+ * @author yuanwq
+ */
+public class AppSnapshot {
+  private final String appId;
+  private final Collection<TicketType> ticketTypes;
+  private final long executeTime;
+  private final long expireTime;
+  private final long stepsAhead;
+  private final AppStats stats;
+
+  AppSnapshot(TaskDef task, long stepsAhead, AppStats stats) {
+    this.appId = task.getAppId();
+    this.ticketTypes = task.getTicketTypes();
+    this.executeTime = task.getExecuteTime();
+    this.expireTime = task.getExpireTime();
+    this.stepsAhead = stepsAhead;
+    this.stats = stats;
+  }
+
+  public String getAppId() {
+    return appId;
+  }
+
+  public Collection<TicketType> getTicketTypes() {
+    return ticketTypes;
+  }
+
+  public long getExecuteTime() {
+    return executeTime;
+  }
+
+  public long getExpireTime() {
+    return expireTime;
+  }
+
+  /** @return 距离下次执行还有几个tick，不在taskLoop中（执行中或不属于当前节点）为-1 */
+  public long getStepsAhead() {
+    return stepsAhead;
+  }
+
+  /** @return 最近一次刷新的情况，当前节点还没有刷新过时为null */
+  public AppStats getStats() {
+    return stats;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("appId", appId)
+        .add("ticketTypes", ticketTypes).add("executeTime", executeTime)
+        .add("expireTime", expireTime).add("stepsAhead", stepsAhead).add("stats", stats)
+        .toString();
+  }
+}
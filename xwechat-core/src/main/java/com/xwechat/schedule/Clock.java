@@ -0,0 +1,16 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+/**
+ * 时间来源，调度相关的时间都从这里获取，测试时可以替换为模拟的时钟
+ *
+ * @author yuanwq
+ */
+public interface Clock {
+  /** 系统时钟 */
+  public static final Clock SYSTEM = System::currentTimeMillis;
+
+  public long currentTimeMillis();
+}
@@ -0,0 +1,130 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Maps;
+import com.xwechat.enums.TicketType;
+
+/**
+ * {@link TaskDef}的紧凑内存存储，与{@link CompactTokenRepository}类似：时间保存在long[]中，ticket类型保存为位图。<br>
+ * {@link #get(String)}每次构造新的{@link TaskDef}，修改后需要{@link #update(String, TaskDef)}才会保存
+ *
+ * @author yuanwq
+ */
+public class CompactTaskRepository implements Repository<TaskDef> {
+  private static final byte ABSENT = 0;
+  private static final byte STABLE_DEFAULT = 1;
+  private static final byte STABLE_FALSE = 2;
+  private static final byte STABLE_TRUE = 3;
+
+  private static final TicketType[] TICKET_TYPES = TicketType.values();
+
+  private final AppIdDictionary dictionary;
+  private long[] createTimes = new long[0];
+  private long[] executeTimes = new long[0];
+  private long[] expireTimes = new long[0];
+  private int[] ticketMasks = new int[0];
+  /** {@link #ABSENT}表示不存在，其它值同时记录{@link TaskDef#getStableToken()} */
+  private byte[] states = new byte[0];
+  private int count = 0;
+
+  public CompactTaskRepository() {
+    this(new AppIdDictionary());
+  }
+
+  /** @param dictionary 可以与其它紧凑存储共享 */
+  public CompactTaskRepository(AppIdDictionary dictionary) {
+    this.dictionary = dictionary;
+  }
+
+  @Override
+  public synchronized TaskDef get(String appId) {
+    int id = existing(appId);
+    return id < 0 ? null : decode(id, appId);
+  }
+
+  @Override
+  public synchronized void update(String appId, TaskDef task) {
+    int id = dictionary.idOf(appId);
+    ensureCapacity(id + 1);
+    if (states[id] == ABSENT) {
+      count++;
+    }
+    int mask = 0;
+    for (TicketType type : task.getTicketTypes()) {
+      mask |= 1 << type.ordinal();
+    }
+    createTimes[id] = task.getCreateTime();
+    executeTimes[id] = task.getExecuteTime();
+    expireTimes[id] = task.getExpireTime();
+    ticketMasks[id] = mask;
+    Boolean stable = task.getStableToken();
+    states[id] = stable == null ? STABLE_DEFAULT : stable ? STABLE_TRUE : STABLE_FALSE;
+  }
+
+  @Override
+  public synchronized void delete(String appId) {
+    int id = existing(appId);
+    if (id < 0) return;
+    states[id] = ABSENT;
+    count--;
+  }
+
+  @Override
+  public synchronized Map<String, TaskDef> all() {
+    Map<String, TaskDef> result = Maps.newLinkedHashMapWithExpectedSize(count);
+    for (int id = 0; id < states.length; id++) {
+      if (states[id] == ABSENT) continue;
+      String appId = dictionary.appIdOf(id);
+      result.put(appId, decode(id, appId));
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  public synchronized int size() {
+    return count;
+  }
+
+  private int existing(String appId) {
+    int id = dictionary.find(appId);
+    return id >= 0 && id < states.length && states[id] != ABSENT ? id : -1;
+  }
+
+  private TaskDef decode(int id, String appId) {
+    TaskDef task = new TaskDef();
+    task.setAppId(appId);
+    task.setCreateTime(createTimes[id]);
+    task.setExecuteTime(executeTimes[id]);
+    task.setExpireTime(expireTimes[id]);
+    int mask = ticketMasks[id];
+    for (TicketType type : TICKET_TYPES) {
+      if ((mask & (1 << type.ordinal())) != 0) {
+        task.addTicketType(type);
+      }
+    }
+    byte state = states[id];
+    task.setStableToken(state == STABLE_DEFAULT ? null : state == STABLE_TRUE);
+    return task;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= states.length) return;
+    int newCapacity = Math.max(capacity, Math.max(16, states.length * 2));
+    createTimes = Arrays.copyOf(createTimes, newCapacity);
+    executeTimes = Arrays.copyOf(executeTimes, newCapacity);
+    expireTimes = Arrays.copyOf(expireTimes, newCapacity);
+    ticketMasks = Arrays.copyOf(ticketMasks, newCapacity);
+    states = Arrays.copyOf(states, newCapacity);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("size", count).toString();
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Maps;
+
+/**
+ * 面向大量app（10万以上）的紧凑内存存储：appId编码为int，时间保存在long[]中，token字符串的字节连续保存在一块共享的arena中，
+ * 每个app只占用几个数组元素而不是一个{@link ExpirableValue}加一个map entry。<br>
+ * {@link #get(String)}每次构造新的{@link ExpirableValue}，只需要值或过期时间时使用{@link #getValue(String)}、
+ * {@link #getExpireTime(String)}
+ *
+ * @author yuanwq
+ */
+public class CompactTokenRepository implements Repository<ExpirableValue> {
+  private static final int ABSENT = -1;
+
+  private final AppIdDictionary dictionary;
+  private long[] createTimes = new long[0];
+  private long[] expireTimes = new long[0];
+  private int[] offsets = new int[0];
+  /** 值的字节长度，{@link #ABSENT}表示不存在 */
+  private int[] lengths = new int[0];
+  private int count = 0;
+
+  private byte[] arena = new byte[1024];
+  private int arenaUsed = 0;
+  /** arena中已被覆盖或删除的字节数，超过一半时整理 */
+  private int arenaGarbage = 0;
+
+  public CompactTokenRepository() {
+    this(new AppIdDictionary());
+  }
+
+  /** @param dictionary 可以与其它紧凑存储共享 */
+  public CompactTokenRepository(AppIdDictionary dictionary) {
+    this.dictionary = dictionary;
+  }
+
+  @Override
+  public synchronized ExpirableValue get(String appId) {
+    int id = existing(appId);
+    if (id < 0) return null;
+    ExpirableValue value = new ExpirableValue();
+    value.setValue(decode(id));
+    value.setCreateTime(createTimes[id]);
+    value.setExpireTime(expireTimes[id]);
+    return value;
+  }
+
+  /** @return token的值，不存在时返回null */
+  public synchronized String getValue(String appId) {
+    int id = existing(appId);
+    return id < 0 ? null : decode(id);
+  }
+
+  /** @return 过期时间，不存在时返回0 */
+  public synchronized long getExpireTime(String appId) {
+    int id = existing(appId);
+    return id < 0 ? 0L : expireTimes[id];
+  }
+
+  @Override
+  public synchronized void update(String appId, ExpirableValue value) {
+    int id = dictionary.idOf(appId);
+    ensureCapacity(id + 1);
+    byte[] bytes = value.getValue() == null ? new byte[0]
+        : value.getValue().getBytes(StandardCharsets.UTF_8);
+    if (lengths[id] == ABSENT) {
+      count++;
+    } else {
+      arenaGarbage += lengths[id];
+    }
+    int offset = allocate(bytes.length);
+    System.arraycopy(bytes, 0, arena, offset, bytes.length);
+    offsets[id] = offset;
+    lengths[id] = bytes.length;
+    createTimes[id] = value.getCreateTime();
+    expireTimes[id] = value.getExpireTime();
+  }
+
+  @Override
+  public synchronized void delete(String appId) {
+    int id = existing(appId);
+    if (id < 0) return;
+    arenaGarbage += lengths[id];
+    lengths[id] = ABSENT;
+    count--;
+  }
+
+  @Override
+  public synchronized Map<String, ExpirableValue> all() {
+    Map<String, ExpirableValue> result = Maps.newLinkedHashMapWithExpectedSize(count);
+    for (int id = 0; id < lengths.length; id++) {
+      if (lengths[id] == ABSENT) continue;
+      String appId = dictionary.appIdOf(id);
+      result.put(appId, get(appId));
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  public synchronized int size() {
+    return count;
+  }
+
+  private int existing(String appId) {
+    int id = dictionary.find(appId);
+    return id >= 0 && id < lengths.length && lengths[id] != ABSENT ? id : -1;
+  }
+
+  private String decode(int id) {
+    return new String(arena, offsets[id], lengths[id], StandardCharsets.UTF_8);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= lengths.length) return;
+    int newCapacity = Math.max(capacity, Math.max(16, lengths.length * 2));
+    int oldCapacity = lengths.length;
+    createTimes = Arrays.copyOf(createTimes, newCapacity);
+    expireTimes = Arrays.copyOf(expireTimes, newCapacity);
+    offsets = Arrays.copyOf(offsets, newCapacity);
+    lengths = Arrays.copyOf(lengths, newCapacity);
+    Arrays.fill(lengths, oldCapacity, newCapacity, ABSENT);
+  }
+
+  private int allocate(int len) {
+    if (arenaUsed + len > arena.length && arenaGarbage > arenaUsed / 2) {
+      compact();
+    }
+    if (arenaUsed + len > arena.length) {
+      arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaUsed + len));
+    }
+    int offset = arenaUsed;
+    arenaUsed += len;
+    return offset;
+  }
+
+  /** 把存活的值依次拷贝到新的arena中，丢弃被覆盖和删除的字节 */
+  private void compact() {
+    byte[] newArena = new byte[Math.max(1024, (arenaUsed - arenaGarbage) * 2)];
+    int used = 0;
+    for (int id = 0; id < lengths.length; id++) {
+      if (lengths[id] == ABSENT) continue;
+      System.arraycopy(arena, offsets[id], newArena, used, lengths[id]);
+      offsets[id] = used;
+      used += lengths[id];
+    }
+    arena = newArena;
+    arenaUsed = used;
+    arenaGarbage = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("size", count)
+        .add("arenaUsed", arenaUsed).add("arenaGarbage", arenaGarbage).toString();
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * 一致性hash环，每个节点映射为若干虚拟节点，用于把appId分配到调度节点上。不可变，成员变化时重新构造
+ *
+ * @author yuanwq
+ */
+public class ConsistentHashRing {
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final NavigableMap<Long, String> ring = Maps.newTreeMap();
+  private final Set<String> nodes;
+  private final int virtualNodes;
+
+  public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+    Preconditions.checkArgument(virtualNodes > 0, "virtualNodes must be positive");
+    this.nodes = Collections.unmodifiableSet(Sets.newLinkedHashSet(nodes));
+    this.virtualNodes = virtualNodes;
+    for (String node : this.nodes) {
+      for (int i = 0; i < virtualNodes; i++) {
+        ring.put(hash(node + "#" + i), node);
+      }
+    }
+  }
+
+  /** @return appId所属的节点，没有节点时返回null */
+  public String nodeFor(String appId) {
+    if (ring.isEmpty()) return null;
+    Map.Entry<Long, String> entry = ring.ceilingEntry(hash(appId));
+    return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+  }
+
+  public Set<String> getNodes() {
+    return nodes;
+  }
+
+  public int getVirtualNodes() {
+    return virtualNodes;
+  }
+
+  private static long hash(String key) {
+    return HASH.hashString(key, StandardCharsets.UTF_8).asLong();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("nodes", nodes)
+        .add("virtualNodes", virtualNodes).toString();
+  }
+}
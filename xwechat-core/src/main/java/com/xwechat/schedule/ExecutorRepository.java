@@ -0,0 +1,82 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * 把只实现了同步方法的{@link Repository}适配为异步：同步方法直接委托，异步方法在executor中执行
+ *
+ * @author yuanwq
+ */
+public class ExecutorRepository<V> implements Repository<V> {
+  private final Repository<V> delegate;
+  private final Executor executor;
+
+  public ExecutorRepository(Repository<V> delegate, Executor executor) {
+    this.delegate = Preconditions.checkNotNull(delegate);
+    this.executor = Preconditions.checkNotNull(executor);
+  }
+
+  @Override
+  public V get(String appId) {
+    return delegate.get(appId);
+  }
+
+  @Override
+  public void update(String appId, V value) {
+    delegate.update(appId, value);
+  }
+
+  @Override
+  public void delete(String appId) {
+    delegate.delete(appId);
+  }
+
+  @Override
+  public Map<String, V> all() {
+    return delegate.all();
+  }
+
+  @Override
+  public Map<String, V> getAll(Collection<String> appIds) {
+    return delegate.getAll(appIds);
+  }
+
+  @Override
+  public void updateAll(Map<String, V> values) {
+    delegate.updateAll(values);
+  }
+
+  @Override
+  public CompletableFuture<V> getAsync(String appId) {
+    return CompletableFuture.supplyAsync(() -> delegate.get(appId), executor);
+  }
+
+  @Override
+  public CompletableFuture<Void> updateAsync(String appId, V value) {
+    return CompletableFuture.runAsync(() -> delegate.update(appId, value), executor);
+  }
+
+  @Override
+  public CompletableFuture<Map<String, V>> getAllAsync(Collection<String> appIds) {
+    return CompletableFuture.supplyAsync(() -> delegate.getAll(appIds), executor);
+  }
+
+  @Override
+  public CompletableFuture<Void> updateAllAsync(Map<String, V> values) {
+    return CompletableFuture.runAsync(() -> delegate.updateAll(values), executor);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("delegate", delegate).toString();
+  }
+}
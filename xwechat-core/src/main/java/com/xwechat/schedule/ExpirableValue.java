@@ -3,7 +3,7 @@
  */
 package com.xwechat.schedule;
 
-import com.xwechat.util.JsonUtil;
+import com.google.common.base.MoreObjects;
 
 /**
  * @author yuanwq
@@ -17,8 +17,12 @@ public class ExpirableValue {
   public ExpirableValue() {}
 
   public ExpirableValue(String value, long expireTime) {
+    this(value, System.currentTimeMillis(), expireTime);
+  }
+
+  public ExpirableValue(String value, long createTime, long expireTime) {
     this.value = value;
-    this.createTime = System.currentTimeMillis();
+    this.createTime = createTime;
     this.expireTime = expireTime;
   }
 
@@ -48,6 +52,7 @@ public class ExpirableValue {
 
   @Override
   public String toString() {
-    return JsonUtil.writeAsString(JsonUtil.DEFAULT_OBJECT_MAPPER, this);
+    return MoreObjects.toStringHelper(getClass()).add("value", value).add("createTime", createTime)
+        .add("expireTime", expireTime).toString();
   }
 }
@@ -0,0 +1,100 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * 刷新失败后的重试策略：按连续失败次数指数退避；不可重试的错误（比如appSecret错误）按最大间隔重试，以便修正配置后自动恢复。
+ * 所有退避都不会晚于当前token过期前的安全余量，保证过期前至少还能再试一次
+ *
+ * @author yuanwq
+ */
+public class FailurePolicy {
+  /**
+   * 默认不可重试的errcode：appSecret错误、不合法的grant_type/appid、缺少参数、ip不在白名单。<br>
+   * 不包括40001：请求ticket时它表示access_token刚被其它地方刷新而失效，重新刷新即可恢复
+   */
+  public static final Set<Integer> DEFAULT_PERMANENT_ERRCODES =
+      ImmutableSet.of(40002, 40013, 40125, 41002, 41004, 40164, 61024);
+
+  private long initialBackoffMillis = TimeUnit.SECONDS.toMillis(30);
+  private long maxBackoffMillis = TimeUnit.MINUTES.toMillis(30);
+  private long expiryMarginMillis = TimeUnit.MINUTES.toMillis(1);
+  private Set<Integer> permanentErrcodes = DEFAULT_PERMANENT_ERRCODES;
+
+  /** @default 30秒 */
+  public FailurePolicy setInitialBackoff(long backoff, TimeUnit unit) {
+    Preconditions.checkArgument(backoff > 0);
+    this.initialBackoffMillis = unit.toMillis(backoff);
+    return this;
+  }
+
+  /** @default 30分钟 */
+  public FailurePolicy setMaxBackoff(long backoff, TimeUnit unit) {
+    Preconditions.checkArgument(backoff > 0);
+    this.maxBackoffMillis = unit.toMillis(backoff);
+    return this;
+  }
+
+  /**
+   * 退避结束时token至少还剩的有效期
+   *
+   * @default 1分钟
+   */
+  public FailurePolicy setExpiryMargin(long margin, TimeUnit unit) {
+    Preconditions.checkArgument(margin >= 0);
+    this.expiryMarginMillis = unit.toMillis(margin);
+    return this;
+  }
+
+  /** @default {@link #DEFAULT_PERMANENT_ERRCODES} */
+  public FailurePolicy setPermanentErrcodes(Collection<Integer> errcodes) {
+    this.permanentErrcodes = ImmutableSet.copyOf(errcodes);
+    return this;
+  }
+
+  /** 网络异常等非微信错误（没有errcode）总是可重试 */
+  public boolean isRetryable(Throwable e) {
+    return !(e instanceof RefreshException)
+        || !permanentErrcodes.contains(((RefreshException) e).getErrcode());
+  }
+
+  /**
+   * @param streak 连续失败次数，>=1
+   * @param remainingMillis 当前token的剩余有效期，<=0表示已过期或没有
+   * @return 下次重试的延迟，>=0
+   */
+  public long backoffMillis(Throwable e, int streak, long remainingMillis) {
+    long backoff;
+    if (isRetryable(e)) {
+      int shift = Math.min(Math.max(streak - 1, 0), 30);
+      backoff = Math.min(initialBackoffMillis << shift, maxBackoffMillis);
+      if (remainingMillis > 0) {
+        // 连续失败时逐步逼近过期时间，过期前能多试几次
+        backoff = Math.min(backoff, remainingMillis / 2);
+      }
+    } else {
+      backoff = maxBackoffMillis;
+    }
+    if (remainingMillis > 0) {
+      backoff = Math.min(backoff, Math.max(remainingMillis - expiryMarginMillis, 0));
+    }
+    return backoff;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("initialBackoffMillis", initialBackoffMillis)
+        .add("maxBackoffMillis", maxBackoffMillis).add("expiryMarginMillis", expiryMarginMillis)
+        .add("permanentErrcodes", permanentErrcodes)
+        .toString();
+  }
+}
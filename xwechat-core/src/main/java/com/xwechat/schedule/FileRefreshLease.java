@@ -0,0 +1,102 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * 基于文件锁的租约，每个appId一个锁文件，适用于同一台机器（或共享文件系统）上的多个进程。<br>
+ * 文件锁在持有进程退出时由操作系统释放，所以leader宕机后其它进程下一次{@link #tryAcquire(String, long)}即可接管，
+ * leaseMillis不起作用。<br>
+ * 同一个jvm内的多个实例（比如测试中模拟多个节点）之间同样互斥：文件锁属于进程，而且关闭同一文件的任一channel
+ * 可能释放进程在该文件上的所有锁，所以jvm内先通过静态的表互斥，不打开其它实例持有的锁文件
+ *
+ * @author yuanwq
+ */
+public class FileRefreshLease implements RefreshLease {
+  private static final Logger logger = LoggerFactory.getLogger(FileRefreshLease.class);
+
+  /** jvm内所有实例持有的锁文件 */
+  private static final ConcurrentMap<Path, FileRefreshLease> HELD = Maps.newConcurrentMap();
+
+  private final File dir;
+  private final Map<String, FileLock> locks = Maps.newHashMap();
+
+  public FileRefreshLease(File dir) {
+    Preconditions.checkArgument(dir.isDirectory() || dir.mkdirs(), "not a directory: %s", dir);
+    this.dir = dir;
+  }
+
+  @Override
+  public synchronized boolean tryAcquire(String appId, long leaseMillis) {
+    Path path = lockPath(appId);
+    FileLock lock = locks.get(appId);
+    if (lock != null) {
+      if (lock.isValid()) return true;
+      locks.remove(appId);
+      HELD.remove(path, this);
+    }
+    if (HELD.putIfAbsent(path, this) != null) {
+      return false;
+    }
+    FileChannel channel = null;
+    try {
+      channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      lock = channel.tryLock();
+      if (lock != null) {
+        locks.put(appId, lock);
+        return true;
+      }
+    } catch (OverlappingFileLockException e) {
+      // jvm内不经过本类对同一文件加的锁
+      logger.warn("lock file held by other code in this jvm, appId={}", appId);
+    } catch (IOException e) {
+      logger.warn("fail to lock, appId=" + appId, e);
+    }
+    closeQuietly(channel);
+    HELD.remove(path, this);
+    return false;
+  }
+
+  @Override
+  public synchronized void release(String appId) {
+    FileLock lock = locks.remove(appId);
+    if (lock != null) {
+      closeQuietly(lock.channel());
+      HELD.remove(lockPath(appId), this);
+    }
+  }
+
+  private Path lockPath(String appId) {
+    return new File(dir, appId + ".lock").toPath().toAbsolutePath().normalize();
+  }
+
+  private void closeQuietly(FileChannel channel) {
+    if (channel == null) return;
+    try {
+      channel.close();
+    } catch (IOException e) {}
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("dir", dir).add("locks", locks.keySet())
+        .toString();
+  }
+}
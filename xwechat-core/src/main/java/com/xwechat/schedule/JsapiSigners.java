@@ -0,0 +1,56 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Maps;
+import com.xwechat.api.jssdk.JsapiSigner;
+import com.xwechat.enums.TicketType;
+
+/**
+ * 按appId缓存{@link JsapiSigner}，订阅jsapi ticket的更新并自动{@link JsapiSigner#reloadTicket(String)}，
+ * 签名时不需要读取repository
+ *
+ * @author yuanwq
+ */
+class JsapiSigners implements TokenListener {
+  private final Repository<ExpirableValue> jsTicketRepo;
+  private final ConcurrentMap<String, JsapiSigner> signers = Maps.newConcurrentMap();
+  /** 每个signer缓存的url数量，0表示不缓存 */
+  private final int cacheSize;
+  private final long reuseMillis;
+
+  JsapiSigners(Repository<ExpirableValue> jsTicketRepo, int cacheSize, long reuseMillis) {
+    this.jsTicketRepo = jsTicketRepo;
+    this.cacheSize = cacheSize;
+    this.reuseMillis = reuseMillis;
+  }
+
+  JsapiSigner get(String appId) {
+    return signers.computeIfAbsent(appId, k -> {
+      ExpirableValue ticket = jsTicketRepo.get(appId);
+      if (ticket == null) {
+        throw new IllegalStateException("no jsapi ticket yet, appId=" + appId);
+      }
+      return cacheSize > 0
+          ? new JsapiSigner(ticket.getValue(), cacheSize, reuseMillis, TimeUnit.MILLISECONDS)
+          : new JsapiSigner(ticket.getValue());
+    });
+  }
+
+  /**
+   * 与{@link #get(String)}中的创建互斥：创建中的signer读到的是更新前的ticket时，等创建完成后再重新加载；
+   * 还没开始创建时，创建读取repository得到的已经是新的ticket（先写repository再发布事件）
+   */
+  @Override
+  public void onChange(TokenEvent event) {
+    if (event.getTicketType() != TicketType.JSAPI) return;
+    signers.computeIfPresent(event.getAppId(), (appId, signer) -> {
+      signer.reloadTicket(event.getValue().getValue());
+      return signer;
+    });
+  }
+}
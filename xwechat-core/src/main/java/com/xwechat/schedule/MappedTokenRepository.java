@@ -0,0 +1,505 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * 基于内存映射文件的token表，用于同一台机器上多个jvm进程共享accessToken/ticket：
+ * <ul>
+ * <li>只有一个进程（运行{@link WechatScheduler}的refresher）以{@link #openWriter(File, int)}打开并写入，
+ * writer在{@link #close()}之前一直持有旁边的{@code .lock}文件的排它锁，第二个writer打开失败</li>
+ * <li>其它进程以{@link #openReader(File)}打开，无锁读取，通过每个槽的seqlock保证读到的是一致的值</li>
+ * </ul>
+ * 槽位采用开放寻址（线性探测），删除只做标记，所以appId一旦写入就一直占用该槽位。<br>
+ * writer在写入中途退出时该槽位的seq停在奇数：reader等待约{@link #STALE_WRITE_MILLIS}毫秒后放弃该槽位（按不存在处理），
+ * 下一个writer打开时把这样的槽位标记为删除。
+ * <p>
+ * 映射内存上的读写不受java内存模型约束，seqlock的顺序由显式屏障保证：写入在奇数seq之后、偶数seq之前各有一个
+ * StoreStore屏障，读取在seq和数据之间各有一个LoadLoad屏障。屏障优先使用{@code Unsafe.storeFence/loadFence}，
+ * 不可用时退化为原子变量的读改写（完整屏障）。
+ *
+ * @author yuanwq
+ */
+public class MappedTokenRepository implements Repository<ExpirableValue>, Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(MappedTokenRepository.class);
+  private static final int MAGIC = 0x58574b54; // "XWKT"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 64;
+
+  /** appId的最大字节数 */
+  public static final int MAX_APPID_BYTES = 64;
+  /** token/ticket的最大字节数，微信文档中access_token至少保留512个字符 */
+  public static final int MAX_VALUE_BYTES = 512;
+
+  private static final int OFF_SEQ = 0;
+  private static final int OFF_STATE = 8;
+  private static final int OFF_APPID_LEN = 12;
+  private static final int OFF_APPID = 16;
+  private static final int OFF_CREATE_TIME = OFF_APPID + MAX_APPID_BYTES;
+  private static final int OFF_EXPIRE_TIME = OFF_CREATE_TIME + 8;
+  private static final int OFF_VALUE_LEN = OFF_EXPIRE_TIME + 8;
+  private static final int OFF_VALUE = OFF_VALUE_LEN + 4;
+  private static final int SLOT_SIZE = OFF_VALUE + MAX_VALUE_BYTES;
+
+  private static final int STATE_EMPTY = 0;
+  private static final int STATE_USED = 1;
+  private static final int STATE_DELETED = 2;
+
+  /** 读到写入中的槽位时最多自旋的次数，超过后短暂park再试 */
+  private static final int SPIN_TRIES = 64;
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  /** 槽位处于写入中超过该时间，视为writer已在写入中途退出 */
+  private static final long STALE_WRITE_MILLIS = 100;
+  private static final int MAX_TRIES =
+      SPIN_TRIES + (int) (TimeUnit.MILLISECONDS.toNanos(STALE_WRITE_MILLIS) / PARK_NANOS);
+
+  /** jvm内writer持有的锁文件：文件锁属于进程，jvm内需要另外互斥 */
+  private static final Set<Path> HELD = Sets.newConcurrentHashSet();
+
+  private static final MethodHandle STORE_FENCE;
+  private static final MethodHandle LOAD_FENCE;
+  /** 没有Unsafe时的屏障代理 */
+  private static final AtomicInteger FALLBACK_FENCE = new AtomicInteger();
+
+  static {
+    MethodHandle storeFence = null;
+    MethodHandle loadFence = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      Object unsafe = field.get(null);
+      MethodType type = MethodType.methodType(void.class);
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      storeFence = lookup.findVirtual(unsafeClass, "storeFence", type).bindTo(unsafe);
+      loadFence = lookup.findVirtual(unsafeClass, "loadFence", type).bindTo(unsafe);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      storeFence = null;
+      loadFence = null;
+    }
+    STORE_FENCE = storeFence;
+    LOAD_FENCE = loadFence;
+  }
+
+  private final File file;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+  private final boolean writable;
+  /** writer持有的锁，reader为null */
+  private FileLock lock;
+
+  private MappedTokenRepository(File file, MappedByteBuffer buffer, int capacity,
+      boolean writable) {
+    this.file = file;
+    this.buffer = buffer;
+    this.capacity = capacity;
+    this.writable = writable;
+  }
+
+  /**
+   * 以写入方式打开，文件不存在则创建；已存在则沿用其中的数据（refresher重启后token不丢失），
+   * 上一个writer中断的写入在这里清除。用完后需要{@link #close()}释放writer锁
+   *
+   * @param capacity 最多可容纳的appId数，已存在的文件以文件中的为准
+   * @throws IllegalStateException 其它进程或本jvm内已有writer
+   */
+  public static MappedTokenRepository openWriter(File file, int capacity) throws IOException {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+    // 锁单独的文件：关闭同一文件的任一channel可能释放进程在该文件上的锁，而reader会打开数据文件
+    Path lockPath = lockPathOf(file);
+    Preconditions.checkState(HELD.add(lockPath), "token table already opened for write: %s",
+        file);
+    FileLock lock = null;
+    try {
+      lock = lock(lockPath);
+      MappedTokenRepository repository = mapForWrite(file, capacity);
+      repository.lock = lock;
+      repository.recover();
+      return repository;
+    } catch (IOException | RuntimeException e) {
+      if (lock != null) {
+        lock.channel().close();
+      }
+      HELD.remove(lockPath);
+      throw e;
+    }
+  }
+
+  private static Path lockPathOf(File file) {
+    return new File(file.getPath() + ".lock").toPath().toAbsolutePath().normalize();
+  }
+
+  private static FileLock lock(Path lockPath) throws IOException {
+    FileChannel channel =
+        FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock lock;
+    try {
+      lock = channel.tryLock();
+    } catch (OverlappingFileLockException | IOException e) {
+      channel.close();
+      throw e;
+    }
+    if (lock == null) {
+      channel.close();
+      throw new IllegalStateException("token table locked by another writer: " + lockPath);
+    }
+    return lock;
+  }
+
+  private static MappedTokenRepository mapForWrite(File file, int capacity) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      if (raf.length() == 0) {
+        long length = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+        Preconditions.checkArgument(length <= Integer.MAX_VALUE, "capacity too large");
+        raf.setLength(length);
+        MappedByteBuffer buffer = raf.getChannel().map(MapMode.READ_WRITE, 0, length);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, capacity);
+        buffer.putInt(12, SLOT_SIZE);
+        buffer.putInt(0, MAGIC); // 最后写magic，reader看到magic时头部已完整
+        return new MappedTokenRepository(file, buffer, capacity, true);
+      }
+      FileChannel channel = raf.getChannel();
+      MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, channel.size());
+      return new MappedTokenRepository(file, buffer, checkHeader(file, buffer), true);
+    }
+  }
+
+  /** 上一个writer在写入中途退出时，seq停在奇数的槽位数据不完整，标记为删除并恢复为偶数 */
+  private void recover() {
+    for (int idx = 0; idx < capacity; idx++) {
+      int base = slotBase(idx);
+      long seq = buffer.getLong(base + OFF_SEQ);
+      if ((seq & 1L) == 0) continue;
+      // state最后写入，新增时中断仍是EMPTY；已有的槽位不能改回EMPTY，否则截断其它appId的探测链
+      if (buffer.getInt(base + OFF_STATE) != STATE_EMPTY) {
+        buffer.putInt(base + OFF_STATE, STATE_DELETED);
+      }
+      storeFence();
+      buffer.putLong(base + OFF_SEQ, seq + 1);
+      logger.warn("discard interrupted write, slot={}, file={}", idx, file);
+    }
+  }
+
+  /**
+   * 以只读方式打开，{@link #update(String, ExpirableValue)}和{@link #delete(String)}不可用
+   */
+  public static MappedTokenRepository openReader(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileChannel channel = raf.getChannel();
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      return new MappedTokenRepository(file, buffer, checkHeader(file, buffer), false);
+    }
+  }
+
+  private static int checkHeader(File file, MappedByteBuffer buffer) {
+    Preconditions.checkState(buffer.capacity() >= HEADER_SIZE && buffer.getInt(0) == MAGIC,
+        "not a token table: %s", file);
+    Preconditions.checkState(buffer.getInt(4) == VERSION, "unsupported version: %s",
+        buffer.getInt(4));
+    Preconditions.checkState(buffer.getInt(12) == SLOT_SIZE, "unsupported slot size: %s",
+        buffer.getInt(12));
+    int capacity = buffer.getInt(8);
+    Preconditions.checkState(buffer.capacity() >= HEADER_SIZE + (long) capacity * SLOT_SIZE,
+        "truncated token table: %s", file);
+    return capacity;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  @Override
+  public ExpirableValue get(String appId) {
+    byte[] key = encodeAppId(appId);
+    int start = indexOf(key);
+    for (int i = 0; i < capacity; i++) {
+      int base = slotBase((start + i) % capacity);
+      int tries = 0;
+      while (true) {
+        long seq = buffer.getLong(base + OFF_SEQ);
+        if ((seq & 1L) != 0) {
+          if (!backoff(++tries)) return stale(base, appId);
+          continue;
+        }
+        loadFence();
+        int state = buffer.getInt(base + OFF_STATE);
+        if (state == STATE_EMPTY) {
+          loadFence();
+          if (buffer.getLong(base + OFF_SEQ) != seq) continue;
+          return null;
+        }
+        boolean match = keyEquals(base, key);
+        ExpirableValue value = null;
+        if (match && state == STATE_USED) {
+          value = readValue(base);
+        }
+        loadFence();
+        if (buffer.getLong(base + OFF_SEQ) != seq) {
+          if (!backoff(++tries)) return stale(base, appId);
+          continue;
+        }
+        if (match) {
+          return value;
+        }
+        break;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized void update(String appId, ExpirableValue value) {
+    checkWritable();
+    Preconditions.checkNotNull(value);
+    byte[] key = encodeAppId(appId);
+    byte[] bytes = value.getValue() == null ? new byte[0]
+        : value.getValue().getBytes(StandardCharsets.UTF_8);
+    Preconditions.checkArgument(bytes.length <= MAX_VALUE_BYTES, "value too long: %s",
+        bytes.length);
+    int base = findSlotForWrite(key);
+    long seq = buffer.getLong(base + OFF_SEQ);
+    buffer.putLong(base + OFF_SEQ, seq + 1);
+    storeFence();
+    buffer.putInt(base + OFF_APPID_LEN, key.length);
+    for (int i = 0; i < key.length; i++) {
+      buffer.put(base + OFF_APPID + i, key[i]);
+    }
+    buffer.putLong(base + OFF_CREATE_TIME, value.getCreateTime());
+    buffer.putLong(base + OFF_EXPIRE_TIME, value.getExpireTime());
+    buffer.putInt(base + OFF_VALUE_LEN, bytes.length);
+    for (int i = 0; i < bytes.length; i++) {
+      buffer.put(base + OFF_VALUE + i, bytes[i]);
+    }
+    buffer.putInt(base + OFF_STATE, STATE_USED);
+    storeFence();
+    buffer.putLong(base + OFF_SEQ, seq + 2);
+  }
+
+  @Override
+  public synchronized void delete(String appId) {
+    checkWritable();
+    byte[] key = encodeAppId(appId);
+    int base = findSlot(key);
+    if (base < 0) return;
+    long seq = buffer.getLong(base + OFF_SEQ);
+    buffer.putLong(base + OFF_SEQ, seq + 1);
+    storeFence();
+    buffer.putInt(base + OFF_STATE, STATE_DELETED);
+    storeFence();
+    buffer.putLong(base + OFF_SEQ, seq + 2);
+  }
+
+  @Override
+  public Map<String, ExpirableValue> all() {
+    Map<String, ExpirableValue> result = Maps.newLinkedHashMap();
+    for (int idx = 0; idx < capacity; idx++) {
+      int base = slotBase(idx);
+      int tries = 0;
+      while (true) {
+        long seq = buffer.getLong(base + OFF_SEQ);
+        if ((seq & 1L) != 0) {
+          if (!backoff(++tries)) {
+            stale(base, null);
+            break;
+          }
+          continue;
+        }
+        loadFence();
+        String appId = null;
+        ExpirableValue value = null;
+        if (buffer.getInt(base + OFF_STATE) == STATE_USED) {
+          appId = readAppId(base);
+          value = readValue(base);
+        }
+        loadFence();
+        if (buffer.getLong(base + OFF_SEQ) != seq) {
+          if (!backoff(++tries)) {
+            stale(base, null);
+            break;
+          }
+          continue;
+        }
+        if (appId != null) {
+          result.put(appId, value);
+        }
+        break;
+      }
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  /** 强制刷盘，一般不需要：同机进程间共享的是page cache */
+  public void force() {
+    buffer.force();
+  }
+
+  /** writer释放锁，之后其它writer才能打开；reader不需要关闭 */
+  @Override
+  public synchronized void close() throws IOException {
+    if (lock == null) return;
+    try {
+      lock.channel().close();
+    } finally {
+      lock = null;
+      HELD.remove(lockPathOf(file));
+    }
+  }
+
+  /** 等待写入超时，按不存在处理 */
+  private ExpirableValue stale(int base, String appId) {
+    logger.warn("slot stays in writing for {}ms, writer may have died, slot={}, appId={}, file={}",
+        STALE_WRITE_MILLIS, (base - HEADER_SIZE) / SLOT_SIZE, appId, file);
+    return null;
+  }
+
+  private void checkWritable() {
+    if (!writable) {
+      throw new UnsupportedOperationException("read only token table: " + file);
+    }
+    Preconditions.checkState(lock != null, "token table closed: %s", file);
+  }
+
+  /** @return 该appId已有的槽位，不存在返回-1 */
+  private int findSlot(byte[] key) {
+    int start = indexOf(key);
+    for (int i = 0; i < capacity; i++) {
+      int base = slotBase((start + i) % capacity);
+      int state = buffer.getInt(base + OFF_STATE);
+      if (state == STATE_EMPTY) return -1;
+      if (keyEquals(base, key)) return base;
+    }
+    return -1;
+  }
+
+  /** @return 该appId已有的槽位，不存在则为探测到的第一个空槽 */
+  private int findSlotForWrite(byte[] key) {
+    int start = indexOf(key);
+    for (int i = 0; i < capacity; i++) {
+      int base = slotBase((start + i) % capacity);
+      int state = buffer.getInt(base + OFF_STATE);
+      if (state == STATE_EMPTY || keyEquals(base, key)) return base;
+    }
+    throw new IllegalStateException("token table is full, capacity=" + capacity + ", file=" + file);
+  }
+
+  private boolean keyEquals(int base, byte[] key) {
+    int len = buffer.getInt(base + OFF_APPID_LEN);
+    if (len != key.length) return false;
+    for (int i = 0; i < len; i++) {
+      if (buffer.get(base + OFF_APPID + i) != key[i]) return false;
+    }
+    return true;
+  }
+
+  private String readAppId(int base) {
+    int len = Math.min(Math.max(buffer.getInt(base + OFF_APPID_LEN), 0), MAX_APPID_BYTES);
+    byte[] bytes = new byte[len];
+    for (int i = 0; i < len; i++) {
+      bytes[i] = buffer.get(base + OFF_APPID + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private ExpirableValue readValue(int base) {
+    // 写入中长度可能是脏的，先钳位，由调用方根据seq决定是否丢弃
+    int len = Math.min(Math.max(buffer.getInt(base + OFF_VALUE_LEN), 0), MAX_VALUE_BYTES);
+    byte[] bytes = new byte[len];
+    for (int i = 0; i < len; i++) {
+      bytes[i] = buffer.get(base + OFF_VALUE + i);
+    }
+    ExpirableValue value = new ExpirableValue();
+    value.setValue(new String(bytes, StandardCharsets.UTF_8));
+    value.setCreateTime(buffer.getLong(base + OFF_CREATE_TIME));
+    value.setExpireTime(buffer.getLong(base + OFF_EXPIRE_TIME));
+    return value;
+  }
+
+  private int indexOf(byte[] key) {
+    int h = 1;
+    for (byte b : key) {
+      h = 31 * h + b;
+    }
+    h ^= (h >>> 16);
+    return (h & 0x7fffffff) % capacity;
+  }
+
+  private static int slotBase(int idx) {
+    return HEADER_SIZE + idx * SLOT_SIZE;
+  }
+
+  private static byte[] encodeAppId(String appId) {
+    Preconditions.checkArgument(appId != null && !appId.isEmpty(), "blank appId");
+    byte[] key = appId.getBytes(StandardCharsets.UTF_8);
+    Preconditions.checkArgument(key.length <= MAX_APPID_BYTES, "appId too long: %s", appId);
+    return key;
+  }
+
+  /** 之前的写不会被重排到之后的写后面 */
+  private static void storeFence() {
+    fence(STORE_FENCE);
+  }
+
+  /** 之前的读不会被重排到之后的读后面 */
+  private static void loadFence() {
+    fence(LOAD_FENCE);
+  }
+
+  private static void fence(MethodHandle handle) {
+    if (handle == null) {
+      FALLBACK_FENCE.getAndIncrement();
+      return;
+    }
+    try {
+      handle.invokeExact();
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** @return false表示等待超时，槽位的写入已经中断 */
+  private static boolean backoff(int tries) {
+    if (tries > MAX_TRIES) return false;
+    if (tries > SPIN_TRIES) {
+      LockSupport.parkNanos(PARK_NANOS);
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("file", file).add("capacity", capacity)
+        .add("writable", writable).toString();
+  }
+}
@@ -0,0 +1,19 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.Collection;
+
+/**
+ * 调度节点成员来源，用于分片模式，可以基于zookeeper、etcd、配置中心等实现
+ *
+ * @author yuanwq
+ */
+public interface MembershipSource {
+  /** @return 当前存活的节点id */
+  public Collection<String> members();
+
+  /** 成员发生变化时回调listener，回调可能发生在任意线程 */
+  public void addListener(Runnable listener);
+}
@@ -0,0 +1,82 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Maps;
+
+/**
+ * 内存实现的租约，只在同一个jvm内有效，用于测试：通过{@link #forNode(String)}模拟多个节点共享同一张租约表
+ *
+ * @author yuanwq
+ */
+public class MemoryRefreshLease implements RefreshLease {
+  private final ConcurrentMap<String, Lease> leases;
+  private final String nodeId;
+  private final Clock clock;
+
+  public MemoryRefreshLease() {
+    this(Clock.SYSTEM);
+  }
+
+  public MemoryRefreshLease(Clock clock) {
+    this(UUID.randomUUID().toString(), Maps.newConcurrentMap(), clock);
+  }
+
+  private MemoryRefreshLease(String nodeId, ConcurrentMap<String, Lease> leases, Clock clock) {
+    this.nodeId = nodeId;
+    this.leases = leases;
+    this.clock = clock;
+  }
+
+  /** @return 与当前实例共享租约表的另一个节点 */
+  public MemoryRefreshLease forNode(String nodeId) {
+    return new MemoryRefreshLease(nodeId, leases, clock);
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  @Override
+  public boolean tryAcquire(String appId, long leaseMillis) {
+    long now = clock.currentTimeMillis();
+    Lease lease = leases.compute(appId, (k, old) -> {
+      if (old == null || old.owner.equals(nodeId) || old.expireTime < now) {
+        return new Lease(nodeId, now + leaseMillis);
+      }
+      return old;
+    });
+    return lease.owner.equals(nodeId);
+  }
+
+  @Override
+  public void release(String appId) {
+    leases.computeIfPresent(appId, (k, old) -> old.owner.equals(nodeId) ? null : old);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("nodeId", nodeId).add("leases", leases)
+        .toString();
+  }
+
+  private static class Lease {
+    private final String owner;
+    private final long expireTime;
+
+    private Lease(String owner, long expireTime) {
+      this.owner = owner;
+      this.expireTime = expireTime;
+    }
+
+    @Override
+    public String toString() {
+      return owner + "@" + expireTime;
+    }
+  }
+}
@@ -0,0 +1,32 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.io.IOException;
+
+/**
+ * 刷新token/ticket时微信返回了错误
+ *
+ * @author yuanwq
+ */
+public class RefreshException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  private final String appId;
+  private final int errcode;
+
+  public RefreshException(String appId, int errcode, String errmsg) {
+    super("appId=" + appId + ", errcode=" + errcode + ", errmsg=" + errmsg);
+    this.appId = appId;
+    this.errcode = errcode;
+  }
+
+  public String getAppId() {
+    return appId;
+  }
+
+  public int getErrcode() {
+    return errcode;
+  }
+}
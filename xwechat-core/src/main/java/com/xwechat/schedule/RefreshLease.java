@@ -0,0 +1,24 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+/**
+ * 刷新权租约：多个节点调度同一个app时，只有持有租约的节点（leader）去微信刷新token，
+ * 其它节点（follower）不请求微信，直接从共享的repository读取leader刷新的token。<br>
+ * 避免多个节点互相使对方的access_token失效。
+ *
+ * @author yuanwq
+ */
+public interface RefreshLease {
+  /**
+   * 尝试获取或续约appId的刷新权
+   *
+   * @param leaseMillis 租约有效期，持有者在有效期内未续约则其它节点可以获取
+   * @return true则当前节点负责刷新
+   */
+  public boolean tryAcquire(String appId, long leaseMillis);
+
+  /** 主动释放appId的刷新权，未持有则忽略 */
+  public void release(String appId);
+}
@@ -3,9 +3,18 @@
  */
 package com.xwechat.schedule;
 
+import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.common.collect.Maps;
 
 /**
+ * 批量和异步的方法都有基于同步单key方法的默认实现，远程存储（redis等）的实现应该覆盖批量方法以减少round trip，
+ * 或者使用{@link ExecutorRepository}把同步调用放到线程池中执行。<br>
+ * 读取方法返回的值可能是副本（比如{@link CompactTaskRepository}或远程存储），调用方修改后必须
+ * {@link #update(String, Object)}才会保存
+ *
  * @author yuanwq
  */
 public interface Repository<V> {
@@ -16,4 +25,60 @@ public interface Repository<V> {
   public void delete(String appId);
 
   public Map<String, V> all();
+
+  /** @return 存在的appId及其值，不存在的appId不在结果中 */
+  default public Map<String, V> getAll(Collection<String> appIds) {
+    Map<String, V> result = Maps.newLinkedHashMap();
+    for (String appId : appIds) {
+      V value = get(appId);
+      if (value != null) {
+        result.put(appId, value);
+      }
+    }
+    return result;
+  }
+
+  default public void updateAll(Map<String, V> values) {
+    values.forEach(this::update);
+  }
+
+  default public CompletableFuture<V> getAsync(String appId) {
+    try {
+      return CompletableFuture.completedFuture(get(appId));
+    } catch (RuntimeException e) {
+      return failedFuture(e);
+    }
+  }
+
+  default public CompletableFuture<Void> updateAsync(String appId, V value) {
+    try {
+      update(appId, value);
+      return CompletableFuture.completedFuture(null);
+    } catch (RuntimeException e) {
+      return failedFuture(e);
+    }
+  }
+
+  default public CompletableFuture<Map<String, V>> getAllAsync(Collection<String> appIds) {
+    try {
+      return CompletableFuture.completedFuture(getAll(appIds));
+    } catch (RuntimeException e) {
+      return failedFuture(e);
+    }
+  }
+
+  default public CompletableFuture<Void> updateAllAsync(Map<String, V> values) {
+    try {
+      updateAll(values);
+      return CompletableFuture.completedFuture(null);
+    } catch (RuntimeException e) {
+      return failedFuture(e);
+    }
+  }
+
+  static <T> CompletableFuture<T> failedFuture(Throwable e) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(e);
+    return future;
+  }
 }
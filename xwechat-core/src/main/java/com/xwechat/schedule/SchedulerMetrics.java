@@ -0,0 +1,238 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * {@link WechatScheduler}的运行指标：
+ * <ul>
+ * <li>tick延迟：{@code LoopStepThread}实际执行时间与计划时间的差</li>
+ * <li>刷新次数、结果、耗时，以及刷新时原token的剩余有效期</li>
+ * <li>每个app最近一次刷新的情况，见{@link AppStats}</li>
+ * </ul>
+ * 槽位分布见{@link WechatScheduler#getSlotOccupancy()}
+ *
+ * @author yuanwq
+ */
+public class SchedulerMetrics {
+  /** 刷新结果 */
+  public enum Outcome {
+    /** 刷新成功 */
+    SUCCESS,
+    /** 刷新失败，已按退避策略重新加入taskLoop */
+    FAILURE,
+    /** 未取得租约，读取了leader的token */
+    FOLLOW;
+  }
+
+  private final AtomicLong ticks = new AtomicLong();
+  private volatile long lastTickLagMillis;
+  private final AtomicLong maxTickLagMillis = new AtomicLong();
+
+  private final AtomicLong refreshSuccess = new AtomicLong();
+  private final AtomicLong refreshFailure = new AtomicLong();
+  private final AtomicLong refreshFollow = new AtomicLong();
+  private final AtomicLong refreshLatencyTotalMillis = new AtomicLong();
+  private final AtomicLong refreshLatencyMaxMillis = new AtomicLong();
+  private final AtomicLong minTimeToExpiryMillis = new AtomicLong(Long.MAX_VALUE);
+
+  private final ConcurrentMap<String, AppStats> apps = Maps.newConcurrentMap();
+
+  void onTick(long lagMillis) {
+    ticks.incrementAndGet();
+    lastTickLagMillis = lagMillis;
+    maxTickLagMillis.accumulateAndGet(lagMillis, Long::max);
+  }
+
+  /**
+   * @param timeToExpiryMillis 刷新开始时原token的剩余有效期，首次刷新时为{@link Long#MAX_VALUE}
+   */
+  void onRefreshSuccess(String appId, long latencyMillis, long timeToExpiryMillis,
+      long expireTime) {
+    refreshSuccess.incrementAndGet();
+    onLatency(latencyMillis);
+    if (timeToExpiryMillis != Long.MAX_VALUE) {
+      minTimeToExpiryMillis.accumulateAndGet(timeToExpiryMillis, Long::min);
+    }
+    apps.put(appId,
+        new AppStats(Outcome.SUCCESS, 0, null, latencyMillis, timeToExpiryMillis, expireTime));
+  }
+
+  /** @return 该appId的连续失败次数 */
+  int onRefreshFailure(String appId, Throwable e, long latencyMillis, long timeToExpiryMillis) {
+    refreshFailure.incrementAndGet();
+    onLatency(latencyMillis);
+    AppStats stats = apps.compute(appId, (k, old) -> {
+      int streak = old == null ? 1 : old.failureStreak + 1;
+      long expireTime = old == null ? 0L : old.expireTime;
+      return new AppStats(Outcome.FAILURE, streak, e, latencyMillis, timeToExpiryMillis,
+          expireTime);
+    });
+    return stats.failureStreak;
+  }
+
+  void onFollow(String appId, long latencyMillis, long expireTime) {
+    refreshFollow.incrementAndGet();
+    apps.put(appId, new AppStats(Outcome.FOLLOW, 0, null, latencyMillis, Long.MAX_VALUE,
+        expireTime));
+  }
+
+  private void onLatency(long latencyMillis) {
+    refreshLatencyTotalMillis.addAndGet(latencyMillis);
+    refreshLatencyMaxMillis.accumulateAndGet(latencyMillis, Long::max);
+  }
+
+  public long getTicks() {
+    return ticks.get();
+  }
+
+  public long getLastTickLagMillis() {
+    return lastTickLagMillis;
+  }
+
+  public long getMaxTickLagMillis() {
+    return maxTickLagMillis.get();
+  }
+
+  public long getRefreshSuccess() {
+    return refreshSuccess.get();
+  }
+
+  public long getRefreshFailure() {
+    return refreshFailure.get();
+  }
+
+  public long getRefreshFollow() {
+    return refreshFollow.get();
+  }
+
+  /** @return 成功和失败的刷新的平均耗时 */
+  public long getRefreshLatencyAvgMillis() {
+    long count = refreshSuccess.get() + refreshFailure.get();
+    return count == 0 ? 0 : refreshLatencyTotalMillis.get() / count;
+  }
+
+  public long getRefreshLatencyMaxMillis() {
+    return refreshLatencyMaxMillis.get();
+  }
+
+  /** @return 成功刷新时原token剩余有效期的最小值，越接近0越危险，没有数据时为{@link Long#MAX_VALUE} */
+  public long getMinTimeToExpiryMillis() {
+    return minTimeToExpiryMillis.get();
+  }
+
+  /** @return appId最近一次刷新的情况，没有时返回null */
+  public AppStats getAppStats(String appId) {
+    return apps.get(appId);
+  }
+
+  /** @return 当前连续失败中的appId及其连续失败次数 */
+  public Map<String, Integer> getFailureStreaks() {
+    ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+    apps.forEach((appId, stats) -> {
+      if (stats.failureStreak > 0) {
+        builder.put(appId, stats.failureStreak);
+      }
+    });
+    return builder.build();
+  }
+
+  /** @return 最近一次失败的原因，没有连续失败返回null */
+  public Throwable getLastFailure(String appId) {
+    AppStats stats = apps.get(appId);
+    return stats == null ? null : stats.lastFailure;
+  }
+
+  /**
+   * 按最近一次刷新得到的过期时间统计，不读取repository
+   *
+   * @return 已知过期时间且在{@code now + withinMillis}之前过期的app数量
+   */
+  public int countExpiringBefore(long now, long withinMillis) {
+    long deadline = now + withinMillis;
+    int count = 0;
+    for (AppStats stats : apps.values()) {
+      if (stats.expireTime > 0 && stats.expireTime < deadline) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  void remove(String appId) {
+    apps.remove(appId);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("ticks", ticks)
+        .add("lastTickLagMillis", lastTickLagMillis).add("maxTickLagMillis", maxTickLagMillis)
+        .add("refreshSuccess", refreshSuccess).add("refreshFailure", refreshFailure)
+        .add("refreshFollow", refreshFollow)
+        .add("refreshLatencyAvgMillis", getRefreshLatencyAvgMillis())
+        .add("refreshLatencyMaxMillis", refreshLatencyMaxMillis)
+        .add("minTimeToExpiryMillis", minTimeToExpiryMillis).add("apps", apps.size()).toString();
+  }
+
+  /** 单个app最近一次刷新的情况，不可变 */
+  public static class AppStats {
+    private final Outcome outcome;
+    private final int failureStreak;
+    private final Throwable lastFailure;
+    private final long latencyMillis;
+    private final long timeToExpiryMillis;
+    private final long expireTime;
+
+    private AppStats(Outcome outcome, int failureStreak, Throwable lastFailure,
+        long latencyMillis, long timeToExpiryMillis, long expireTime) {
+      this.outcome = outcome;
+      this.failureStreak = failureStreak;
+      this.lastFailure = lastFailure;
+      this.latencyMillis = latencyMillis;
+      this.timeToExpiryMillis = timeToExpiryMillis;
+      this.expireTime = expireTime;
+    }
+
+    public Outcome getOutcome() {
+      return outcome;
+    }
+
+    public int getFailureStreak() {
+      return failureStreak;
+    }
+
+    public Throwable getLastFailure() {
+      return lastFailure;
+    }
+
+    public long getLatencyMillis() {
+      return latencyMillis;
+    }
+
+    /** @return 刷新开始时原token的剩余有效期，首次刷新时为{@link Long#MAX_VALUE} */
+    public long getTimeToExpiryMillis() {
+      return timeToExpiryMillis;
+    }
+
+    /** @return 当前token的过期时间，未知时为0 */
+    public long getExpireTime() {
+      return expireTime;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(getClass()).add("outcome", outcome)
+          .add("failureStreak", failureStreak).add("latencyMillis", latencyMillis)
+          .add("timeToExpiryMillis", timeToExpiryMillis).add("expireTime", expireTime)
+          .toString();
+    }
+  }
+}
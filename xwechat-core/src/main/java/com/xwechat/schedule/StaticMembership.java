@@ -0,0 +1,47 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * 手动维护的节点成员，适用于固定部署或测试
+ *
+ * @author yuanwq
+ */
+public class StaticMembership implements MembershipSource {
+  private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+  private volatile Set<String> members;
+
+  public StaticMembership(Collection<String> members) {
+    this.members = ImmutableSet.copyOf(members);
+  }
+
+  @Override
+  public Collection<String> members() {
+    return Collections.unmodifiableSet(members);
+  }
+
+  public void setMembers(Collection<String> members) {
+    this.members = ImmutableSet.copyOf(members);
+    listeners.forEach(Runnable::run);
+  }
+
+  @Override
+  public void addListener(Runnable listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("members", members).toString();
+  }
+}
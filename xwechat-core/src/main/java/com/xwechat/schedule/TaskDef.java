@@ -9,10 +9,10 @@ import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
 import com.xwechat.enums.TicketType;
-import com.xwechat.util.JsonUtil;
 
 /**
  * @author yuanwq
@@ -23,14 +23,19 @@ public class TaskDef {
   private final Set<TicketType> ticketTypes = Sets.newLinkedHashSet();
   private long executeTime = 0L;
   private long expireTime = 0L;
+  private Boolean stableToken;
 
   /** for deserialization */
   public TaskDef() {}
 
   public TaskDef(String appId) {
+    this(appId, System.currentTimeMillis());
+  }
+
+  public TaskDef(String appId, long createTime) {
     Preconditions.checkArgument(StringUtils.isNotBlank(appId), "blank appId");
     this.appId = appId;
-    this.createTime = System.currentTimeMillis();
+    this.createTime = createTime;
   }
 
   public String getAppId() {
@@ -77,8 +82,22 @@ public class TaskDef {
     return expireTime;
   }
 
+  /**
+   * @param stableToken true则使用{@link com.xwechat.api.base.StableAccessTokenApi}获取access_token，
+   *        null则使用{@link WechatScheduler}的默认设置
+   */
+  public void setStableToken(Boolean stableToken) {
+    this.stableToken = stableToken;
+  }
+
+  public Boolean getStableToken() {
+    return stableToken;
+  }
+
   @Override
   public String toString() {
-    return JsonUtil.writeAsString(JsonUtil.DEFAULT_OBJECT_MAPPER, this);
+    return MoreObjects.toStringHelper(getClass()).add("appId", appId)
+        .add("ticketTypes", ticketTypes).add("executeTime", executeTime)
+        .add("expireTime", expireTime).add("stableToken", stableToken).toString();
   }
 }
@@ -16,6 +16,8 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 /**
+ * 所有方法由同一个锁保护：游标在调度线程推进，任务在执行线程完成后加回
+ *
  * @author yuanwq
  */
 public class TaskLoop {
@@ -25,6 +27,8 @@ public class TaskLoop {
   private long curIdx = 0;
   private final Map<Long, Set<String>> idxTaskMap = Maps.newLinkedHashMap();
   private final Map<String, Long> taskIdxMap = Maps.newHashMap();
+  /** {@link #current()}已取出、还没有重新{@link #add(long, String)}或{@link #remove(String)}的任务 */
+  private final Set<String> taken = Sets.newHashSet();
 
   public TaskLoop(long size) {
     Preconditions.checkArgument(size > 1);
@@ -34,38 +38,74 @@ public class TaskLoop {
     }
   }
 
-  public void moveOn() {
+  public synchronized void moveOn() {
     curIdx = (curIdx + 1) % size;
   }
 
   /**
+   * 取出当前游标对应的appId，取出的任务在重新{@link #add(long, String)}或{@link #remove(String)}之前仍然
+   * {@link #contains(String)}，避免执行期间被当作不在调度中再次加入
+   *
    * @return 当前游标对应的appId列表
    */
-  public Collection<String> current() {
-    return idxTaskMap.replace(curIdx, Sets.newLinkedHashSet());
+  public synchronized Collection<String> current() {
+    Collection<String> appIds = idxTaskMap.replace(curIdx, Sets.newLinkedHashSet());
+    for (String appId : appIds) {
+      taskIdxMap.remove(appId, curIdx);
+    }
+    taken.addAll(appIds);
+    return appIds;
+  }
+
+  /** @return appId是否在等待执行，或者已取出正在执行 */
+  public synchronized boolean contains(String appId) {
+    return taskIdxMap.containsKey(appId) || taken.contains(appId);
+  }
+
+  /** @return 距离appId执行还需要{@link #moveOn()}的次数，不在taskLoop中或已取出返回-1 */
+  public synchronized long stepsAhead(String appId) {
+    Long idx = taskIdxMap.get(appId);
+    return idx == null ? -1 : (idx - curIdx + size) % size;
+  }
+
+  /** @return 从当前游标开始每个槽中的任务数 */
+  public synchronized int[] slotSizes() {
+    int[] sizes = new int[(int) size];
+    for (int i = 0; i < size; i++) {
+      sizes[i] = idxTaskMap.get((curIdx + i) % size).size();
+    }
+    return sizes;
+  }
+
+  public synchronized void remove(String appId) {
+    taken.remove(appId);
+    Long idx = taskIdxMap.remove(appId);
+    if (idx != null) {
+      idxTaskMap.get(idx).remove(appId);
+    }
+    logger.info("[removeTask] curIdx={}, appId={}, scheduleIdx={}", curIdx, appId, idx);
   }
 
   /**
    * @param aheadSteps 领先当前游标的步数, <0就是根据当前游标反向计算
    * @param appId
    */
-  public void add(long aheadSteps, String appId) {
+  public synchronized void add(long aheadSteps, String appId) {
     aheadSteps = (aheadSteps % size + size) % size;
-    synchronized (appId.intern()) {
-      long idx = (curIdx + aheadSteps) % size;
-      long oldIdx = taskIdxMap.getOrDefault(appId, idx);
-      if (idx != oldIdx) {
-        idxTaskMap.get(oldIdx).remove(appId);
-      }
-      idxTaskMap.get(idx).add(appId);
-      taskIdxMap.put(appId, idx);
-      logger.info("[addTask] curIdx={}, appId={}, scheduleIdx={}, size={}", curIdx, appId, idx, size);
+    taken.remove(appId);
+    long idx = (curIdx + aheadSteps) % size;
+    long oldIdx = taskIdxMap.getOrDefault(appId, idx);
+    if (idx != oldIdx) {
+      idxTaskMap.get(oldIdx).remove(appId);
     }
+    idxTaskMap.get(idx).add(appId);
+    taskIdxMap.put(appId, idx);
+    logger.info("[addTask] curIdx={}, appId={}, scheduleIdx={}, size={}", curIdx, appId, idx, size);
   }
 
   @Override
-  public String toString() {
+  public synchronized String toString() {
     return MoreObjects.toStringHelper(getClass()).add("size", size).add("curIdx", curIdx)
-        .add("idx2task", idxTaskMap).add("task2idx", taskIdxMap).toString();
+        .add("idx2task", idxTaskMap).add("task2idx", taskIdxMap).add("taken", taken).toString();
   }
 }
@@ -0,0 +1,51 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import com.google.common.base.MoreObjects;
+import com.xwechat.enums.TicketType;
+
+/**
+ * access_token或ticket更新的事件
+ *
+ * @author yuanwq
+ */
+public class TokenEvent {
+  private final String appId;
+  private final TicketType ticketType;
+  private final ExpirableValue value;
+
+  /**
+   * @param ticketType 为null表示access_token
+   */
+  public TokenEvent(String appId, TicketType ticketType, ExpirableValue value) {
+    this.appId = appId;
+    this.ticketType = ticketType;
+    this.value = value;
+  }
+
+  public String getAppId() {
+    return appId;
+  }
+
+  /** @return access_token事件时为null */
+  public TicketType getTicketType() {
+    return ticketType;
+  }
+
+  public boolean isAccessToken() {
+    return ticketType == null;
+  }
+
+  public ExpirableValue getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("appId", appId)
+        .add("type", ticketType == null ? "access_token" : ticketType).add("value", value)
+        .toString();
+  }
+}
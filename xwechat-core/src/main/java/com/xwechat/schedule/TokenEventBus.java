@@ -0,0 +1,125 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+import com.xwechat.enums.TicketType;
+
+/**
+ * 把token更新异步分发给{@link TokenListener}：每个listener一个待投递表，以appId+类型为key，未投递的旧值直接被新值覆盖。
+ * <p>
+ * 每次发布在去重的同时原子地分配一个序号，并发发布同一个key时，待投递表只保留序号大的事件，投递前再丢弃已不是最新发布的事件，
+ * 所以listener不会在新值之后收到旧值
+ *
+ * @author yuanwq
+ */
+class TokenEventBus {
+  private static final Logger logger = LoggerFactory.getLogger(TokenEventBus.class);
+
+  private final Executor executor;
+  private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+  /** 最近发布的值，用于过滤重复的事件（比如follower反复读到同一个token） */
+  private final ConcurrentMap<String, Published> lastValues = Maps.newConcurrentMap();
+  private final AtomicLong sequence = new AtomicLong();
+
+  TokenEventBus(Executor executor) {
+    this.executor = executor;
+  }
+
+  void addListener(TokenListener listener) {
+    subscribers.add(new Subscriber(listener));
+  }
+
+  void removeListener(TokenListener listener) {
+    subscribers.removeIf(s -> s.listener == listener);
+  }
+
+  void publish(String appId, TicketType ticketType, ExpirableValue value) {
+    if (value == null) return;
+    String key = key(appId, ticketType);
+    Published[] created = new Published[1];
+    lastValues.compute(key, (k, last) -> {
+      if (last != null && Objects.equals(last.value, value.getValue())) return last;
+      created[0] = new Published(value.getValue(), sequence.incrementAndGet(),
+          new TokenEvent(appId, ticketType, value));
+      return created[0];
+    });
+    Published published = created[0];
+    if (published == null) return; // 与最近发布的值相同
+    for (Subscriber subscriber : subscribers) {
+      subscriber.offer(key, published);
+    }
+  }
+
+  private boolean isLatest(String key, Published published) {
+    Published latest = lastValues.get(key);
+    return latest == null || latest.seq <= published.seq;
+  }
+
+  private static String key(String appId, TicketType ticketType) {
+    return ticketType == null ? appId : appId + "#" + ticketType.name();
+  }
+
+  private static class Published {
+    private final String value;
+    private final long seq;
+    private final TokenEvent event;
+
+    private Published(String value, long seq, TokenEvent event) {
+      this.value = value;
+      this.seq = seq;
+      this.event = event;
+    }
+  }
+
+  private class Subscriber implements Runnable {
+    private final TokenListener listener;
+    private final ConcurrentMap<String, Published> pending = Maps.newConcurrentMap();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private Subscriber(TokenListener listener) {
+      this.listener = listener;
+    }
+
+    private void offer(String key, Published published) {
+      pending.merge(key, published, (old, offered) -> old.seq > offered.seq ? old : offered);
+      if (scheduled.compareAndSet(false, true)) {
+        try {
+          executor.execute(this);
+        } catch (RuntimeException e) {
+          scheduled.set(false);
+          logger.error("fail to dispatch token event: " + published.event, e);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      do {
+        for (String key : pending.keySet()) {
+          Published published = pending.remove(key);
+          if (published == null || !isLatest(key, published)) continue;
+          TokenEvent event = published.event;
+          try {
+            listener.onChange(event);
+          } catch (Exception e) {
+            logger.error("error in token listener " + listener + ", event=" + event, e);
+          }
+        }
+        scheduled.set(false);
+      } while (!pending.isEmpty() && scheduled.compareAndSet(false, true));
+    }
+  }
+}
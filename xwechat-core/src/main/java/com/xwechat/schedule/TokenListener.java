@@ -0,0 +1,14 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+/**
+ * 订阅{@link WechatScheduler}的access_token和ticket更新。<br>
+ * 异步回调，同一个listener的回调是串行的；回调不及时时同一appId、同一类型的事件会合并，只收到最新的值
+ *
+ * @author yuanwq
+ */
+public interface TokenListener {
+  public void onChange(TokenEvent event);
+}
@@ -4,21 +4,37 @@
 package com.xwechat.schedule;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.xwechat.api.ApplicationApi;
 import com.xwechat.api.base.ClientCredentialApi;
 import com.xwechat.api.base.ClientCredentialApi.ClientCredentialResponse;
+import com.xwechat.api.base.StableAccessTokenApi;
+import com.xwechat.api.jssdk.JsapiSigner;
 import com.xwechat.api.jssdk.JsapiTicketApi;
 import com.xwechat.api.jssdk.JsapiTicketApi.JsapiTicketResponse;
 import com.xwechat.core.Application;
+import com.xwechat.core.IAccessTokenSource;
+import com.xwechat.core.IInvalidTokenListener;
 import com.xwechat.core.ResponseWrapper;
 import com.xwechat.core.Wechat;
 import com.xwechat.enums.TicketType;
@@ -26,7 +42,7 @@ import com.xwechat.enums.TicketType;
 /**
  * @author yuanwq
  */
-public class WechatScheduler {
+public class WechatScheduler implements IAccessTokenSource {
   private static final Logger logger = LoggerFactory.getLogger(WechatScheduler.class);
   private static final ThreadFactory wechatThreadFactory =
       new ThreadFactoryBuilder().setDaemon(true).setNameFormat("wechat-schedule-%d")
@@ -41,15 +57,56 @@ public class WechatScheduler {
   private Repository<TaskDef> taskRepo;
   private Repository<ExpirableValue> accessTokenRepo;
   private Repository<ExpirableValue> jsTicketRepo;
+  private Repository<ExpirableValue> cardTicketRepo;
+
+  private Wechat wechat;
+  private Clock clock;
 
   private ExecutorService taskExecutor;
+  private Executor ticketExecutor;
   private ScheduledExecutorService scheduledExecutor;
+  private RefreshLease refreshLease;
+  private FailurePolicy failurePolicy;
+  private final SchedulerMetrics metrics = new SchedulerMetrics();
+  private TokenEventBus eventBus;
+  private JsapiSigners jsapiSigners;
+  private String nodeId;
+  private MembershipSource membership;
+  private int virtualNodes;
+  private volatile ConsistentHashRing ring;
 
   private long gapMillis = TimeUnit.MINUTES.toMillis(1);
   private long durationMillis = TimeUnit.MINUTES.toMillis(100);
+  private long leaseMillis;
+  private long refreshAheadMillis;
+  private boolean stableToken;
   private TaskLoop taskLoop;
+  /** 已提交、还没执行完的刷新的appId，所有刷新（tick、读取触发、失效、新任务）都经过它去重 */
+  private final Set<String> refreshing = Sets.newConcurrentHashSet();
+  /** 执行中又需要立即刷新的appId（比如新增了ticket类型），当前刷新完成后再执行一次 */
+  private final Set<String> rerun = Sets.newConcurrentHashSet();
+  /** 刷新失败后按{@link FailurePolicy}计算的下次重试时间，在此之前读取和失效报告不会触发刷新 */
+  private final ConcurrentMap<String, Long> retryAfter = Maps.newConcurrentMap();
+  /**
+   * 提前刷新没有延长有效期（稳定版access_token在续期窗口之外返回原token）的appId到计划刷新时间，
+   * 在此之前读取不再触发提前刷新，失效报告不受影响
+   */
+  private final ConcurrentMap<String, Long> readAheadAfter = Maps.newConcurrentMap();
+  /** 当前的access_token到appId的映射，用于处理{@link Wechat}报告的失效token */
+  private final ConcurrentMap<String, String> tokenOwners = Maps.newConcurrentMap();
+  private final ConcurrentMap<String, String> appTokens = Maps.newConcurrentMap();
+
+  /** LoopStepThread下一次计划执行的时间 */
+  private long nextTickTime;
+  /** 稳定版access_token在过期前5分钟内请求才会返回新的，在过期前3分钟刷新 */
+  private static final long STABLE_TOKEN_REFRESH_MARGIN = TimeUnit.MINUTES.toMillis(3);
+  /** 微信返回的是剩余秒数，同一个token每次算出的过期时间有误差，延长不超过该值视为没有延长 */
+  private static final long EXPIRE_TIME_TOLERANCE = TimeUnit.MINUTES.toMillis(1);
 
   private volatile boolean started = false;
+  /** start时注册到wechat的监听，shutdown时注销 */
+  private IInvalidTokenListener invalidTokenListener;
+  private ScheduledFuture<?> tickFuture;
   private boolean debug = false;
 
   private WechatScheduler() {}
@@ -59,15 +116,44 @@ public class WechatScheduler {
   }
 
   public synchronized void start() {
-    Preconditions.checkState(!started, "already started");
+    Preconditions.checkState(!started && tickFuture == null, "already started or shut down");
     Preconditions.checkArgument(durationMillis > gapMillis);
     long size = durationMillis / gapMillis + 1; // +1是为了避免0和最大值落到同一个槽中
     taskLoop = new TaskLoop(size);
-    scheduledExecutor.scheduleAtFixedRate(new LoopStepThread(), gapMillis, gapMillis,
-        TimeUnit.MILLISECONDS);
+    if (membership != null) {
+      ring = new ConsistentHashRing(membership.members(), virtualNodes);
+      membership.addListener(() -> {
+        if (started) {
+          scheduledExecutor.execute(this::rebalance);
+        }
+      });
+      scheduledExecutor.execute(this::rebalance); // 接管共享taskRepo中已属于当前节点的任务
+    }
+    invalidTokenListener = (token, errcode) -> {
+      String appId = tokenOwners.get(token);
+      if (appId != null) {
+        logger.warn("[invalidToken] appId={}, errcode={}", appId, errcode);
+        invalidate(appId, token);
+      }
+    };
+    wechat.addInvalidTokenListener(invalidTokenListener);
+    nextTickTime = clock.currentTimeMillis() + gapMillis;
+    tickFuture = scheduledExecutor.scheduleAtFixedRate(new LoopStepThread(), gapMillis,
+        gapMillis, TimeUnit.MILLISECONDS);
     started = true;
   }
 
+  /**
+   * 停止调度：不再推进taskLoop和触发刷新，从{@link Wechat}注销失效token的监听（通常多个scheduler共用一个Wechat）。
+   * 已提交的刷新会执行完；线程池不关闭，由创建者负责。shutdown之后不能再start
+   */
+  public synchronized void shutdown() {
+    if (!started) return;
+    started = false;
+    wechat.removeInvalidTokenListener(invalidTokenListener);
+    tickFuture.cancel(false);
+  }
+
   public Repository<Application> getAppRepo() {
     return appRepo;
   }
@@ -84,22 +170,248 @@ public class WechatScheduler {
     return jsTicketRepo;
   }
 
+  public Repository<ExpirableValue> getCardTicketRepo() {
+    return cardTicketRepo;
+  }
+
+  public Repository<ExpirableValue> getTicketRepo(TicketType type) {
+    switch (type) {
+      case JSAPI:
+        return jsTicketRepo;
+      case WX_CARD:
+        return cardTicketRepo;
+      default:
+        throw new IllegalArgumentException("unknown ticket type: " + type);
+    }
+  }
+
   public TaskLoop getTaskLoop() {
     return taskLoop;
   }
 
+  public RefreshLease getRefreshLease() {
+    return refreshLease;
+  }
+
+  public SchedulerMetrics getMetrics() {
+    return metrics;
+  }
+
+  /** @return 从当前游标开始taskLoop每个槽中的任务数，可据此观察刷新是否均匀 */
+  public int[] getSlotOccupancy() {
+    return taskLoop.slotSizes();
+  }
+
+  /**
+   * 按当前节点最近一次刷新得到的过期时间统计，不读取repository
+   *
+   * @return token在指定时间内过期的app数量
+   */
+  public int countExpiringWithin(long duration, TimeUnit unit) {
+    return metrics.countExpiringBefore(clock.currentTimeMillis(), unit.toMillis(duration));
+  }
+
+  /**
+   * 按taskRepo的遍历顺序逐个回调所有app的调度状态，替代{@link #dump()}。只读取一次taskRepo，不构造完整的快照列表；
+   * 需要分页时由consumer自行截取
+   */
+  public void snapshot(Consumer<AppSnapshot> consumer) {
+    for (TaskDef task : taskRepo.all().values()) {
+      consumer.accept(snapshotOf(task));
+    }
+  }
+
+  private AppSnapshot snapshotOf(TaskDef task) {
+    String appId = task.getAppId();
+    long stepsAhead = taskLoop == null ? -1 : taskLoop.stepsAhead(appId);
+    return new AppSnapshot(task, stepsAhead, metrics.getAppStats(appId));
+  }
+
+  /** 订阅access_token和ticket的更新，见{@link TokenListener} */
+  public void addTokenListener(TokenListener listener) {
+    eventBus.addListener(listener);
+  }
+
+  public void removeTokenListener(TokenListener listener) {
+    eventBus.removeListener(listener);
+  }
+
+  /**
+   * @return appId对应的签名器，jsapi ticket更新后自动重新加载，需要先{@link #scheduleJsTicket(String)}
+   * @throws IllegalStateException 还没有获取到jsapi ticket
+   */
+  public JsapiSigner getJsapiSigner(String appId) {
+    return jsapiSigners.get(appId);
+  }
+
+  /**
+   * 读取appId的access_token，剩余有效期不足refreshAhead时立即返回当前值，并异步刷新一次（同一appId只会有一个刷新，
+   * 失败后的退避期内不刷新）
+   *
+   * @return 没有或已过期时返回null
+   */
+  @Override
+  public String getAccessToken(String appId) {
+    return readAhead(appId, accessTokenRepo.get(appId));
+  }
+
+  /** 通过{@link Repository#getAll(Collection)}一次读取，刷新逻辑同{@link #getAccessToken(String)} */
+  @Override
+  public Map<String, String> getAccessTokens(Collection<String> appIds) {
+    Map<String, ExpirableValue> values = accessTokenRepo.getAll(appIds);
+    Map<String, String> tokens = Maps.newHashMapWithExpectedSize(values.size());
+    values.forEach((appId, value) -> {
+      String token = readAhead(appId, value);
+      if (token != null) {
+        tokens.put(appId, token);
+      }
+    });
+    return tokens;
+  }
+
+  /**
+   * 读取appId的jsapi ticket，刷新逻辑同{@link #getAccessToken(String)}
+   *
+   * @return 没有时返回null
+   */
+  public String getJsTicket(String appId) {
+    return getTicket(appId, TicketType.JSAPI);
+  }
+
+  /**
+   * 读取appId的ticket，刷新逻辑同{@link #getAccessToken(String)}
+   *
+   * @return 没有时返回null
+   */
+  public String getTicket(String appId, TicketType type) {
+    return readAhead(appId, getTicketRepo(type).get(appId));
+  }
+
+  private String readAhead(String appId, ExpirableValue value) {
+    if (value == null) return null;
+    long remainingMillis = value.getExpireTime() - clock.currentTimeMillis();
+    if (remainingMillis < refreshAheadMillis) {
+      Long aheadTime = readAheadAfter.get(appId);
+      if (aheadTime == null || clock.currentTimeMillis() >= aheadTime) {
+        refreshAsync(appId, null);
+      }
+    }
+    // 已过期的值按未命中处理，不返回给调用方
+    return remainingMillis > 0 ? value.getValue() : null;
+  }
+
+  /**
+   * 报告appId的access_token已失效（比如其它地方用同一个secret调用了{@link ClientCredentialApi}）：
+   * 若当前token仍是staleToken则立即刷新一次；已经刷新过或刷新中则忽略，所以并发的报告只会触发一次请求。<br>
+   * 通过{@link Wechat}调用的接口返回40001/40014/42001时会自动调用
+   *
+   * @return 是否触发了刷新
+   */
+  public boolean invalidate(String appId, String staleToken) {
+    ExpirableValue current = accessTokenRepo.get(appId);
+    if (current == null || !Objects.equals(current.getValue(), staleToken)) {
+      return false;
+    }
+    return refreshAsync(appId, staleToken);
+  }
+
+  /**
+   * @param staleToken 已确认失效的token，提前刷新时为null。使用稳定版access_token时，只有普通模式仍返回该token才强制刷新
+   * @return 是否提交了刷新，已在刷新中返回false
+   */
+  private boolean refreshAsync(String appId, String staleToken) {
+    if (!started || !owns(appId) || refreshing.contains(appId)) return false;
+    Long retryTime = retryAfter.get(appId);
+    if (retryTime != null && clock.currentTimeMillis() < retryTime) return false;
+    try {
+      logger.info("[refreshAsync] appId={}", appId);
+      return submit(appId, () -> taskRepo.get(appId), staleToken);
+    } catch (RuntimeException e) {
+      logger.error("fail to submit refresh: " + appId, e);
+      return false;
+    }
+  }
+
+  private void trackToken(String appId, ExpirableValue accessToken) {
+    if (accessToken == null) return;
+    String token = accessToken.getValue();
+    String old = appTokens.put(appId, token);
+    if (old != null && !old.equals(token)) {
+      tokenOwners.remove(old, appId);
+    }
+    tokenOwners.put(token, appId);
+  }
+
+  private void untrackToken(String appId) {
+    String old = appTokens.remove(appId);
+    if (old != null) {
+      tokenOwners.remove(old, appId);
+    }
+  }
+
+  /** @return 分片模式下appId是否由当前节点负责，非分片模式总是true */
+  public boolean owns(String appId) {
+    ConsistentHashRing ring = this.ring;
+    return ring == null || nodeId.equals(ring.nodeFor(appId));
+  }
+
+  /**
+   * 节点成员变化后重新分配：不再属于当前节点的任务移出taskLoop，新分到的任务按已有的过期时间加入taskLoop，
+   * token还有效的不会重新请求。taskLoop已取出或正在刷新的任务刷新结束后会自己加回，不再重复加入
+   */
+  private void rebalance() {
+    ConsistentHashRing newRing = new ConsistentHashRing(membership.members(), virtualNodes);
+    logger.info("[rebalance] nodeId={}, ring={}", nodeId, newRing);
+    this.ring = newRing;
+    long now = clock.currentTimeMillis();
+    for (TaskDef task : taskRepo.all().values()) {
+      String appId = task.getAppId();
+      try {
+        if (!owns(appId)) {
+          if (taskLoop.contains(appId) || refreshing.contains(appId)) {
+            taskLoop.remove(appId);
+            metrics.remove(appId);
+            retryAfter.remove(appId);
+            readAheadAfter.remove(appId);
+            untrackToken(appId);
+            if (refreshLease != null) {
+              refreshLease.release(appId);
+            }
+          }
+        } else if (!taskLoop.contains(appId) && !refreshing.contains(appId)) {
+          if (task.getExpireTime() > now) {
+            trackToken(appId, accessTokenRepo.get(appId));
+            scheduleNext(task);
+          } else {
+            submit(task);
+          }
+        }
+      } catch (Exception e) {
+        logger.error("fail to rebalance task: " + appId, e);
+      }
+    }
+  }
+
   public TaskDef scheduleAccessToken(String appId) {
-    return scheduleTask(new TaskDef(appId));
+    return scheduleTask(new TaskDef(appId, clock.currentTimeMillis()));
   }
 
   public TaskDef scheduleJsTicket(String appId) {
-    TaskDef task = new TaskDef(appId);
+    TaskDef task = new TaskDef(appId, clock.currentTimeMillis());
     task.addTicketType(TicketType.JSAPI);
     return scheduleTask(task);
   }
 
+  public TaskDef scheduleCardTicket(String appId) {
+    TaskDef task = new TaskDef(appId, clock.currentTimeMillis());
+    task.addTicketType(TicketType.WX_CARD);
+    return scheduleTask(task);
+  }
+
   public TaskDef scheduleTask(TaskDef task) {
     Preconditions.checkState(started, "not start yet");
+    Preconditions.checkArgument(owns(task.getAppId()), "appId not owned by node %s: %s", nodeId,
+        task.getAppId());
     logger.info("schedule task: {}", task);
     boolean immediateExecute = false;
     final String appId = task.getAppId();
@@ -116,32 +428,85 @@ public class WechatScheduler {
     } else if (!oldTask.getTicketTypes().containsAll(task.getTicketTypes())) {
       immediateExecute = true;
       oldTask.addTicketTypes(task.getTicketTypes());
+      if (task.getStableToken() != null) {
+        oldTask.setStableToken(task.getStableToken());
+      }
       taskRepo.update(appId, oldTask);
-    } else if (oldTask.getExpireTime() < System.currentTimeMillis()) {
+    } else if (task.getStableToken() != null
+        && !task.getStableToken().equals(oldTask.getStableToken())) {
+      // 只切换获取方式，当前token仍然有效，下次刷新时生效
+      oldTask.setStableToken(task.getStableToken());
+      taskRepo.update(appId, oldTask);
+      immediateExecute = oldTask.getExpireTime() < clock.currentTimeMillis();
+    } else if (oldTask.getExpireTime() < clock.currentTimeMillis()) {
       immediateExecute = true;
     }
     if (debug) {
       logger.info("taskRepo: {}", taskRepo);
     }
     if (immediateExecute) {
-      submit(oldTask);
+      rerun.add(appId);
+      if (submit(oldTask)) {
+        rerun.remove(appId);
+      }
     } else {
+      // 沿用已有的token（比如重启后），同样需要能响应它的失效报告
+      trackToken(appId, accessTokenRepo.get(appId));
       scheduleNext(oldTask);
     }
     return oldTask;
   }
 
-  private void submit(TaskDef taskDef) {
-    if (taskDef == null) return;
-    taskExecutor.submit(new ScheduleTask(taskDef));
+  private boolean submit(TaskDef taskDef) {
+    if (taskDef == null) return false;
+    return submit(taskDef.getAppId(), () -> taskDef, null);
+  }
+
+  /**
+   * 所有刷新都从这里提交，同一appId同时只有一个刷新在排队或执行
+   *
+   * @param task 在执行线程中获取，远程存储的读取不占用调用线程
+   * @return 已有刷新时返回false
+   */
+  private boolean submit(String appId, Supplier<TaskDef> task, String staleToken) {
+    if (!refreshing.add(appId)) {
+      logger.info("[submit] skip task refreshing: {}", appId);
+      return false;
+    }
+    try {
+      taskExecutor.submit(() -> {
+        try {
+          TaskDef taskDef = task.get();
+          if (taskDef != null) {
+            new ScheduleTask(taskDef, staleToken).run();
+          }
+        } finally {
+          refreshing.remove(appId);
+          if (rerun.remove(appId)) {
+            submit(appId, () -> taskRepo.get(appId), null);
+          }
+        }
+      });
+      return true;
+    } catch (RuntimeException e) {
+      refreshing.remove(appId);
+      throw e;
+    }
   }
 
   private static final String DUMP_TEMPLATE =
       "===== appRepo =====\n%s\n" + "===== taskRepo =====\n%s\n" + "===== taskLoop =====\n%s\n"
-          + "===== accessTokenRepo =====\n%s\n" + "===== jsTicketRepo =====\n%s\n";
+          + "===== accessTokenRepo =====\n%s\n" + "===== jsTicketRepo =====\n%s\n"
+          + "===== cardTicketRepo =====\n%s\n";
 
+  /**
+   * @deprecated 输出所有repository和taskLoop，app数量多时结果很大，请使用{@link #snapshot(Consumer)}和
+   *             {@link #getMetrics()}
+   */
+  @Deprecated
   public String dump() {
-    return String.format(DUMP_TEMPLATE, appRepo, taskRepo, taskLoop, accessTokenRepo, jsTicketRepo);
+    return String.format(DUMP_TEMPLATE, appRepo, taskRepo, taskLoop, accessTokenRepo, jsTicketRepo,
+        cardTicketRepo);
   }
 
   public static Builder newBuilder() {
@@ -153,12 +518,28 @@ public class WechatScheduler {
     private Repository<TaskDef> taskRepo;
     private Repository<ExpirableValue> accessTokenRepo;
     private Repository<ExpirableValue> jsTicketRepo;
+    private Repository<ExpirableValue> cardTicketRepo;
+
+    private Wechat wechat;
+    private Clock clock;
 
     private ExecutorService taskExecutor;
+    private Executor ticketExecutor;
     private ScheduledExecutorService scheduledExecutor;
+    private Executor eventExecutor;
+    private RefreshLease refreshLease;
+    private FailurePolicy failurePolicy;
 
     private long gapMillis = TimeUnit.MINUTES.toMillis(1);
     private long durationMillis = TimeUnit.MINUTES.toMillis(100);
+    private long leaseMillis = -1;
+    private long refreshAheadMillis = TimeUnit.MINUTES.toMillis(5);
+    private boolean stableToken = false;
+    private String nodeId;
+    private MembershipSource membership;
+    private int virtualNodes = 160;
+    private int signatureCacheSize = 0;
+    private long signatureReuseMillis;
 
     private Builder() {}
 
@@ -182,6 +563,11 @@ public class WechatScheduler {
       return this;
     }
 
+    public Builder setCardTicketRepo(Repository<ExpirableValue> cardTicketRepo) {
+      this.cardTicketRepo = cardTicketRepo;
+      return this;
+    }
+
     public Builder setDuration(long duration, TimeUnit unit) {
       this.durationMillis = unit.toMillis(duration);
       return this;
@@ -192,6 +578,18 @@ public class WechatScheduler {
       return this;
     }
 
+    /** @default {@link Wechat#get()} */
+    public Builder setWechat(Wechat wechat) {
+      this.wechat = wechat;
+      return this;
+    }
+
+    /** @default {@link Clock#SYSTEM} */
+    public Builder setClock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
     public Builder setTaskExecutor(ExecutorService taskExecutor) {
       this.taskExecutor = taskExecutor;
       return this;
@@ -202,6 +600,98 @@ public class WechatScheduler {
       return this;
     }
 
+    /**
+     * 多个节点调度同一批app时设置，只有取得租约的节点才会去微信刷新，其它节点从共享的repository读取。<br>
+     * 此时accessTokenRepo、各ticket的repository和taskRepo需要是节点间共享的实现
+     */
+    public Builder setRefreshLease(RefreshLease refreshLease) {
+      this.refreshLease = refreshLease;
+      return this;
+    }
+
+    /** 同一个app有多种ticket时用于并行请求ticket，不要与taskExecutor共用有界线程池，避免互相等待 */
+    public Builder setTicketExecutor(Executor ticketExecutor) {
+      this.ticketExecutor = ticketExecutor;
+      return this;
+    }
+
+    /** 用于回调{@link TokenListener} */
+    public Builder setEventExecutor(Executor eventExecutor) {
+      this.eventExecutor = eventExecutor;
+      return this;
+    }
+
+    /** @default {@code new FailurePolicy()} */
+    public Builder setFailurePolicy(FailurePolicy failurePolicy) {
+      this.failurePolicy = failurePolicy;
+      return this;
+    }
+
+    /**
+     * 租约时长，需要大于duration，leader宕机后最迟在租约过期后由其它节点接管
+     *
+     * @default duration + 2 * gap
+     */
+    public Builder setLeaseDuration(long leaseDuration, TimeUnit unit) {
+      this.leaseMillis = unit.toMillis(leaseDuration);
+      return this;
+    }
+
+    /**
+     * 分片模式：每个节点只负责一致性hash环上属于自己的appId，{@link WechatScheduler#scheduleTask(TaskDef)}
+     * 只接受属于当前节点的appId。taskRepo需要是节点间共享的实现，成员变化时据此重新分配
+     *
+     * @param nodeId 当前节点id，需要出现在membership中
+     */
+    public Builder setSharding(String nodeId, MembershipSource membership) {
+      this.nodeId = nodeId;
+      this.membership = membership;
+      return this;
+    }
+
+    /**
+     * 通过{@link WechatScheduler#getAccessToken(String)}等读取时，剩余有效期小于该值则异步提前刷新，
+     * 需要小于token有效期与duration的差，否则每次读取都会触发刷新。<=0则关闭。<br>
+     * 提前刷新没有延长有效期时（稳定版access_token在续期窗口之外返回原token），到计划刷新时间前读取不再触发
+     *
+     * @default 5分钟
+     */
+    public Builder setRefreshAhead(long refreshAhead, TimeUnit unit) {
+      this.refreshAheadMillis = unit.toMillis(refreshAhead);
+      return this;
+    }
+
+    /**
+     * 默认的access_token获取方式，可以通过{@link TaskDef#setStableToken(Boolean)}为每个app单独设置。<br>
+     * true则使用稳定版接口{@link com.xwechat.api.base.StableAccessTokenApi}，多个节点各自获取同一个有效的token，
+     * 不需要{@link RefreshLease}
+     *
+     * @default false
+     */
+    public Builder setStableToken(boolean stableToken) {
+      this.stableToken = stableToken;
+      return this;
+    }
+
+    /**
+     * {@link #getJsapiSigner(String)}返回缓存模式的signer，见
+     * {@link JsapiSigner#JsapiSigner(String, int, long, TimeUnit)}
+     *
+     * @default 不缓存
+     */
+    public Builder setSignatureCache(int maxSize, long reuseWindow, TimeUnit unit) {
+      Preconditions.checkArgument(maxSize > 0, "maxSize must be positive");
+      this.signatureCacheSize = maxSize;
+      this.signatureReuseMillis = unit.toMillis(reuseWindow);
+      return this;
+    }
+
+    /** @default 160 */
+    public Builder setVirtualNodes(int virtualNodes) {
+      this.virtualNodes = virtualNodes;
+      return this;
+    }
+
     public WechatScheduler build() {
       Preconditions.checkNotNull(appRepo);
       WechatScheduler scheduler = new WechatScheduler();
@@ -212,21 +702,60 @@ public class WechatScheduler {
           this.accessTokenRepo != null ? this.accessTokenRepo : new MapRepository<>();
       scheduler.jsTicketRepo =
           this.jsTicketRepo != null ? this.jsTicketRepo : new MapRepository<>();
+      scheduler.cardTicketRepo =
+          this.cardTicketRepo != null ? this.cardTicketRepo : new MapRepository<>();
+
+      scheduler.wechat = this.wechat != null ? this.wechat : Wechat.get();
+      scheduler.clock = this.clock != null ? this.clock : Clock.SYSTEM;
 
       scheduler.taskExecutor = this.taskExecutor != null ? this.taskExecutor
           : Executors.newFixedThreadPool(5, wechatThreadFactory);
       scheduler.scheduledExecutor = this.scheduledExecutor != null ? this.scheduledExecutor
           : Executors.newSingleThreadScheduledExecutor(wechatThreadFactory);
+      scheduler.ticketExecutor = this.ticketExecutor != null ? this.ticketExecutor
+          : Executors.newCachedThreadPool(wechatThreadFactory);
+
+      scheduler.eventBus = new TokenEventBus(this.eventExecutor != null ? this.eventExecutor
+          : Executors.newCachedThreadPool(wechatThreadFactory));
+      scheduler.jsapiSigners = new JsapiSigners(scheduler.jsTicketRepo,
+          this.signatureCacheSize, this.signatureReuseMillis);
+      scheduler.eventBus.addListener(scheduler.jsapiSigners);
+
+      scheduler.refreshLease = this.refreshLease;
+      scheduler.failurePolicy =
+          this.failurePolicy != null ? this.failurePolicy : new FailurePolicy();
+      if (this.membership != null) {
+        Preconditions.checkArgument(StringUtils.isNotBlank(this.nodeId), "blank nodeId");
+        Preconditions.checkArgument(this.virtualNodes > 0, "virtualNodes must be positive");
+      }
+      scheduler.nodeId = this.nodeId;
+      scheduler.membership = this.membership;
+      scheduler.virtualNodes = this.virtualNodes;
 
       scheduler.durationMillis = this.durationMillis;
       scheduler.gapMillis = this.gapMillis;
+      scheduler.refreshAheadMillis = this.refreshAheadMillis;
+      scheduler.stableToken = this.stableToken;
+      scheduler.leaseMillis =
+          this.leaseMillis > 0 ? this.leaseMillis : this.durationMillis + 2 * this.gapMillis;
 
       return scheduler;
     }
   }
 
+  private boolean isStableToken(TaskDef task) {
+    return task.getStableToken() != null ? task.getStableToken() : stableToken;
+  }
+
+  /** @return tick计划刷新的时间 */
+  private long plannedRefreshTime(TaskDef task) {
+    long expireTime = task.getExpireTime();
+    return isStableToken(task) ? expireTime - STABLE_TOKEN_REFRESH_MARGIN : expireTime;
+  }
+
   private void scheduleNext(TaskDef task) {
-    long aheadMillis = Long.min(task.getExpireTime() - System.currentTimeMillis(), durationMillis);
+    long aheadMillis =
+        Long.min(plannedRefreshTime(task) - clock.currentTimeMillis(), durationMillis);
     long ahead = aheadMillis / gapMillis;
     taskLoop.add(ahead, task.getAppId());
     if (debug) {
@@ -234,86 +763,275 @@ public class WechatScheduler {
     }
   }
 
+  /** 失败退避超过一圈时，tick提前到达，按剩余的退避时间重新加入taskLoop */
+  private boolean deferRetry(String appId, long now) {
+    Long retryTime = retryAfter.get(appId);
+    if (retryTime == null || retryTime - now < gapMillis) return false;
+    taskLoop.add(Long.min(retryTime - now, durationMillis) / gapMillis, appId);
+    return true;
+  }
+
   private class LoopStepThread implements Runnable {
     @Override
     public void run() {
+      long now = clock.currentTimeMillis();
+      metrics.onTick(now - nextTickTime);
+      nextTickTime += gapMillis;
       Collection<String> appIds = taskLoop.current();
       taskLoop.moveOn();
       logger.info("[moveOn] toRun: {}", appIds);
+      List<String> toRun = Lists.newArrayListWithCapacity(appIds.size());
       for (String appId : appIds) {
-        try {
-          TaskDef task = taskRepo.get(appId);
-          submit(task);
-        } catch (Exception e) {
-          logger.error("fail to get task in loop step: " + appId, e);
+        if (!owns(appId)) {
+          logger.info("[moveOn] skip task not owned: {}", appId);
+          taskLoop.remove(appId);
+        } else if (refreshing.contains(appId)) {
+          // 正在进行的刷新结束后会重新加入taskLoop
+          logger.info("[moveOn] skip task refreshing: {}", appId);
+        } else if (deferRetry(appId, now)) {
+          logger.info("[moveOn] defer task in backoff: {}", appId);
+        } else {
+          toRun.add(appId);
         }
       }
+      if (toRun.isEmpty()) return;
+      // 每个槽一次批量读取，远程存储的实现不会占用调度线程
+      taskRepo.getAllAsync(toRun).whenComplete((tasks, e) -> {
+        if (e != null) {
+          logger.error("fail to get tasks in loop step, retry next step: " + toRun, e);
+          toRun.forEach(appId -> taskLoop.add(0, appId));
+          return;
+        }
+        for (String appId : toRun) {
+          TaskDef task = tasks.get(appId);
+          if (task == null) {
+            logger.warn("[moveOn] no task found: {}", appId);
+            taskLoop.remove(appId);
+            continue;
+          }
+          try {
+            submit(task);
+          } catch (Exception ex) {
+            logger.error("fail to submit task in loop step, retry next step: " + appId, ex);
+            taskLoop.add(0, appId);
+          }
+        }
+      });
     }
   }
 
   private class ScheduleTask implements Runnable {
     private TaskDef taskDef;
+    private final String staleToken;
 
     public ScheduleTask(TaskDef task) {
+      this(task, null);
+    }
+
+    public ScheduleTask(TaskDef task, String staleToken) {
       this.taskDef = task;
+      this.staleToken = staleToken;
     }
 
     @Override
     public void run() {
       logger.info("run {}", taskDef);
+      long startTime = clock.currentTimeMillis();
+      long timeToExpiry =
+          taskDef.getExpireTime() > 0 ? taskDef.getExpireTime() - startTime : Long.MAX_VALUE;
       try {
+        if (refreshLease != null && !refreshLease.tryAcquire(taskDef.getAppId(), leaseMillis)) {
+          follow();
+          retryAfter.remove(taskDef.getAppId());
+          metrics.onFollow(taskDef.getAppId(), clock.currentTimeMillis() - startTime,
+              taskDef.getExpireTime());
+          return;
+        }
+        long previousExpireTime = taskDef.getExpireTime();
         long expireTime = doTask();
         if (debug) {
           logger.info("[done {}] task={}", taskDef.getAppId(), taskDef);
         }
-        taskDef.setExecuteTime(System.currentTimeMillis());
+        taskDef.setExecuteTime(clock.currentTimeMillis());
         taskDef.setExpireTime(expireTime);
+        if (expireTime > previousExpireTime + EXPIRE_TIME_TOLERANCE) {
+          readAheadAfter.remove(taskDef.getAppId());
+        } else {
+          // 有效期没有延长，再次提前刷新也拿到同一个token，等到计划刷新时间
+          readAheadAfter.put(taskDef.getAppId(), plannedRefreshTime(taskDef));
+        }
         scheduleNext(taskDef);
         taskRepo.update(taskDef.getAppId(), taskDef);
-      } catch (IOException e) {
-        throw new RuntimeException("fail in task: " + taskDef, e);
+        retryAfter.remove(taskDef.getAppId());
+        metrics.onRefreshSuccess(taskDef.getAppId(), clock.currentTimeMillis() - startTime,
+            timeToExpiry, expireTime);
+      } catch (Exception e) {
+        onFailure(e, clock.currentTimeMillis() - startTime, timeToExpiry);
+      }
+    }
+
+    /** 失败后按{@link FailurePolicy}退避，重新加入taskLoop，避免app从调度中消失 */
+    private void onFailure(Exception e, long latencyMillis, long timeToExpiry) {
+      String appId = taskDef.getAppId();
+      int streak = metrics.onRefreshFailure(appId, e, latencyMillis, timeToExpiry);
+      long remainingMillis = taskDef.getExpireTime() - clock.currentTimeMillis();
+      long backoffMillis = failurePolicy.backoffMillis(e, streak, remainingMillis);
+      if (failurePolicy.isRetryable(e)) {
+        logger.warn("fail in task, retry after " + backoffMillis + "ms, streak=" + streak
+            + ", task=" + taskDef, e);
+      } else {
+        logger.error("permanent failure in task, retry after " + backoffMillis + "ms, streak="
+            + streak + ", task=" + taskDef, e);
       }
+      retryAfter.put(appId, clock.currentTimeMillis() + backoffMillis);
+      // taskLoop只有一圈（duration），更长的退避先排到一圈后，到时再按retryAfter推迟
+      taskLoop.add(Long.min(backoffMillis, durationMillis) / gapMillis, appId);
     }
 
+    /**
+     * 未取得租约，不请求微信，按leader写入共享repository的token安排下次检查；
+     * 还没有可用的token时下一个tick再检查
+     */
+    private void follow() {
+      String appId = taskDef.getAppId();
+      long now = clock.currentTimeMillis();
+      ExpirableValue accessToken = accessTokenRepo.get(appId);
+      eventBus.publish(appId, null, accessToken);
+      trackToken(appId, accessToken);
+      long expireTime = accessToken == null ? now : accessToken.getExpireTime();
+      for (TicketType type : taskDef.getTicketTypes()) {
+        ExpirableValue ticket = getTicketRepo(type).get(appId);
+        eventBus.publish(appId, type, ticket);
+        expireTime = ticket == null ? now : Long.min(expireTime, ticket.getExpireTime());
+      }
+      logger.info("[follow] appId={}, leaderExpireTime={}", appId, expireTime);
+      taskDef.setExpireTime(expireTime);
+      scheduleNext(taskDef);
+      // taskRepo返回的可能是副本，写回后rebalance、snapshot和重启才能看到leader的过期时间
+      taskRepo.update(appId, taskDef);
+    }
+
+    /**
+     * 先请求access_token，拿到后并行请求所有类型的ticket（最后一个在当前线程执行）
+     *
+     * @return access_token和所有ticket中最早的过期时间
+     */
     private long doTask() throws IOException {
-      long expireTime;
+      String appId = taskDef.getAppId();
       ExpirableValue accessToken = reqAccessToken();
-      accessTokenRepo.update(taskDef.getAppId(), accessToken);
-      expireTime = accessToken.getExpireTime();
-      if (taskDef.getTicketTypes().contains(TicketType.JSAPI)) {
-        ExpirableValue jsTicket = reqJsTicket(accessToken.getValue());
-        jsTicketRepo.update(taskDef.getAppId(), jsTicket);
-        expireTime = Long.min(expireTime, jsTicket.getExpireTime());
+      accessTokenRepo.update(appId, accessToken);
+      eventBus.publish(appId, null, accessToken);
+      trackToken(appId, accessToken);
+      long expireTime = accessToken.getExpireTime();
+
+      List<TicketType> types = Lists.newArrayList(taskDef.getTicketTypes());
+      Map<TicketType, CompletableFuture<ExpirableValue>> futures = Maps.newLinkedHashMap();
+      for (int i = 0; i < types.size(); i++) {
+        TicketType type = types.get(i);
+        CompletableFuture<ExpirableValue> future;
+        if (i < types.size() - 1) {
+          future = CompletableFuture.supplyAsync(() -> reqTicketUnchecked(type, accessToken),
+              ticketExecutor);
+        } else {
+          future = new CompletableFuture<>();
+          try {
+            future.complete(reqTicket(type, accessToken.getValue()));
+          } catch (Exception e) {
+            future.completeExceptionally(e);
+          }
+        }
+        futures.put(type, future);
+      }
+
+      IOException failure = null;
+      List<TicketType> failedTypes = Lists.newArrayList();
+      for (Map.Entry<TicketType, CompletableFuture<ExpirableValue>> entry : futures.entrySet()) {
+        TicketType type = entry.getKey();
+        ExpirableValue ticket;
+        try {
+          ticket = entry.getValue().join();
+        } catch (CompletionException e) {
+          Throwable cause = e.getCause() instanceof UncheckedIOException
+              ? e.getCause().getCause() : e.getCause();
+          if (failure == null) {
+            failure = cause instanceof IOException ? (IOException) cause
+                : new IOException("fail to request ticket: " + type, cause);
+          }
+          failedTypes.add(type);
+          continue;
+        }
+        getTicketRepo(type).update(appId, ticket);
+        eventBus.publish(appId, type, ticket);
+        expireTime = Long.min(expireTime, ticket.getExpireTime());
       }
-      if (taskDef.getTicketTypes().contains(TicketType.WX_CARD)) {
-        // TODO: request card ticket and update
+      if (failure != null) {
+        // access_token已经更新，按实际生效的值记录过期时间，失败的退避以它为准
+        for (TicketType type : failedTypes) {
+          ExpirableValue old = getTicketRepo(type).get(appId);
+          expireTime = Long.min(expireTime, old == null ? 0 : old.getExpireTime());
+        }
+        taskDef.setExpireTime(expireTime);
+        taskRepo.update(appId, taskDef);
+        throw failure;
       }
       return expireTime;
     }
 
     private ExpirableValue reqAccessToken() throws IOException {
-      ClientCredentialApi api = new ClientCredentialApi();
+      if (!isStableToken(taskDef)) {
+        return reqAccessToken(new ClientCredentialApi(), false);
+      }
+      ExpirableValue value = reqAccessToken(new StableAccessTokenApi(), false);
+      if (staleToken != null && staleToken.equals(value.getValue())) {
+        // 普通模式仍返回失效的token才强制刷新，强制刷新会让其它节点刚拿到的token也失效
+        value = reqAccessToken(new StableAccessTokenApi().setForceRefresh(true), true);
+      }
+      return value;
+    }
+
+    private ExpirableValue reqAccessToken(ApplicationApi<ClientCredentialResponse> api,
+        boolean force) throws IOException {
       Application app = appRepo.get(taskDef.getAppId());
       api.setAppId(taskDef.getAppId()).setAppSecret(app.getAppSecret());
-      ResponseWrapper<ClientCredentialResponse> wrapper = Wechat.get().call(api);
-      logger.info("[reqAccessToken] appId={}, resp={}", taskDef.getAppId(), wrapper.getBody());
+      ResponseWrapper<ClientCredentialResponse> wrapper = wechat.call(api);
+      logger.info("[reqAccessToken] appId={}, stable={}, force={}, resp={}", taskDef.getAppId(),
+          isStableToken(taskDef), force, wrapper.getBody());
+      checkResponse(wrapper);
       ClientCredentialResponse response = wrapper.getResponse();
       long expireTime =
-          System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(response.getExpiresIn());
-      ExpirableValue value = new ExpirableValue(response.getAccessToken(), expireTime);
+          clock.currentTimeMillis() + TimeUnit.SECONDS.toMillis(response.getExpiresIn());
+      ExpirableValue value =
+          new ExpirableValue(response.getAccessToken(), clock.currentTimeMillis(), expireTime);
       return value;
     }
 
-    private ExpirableValue reqJsTicket(String accessToken) throws IOException {
-      JsapiTicketApi api = new JsapiTicketApi();
+    private ExpirableValue reqTicketUnchecked(TicketType type, ExpirableValue accessToken) {
+      try {
+        return reqTicket(type, accessToken.getValue());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private ExpirableValue reqTicket(TicketType type, String accessToken) throws IOException {
+      JsapiTicketApi api = new JsapiTicketApi(type);
       api.setAccessToken(accessToken);
-      ResponseWrapper<JsapiTicketResponse> wrapper = Wechat.get().call(api);
-      logger.info("[reqJsTicket] appId={}, resp={}", taskDef.getAppId(), wrapper.getBody());
+      ResponseWrapper<JsapiTicketResponse> wrapper = wechat.call(api);
+      logger.info("[reqTicket] appId={}, type={}, resp={}", taskDef.getAppId(), type,
+          wrapper.getBody());
+      checkResponse(wrapper);
       JsapiTicketResponse response = wrapper.getResponse();
       long expireTime =
-          System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(response.getExpiresIn());
-      ExpirableValue value = new ExpirableValue(response.getTicket(), expireTime);
+          clock.currentTimeMillis() + TimeUnit.SECONDS.toMillis(response.getExpiresIn());
+      ExpirableValue value =
+          new ExpirableValue(response.getTicket(), clock.currentTimeMillis(), expireTime);
       return value;
     }
+
+    private void checkResponse(ResponseWrapper<?> wrapper) throws RefreshException {
+      if (wrapper.isError() || wrapper.getResponse() == null) {
+        throw new RefreshException(taskDef.getAppId(), wrapper.getErrcode(), wrapper.getErrmsg());
+      }
+    }
   }
 }
@@ -0,0 +1,26 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.sync;
+
+import java.util.List;
+
+import com.xwechat.api.mp.UserInfo;
+
+/**
+ * 接收{@link FollowerSync}拉取到的用户信息，比如写入数据库。
+ * <ul>
+ * <li>在多个worker线程中并发调用，实现需要线程安全，批次之间的顺序不保证</li>
+ * <li>阻塞会占用worker，进而暂停后续批次和分页的拉取（背压），不需要自己缓冲</li>
+ * <li>抛出异常会中止本次同步，从最后完成的分页继续时同一批用户可能再次传入，写入需要幂等</li>
+ * </ul>
+ *
+ * @author yuanwq
+ */
+@FunctionalInterface
+public interface FollowerSink {
+  /**
+   * @param users 一批（最多100个）用户的信息
+   */
+  public void accept(String appId, List<UserInfo> users) throws Exception;
+}
@@ -0,0 +1,363 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.sync;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.xwechat.api.mp.OpenidListApi;
+import com.xwechat.api.mp.OpenidListApi.OpenidListResponse;
+import com.xwechat.api.mp.UserInfo;
+import com.xwechat.api.mp.UserInfoBatchApi;
+import com.xwechat.api.mp.UserInfoBatchApi.UserInfoBatchResponse;
+import com.xwechat.core.IAccessTokenSource;
+import com.xwechat.core.IWechatResponse;
+import com.xwechat.core.ResponseWrapper;
+import com.xwechat.core.Wechat;
+import com.xwechat.schedule.MapRepository;
+import com.xwechat.schedule.Repository;
+
+/**
+ * 全量同步公众号关注者：{@link OpenidListApi}分页拉取openid（每页10000个），{@link UserInfoBatchApi}按批（最多100个）
+ * 拉取用户信息，交给{@link FollowerSink}。
+ * <ul>
+ * <li>开始处理一页时就预取下一页，分页请求不等待用户信息</li>
+ * <li>同时最多concurrency个批次在请求或写入sink，sink变慢时后续批次和分页都会等待，内存中最多只有两三页openid</li>
+ * <li>一页的所有批次（以及之前的页）都写入sink后，把这一页的next_openid记录到checkpoint；
+ * 中断后用同一个appId重新调用会从最后完成的页之后继续，全部完成后删除checkpoint</li>
+ * </ul>
+ * 单个请求失败时重试maxAttempts次，仍失败则中止本次同步并抛出异常
+ *
+ * @author yuanwq
+ */
+public class FollowerSync {
+  private static final Logger logger = LoggerFactory.getLogger(FollowerSync.class);
+  /** {@link OpenidListApi}每页的openid数 */
+  public static final int PAGE_SIZE = 10000;
+  /** {@link UserInfoBatchApi}每批的openid数上限 */
+  public static final int MAX_BATCH_SIZE = 100;
+
+  private Wechat wechat;
+  private IAccessTokenSource tokenSource;
+  private Repository<String> checkpoint;
+  private ExecutorService workers;
+  private ExecutorService pageFetcher;
+  private int batchSize;
+  private int concurrency;
+  private int maxAttempts;
+  private long retryDelayMillis;
+
+  private FollowerSync() {}
+
+  /**
+   * 阻塞直到同步完成或中止
+   *
+   * @throws IOException 请求多次失败或sink抛出异常，checkpoint停在最后完成的页
+   */
+  public FollowerSyncResult sync(String appId, FollowerSink sink)
+      throws IOException, InterruptedException {
+    Preconditions.checkNotNull(appId, "appId");
+    Preconditions.checkNotNull(sink, "sink");
+    long start = System.currentTimeMillis();
+    String resumedFrom = checkpoint.get(appId);
+    Semaphore permits = new Semaphore(concurrency);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    AtomicLong users = new AtomicLong();
+    Deque<PendingPage> pending = new ArrayDeque<>();
+    int pages = 0;
+    int total = 0;
+    long openids = 0;
+
+    CompletableFuture<OpenidListResponse> next = fetchPage(appId, resumedFrom);
+    while (next != null && failure.get() == null) {
+      OpenidListResponse page;
+      try {
+        page = await(next);
+      } catch (IOException e) {
+        failure.compareAndSet(null, e); // 已完成的页仍然记录checkpoint
+        next = null;
+        break;
+      }
+      List<String> ids = page.getData() == null ? Collections.emptyList()
+          : page.getData().getOpenid();
+      String cursor = page.getNextOpenid();
+      boolean last = ids.size() < PAGE_SIZE || StringUtils.isBlank(cursor);
+      next = last ? null : fetchPage(appId, cursor); // 预取下一页
+      total = page.getTotal();
+      pages++;
+      openids += ids.size();
+
+      List<CompletableFuture<Void>> batches = Lists.newArrayList();
+      for (List<String> batch : Lists.partition(ids, batchSize)) {
+        permits.acquire();
+        if (failure.get() != null) {
+          permits.release();
+          break;
+        }
+        batches.add(CompletableFuture.runAsync(() -> {
+          try {
+            List<UserInfo> infos = fetchUsers(appId, batch);
+            if (!infos.isEmpty()) {
+              sink.accept(appId, infos);
+              users.addAndGet(infos.size());
+            }
+          } catch (Exception e) {
+            failure.compareAndSet(null, e);
+            throw new CompletionException(e);
+          } finally {
+            permits.release();
+          }
+        }, workers));
+      }
+      pending.add(new PendingPage(
+          CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])), cursor, last));
+      advanceCheckpoint(appId, pending, false);
+    }
+    if (next != null) {
+      next.cancel(false);
+    }
+    advanceCheckpoint(appId, pending, true);
+
+    FollowerSyncResult result = new FollowerSyncResult(appId, resumedFrom, total, pages,
+        openids, users.get(), System.currentTimeMillis() - start);
+    Throwable e = failure.get();
+    if (e != null) {
+      logger.error("[followerSync] aborted, resume from {}, result={}", checkpoint.get(appId),
+          result);
+      throw e instanceof IOException ? (IOException) e
+          : new IOException("follower sync aborted, appId=" + appId, e);
+    }
+    logger.info("[followerSync] done, result={}", result);
+    return result;
+  }
+
+  /**
+   * 按顺序处理已完成的页：成功则记录其next_openid，遇到失败的页停止
+   *
+   * @param wait 等待所有页完成，用于结束时
+   */
+  private void advanceCheckpoint(String appId, Deque<PendingPage> pending, boolean wait)
+      throws InterruptedException {
+    PendingPage page;
+    while ((page = pending.peek()) != null) {
+      if (wait) {
+        try {
+          page.done.get();
+        } catch (ExecutionException e) {
+          // 失败原因已记录在failure中
+        }
+      }
+      if (!page.done.isDone()) return;
+      if (page.done.isCompletedExceptionally()) {
+        pending.clear();
+        return;
+      }
+      pending.poll();
+      if (page.last) {
+        checkpoint.delete(appId);
+      } else {
+        checkpoint.update(appId, page.cursor);
+      }
+    }
+  }
+
+  private CompletableFuture<OpenidListResponse> fetchPage(String appId, String nextOpenid) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return withRetry("openidList", appId, () -> {
+          OpenidListApi api = new OpenidListApi().setNextOpenid(nextOpenid);
+          api.setAccessToken(accessToken(appId));
+          return wechat.call(api);
+        });
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, pageFetcher);
+  }
+
+  private List<UserInfo> fetchUsers(String appId, List<String> openids) throws IOException {
+    UserInfoBatchResponse response = withRetry("userInfoBatch", appId, () -> {
+      UserInfoBatchApi api = new UserInfoBatchApi().setOpenids(openids);
+      api.setAccessToken(accessToken(appId));
+      return wechat.call(api);
+    });
+    return response.getUserInfoList();
+  }
+
+  private String accessToken(String appId) throws IOException {
+    String accessToken = tokenSource.getAccessToken(appId);
+    if (accessToken == null) {
+      throw new IOException("no access token, appId=" + appId);
+    }
+    return accessToken;
+  }
+
+  @FunctionalInterface
+  private interface Call<R extends IWechatResponse> {
+    ResponseWrapper<R> call() throws IOException;
+  }
+
+  private <R extends IWechatResponse> R withRetry(String name, String appId,
+      Call<R> call) throws IOException {
+    for (int attempt = 1;; attempt++) {
+      IOException error;
+      try {
+        ResponseWrapper<R> wrapper = call.call();
+        // 这两个接口成功时不返回errcode
+        if (wrapper.getErrmsg() == null || wrapper.getErrcode() == 0) {
+          return wrapper.getResponse();
+        }
+        error = new IOException(name + " error, appId=" + appId + ", errcode="
+            + wrapper.getErrcode() + ", errmsg=" + wrapper.getErrmsg());
+      } catch (IOException e) {
+        error = e;
+      }
+      if (attempt >= maxAttempts) throw error;
+      logger.warn("[followerSync] {} failed, attempt {}/{}: {}", name, attempt, maxAttempts,
+          error.getMessage());
+      try {
+        TimeUnit.MILLISECONDS.sleep(retryDelayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted", e);
+      }
+    }
+  }
+
+  private static <T> T await(CompletableFuture<T> future)
+      throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+  }
+
+  private static class PendingPage {
+    private final CompletableFuture<Void> done;
+    /** 这一页之后的next_openid */
+    private final String cursor;
+    private final boolean last;
+
+    private PendingPage(CompletableFuture<Void> done, String cursor, boolean last) {
+      this.done = done;
+      this.cursor = cursor;
+      this.last = last;
+    }
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private Wechat wechat;
+    private IAccessTokenSource tokenSource;
+    private Repository<String> checkpoint;
+    private ExecutorService workers;
+    private int batchSize = MAX_BATCH_SIZE;
+    private int concurrency = 8;
+    private int maxAttempts = 3;
+    private long retryDelayMillis = 1000;
+
+    private Builder() {}
+
+    /** @default {@link Wechat#get()} */
+    public Builder setWechat(Wechat wechat) {
+      this.wechat = wechat;
+      return this;
+    }
+
+    /** 必填，比如{@link com.xwechat.schedule.WechatScheduler} */
+    public Builder setTokenSource(IAccessTokenSource tokenSource) {
+      this.tokenSource = tokenSource;
+      return this;
+    }
+
+    /**
+     * appId到next_openid的映射，需要跨进程恢复时使用持久化的实现
+     *
+     * @default {@link MapRepository}
+     */
+    public Builder setCheckpoint(Repository<String> checkpoint) {
+      this.checkpoint = checkpoint;
+      return this;
+    }
+
+    /** @default concurrency个daemon线程的线程池 */
+    public Builder setWorkers(ExecutorService workers) {
+      this.workers = workers;
+      return this;
+    }
+
+    /** @default 100 */
+    public Builder setBatchSize(int batchSize) {
+      Preconditions.checkArgument(batchSize > 0 && batchSize <= MAX_BATCH_SIZE,
+          "batchSize must be in [1, %s]", MAX_BATCH_SIZE);
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * 同时在请求或写入sink的批次数
+     *
+     * @default 8
+     */
+    public Builder setConcurrency(int concurrency) {
+      Preconditions.checkArgument(concurrency > 0, "concurrency must be positive");
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /**
+     * 每个请求最多尝试的次数
+     *
+     * @default 3次，间隔1秒
+     */
+    public Builder setRetry(int maxAttempts, long retryDelay, TimeUnit unit) {
+      Preconditions.checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+      this.maxAttempts = maxAttempts;
+      this.retryDelayMillis = unit.toMillis(retryDelay);
+      return this;
+    }
+
+    public FollowerSync build() {
+      Preconditions.checkNotNull(tokenSource, "null tokenSource");
+      FollowerSync sync = new FollowerSync();
+      sync.wechat = this.wechat != null ? this.wechat : Wechat.get();
+      sync.tokenSource = this.tokenSource;
+      sync.checkpoint = this.checkpoint != null ? this.checkpoint : new MapRepository<>();
+      sync.workers = this.workers != null ? this.workers
+          : Executors.newFixedThreadPool(concurrency,
+              new ThreadFactoryBuilder().setDaemon(true).setNameFormat("follower-sync-%d").build());
+      sync.pageFetcher = Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("follower-page-%d").build());
+      sync.batchSize = this.batchSize;
+      sync.concurrency = this.concurrency;
+      sync.maxAttempts = this.maxAttempts;
+      sync.retryDelayMillis = this.retryDelayMillis;
+      return sync;
+    }
+  }
+}
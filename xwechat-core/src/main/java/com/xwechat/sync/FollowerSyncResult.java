@@ -0,0 +1,73 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.sync;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * 一次{@link FollowerSync#sync}的结果，只统计本次运行。不可变
+ *
+ * @author yuanwq
+ */
+public class FollowerSyncResult {
+  private final String appId;
+  private final String resumedFrom;
+  private final int total;
+  private final int pages;
+  private final long openids;
+  private final long users;
+  private final long elapsedMillis;
+
+  FollowerSyncResult(String appId, String resumedFrom, int total, int pages, long openids,
+      long users, long elapsedMillis) {
+    this.appId = appId;
+    this.resumedFrom = resumedFrom;
+    this.total = total;
+    this.pages = pages;
+    this.openids = openids;
+    this.users = users;
+    this.elapsedMillis = elapsedMillis;
+  }
+
+  public String getAppId() {
+    return appId;
+  }
+
+  /** @return 从checkpoint中恢复的next_openid，从头开始时为null */
+  public String getResumedFrom() {
+    return resumedFrom;
+  }
+
+  /** @return 微信返回的关注者总数 */
+  public int getTotal() {
+    return total;
+  }
+
+  /** @return 本次拉取的openid分页数 */
+  public int getPages() {
+    return pages;
+  }
+
+  /** @return 本次拉取的openid数 */
+  public long getOpenids() {
+    return openids;
+  }
+
+  /** @return 传给{@link FollowerSink}的用户数，取消关注的用户微信不返回信息时会少于openid数 */
+  public long getUsers() {
+    return users;
+  }
+
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(getClass()).add("appId", appId)
+        .add("resumedFrom", resumedFrom).add("total", total).add("pages", pages)
+        .add("openids", openids).add("users", users).add("elapsedMillis", elapsedMillis)
+        .toString();
+  }
+}
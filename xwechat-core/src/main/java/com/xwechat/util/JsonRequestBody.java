@@ -0,0 +1,62 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+
+/**
+ * 用{@link JsonGenerator}直接写入okio buffer的请求体，不生成中间的json树和字符串。<br>
+ * 构造时写入一次：序列化和校验的错误在构造时抛出，而不是发送时在okhttp内部抛出；请求带Content-Length，不使用chunked编码；
+ * 重试时发送同样的字节，构造后修改writer引用的数据不影响请求
+ *
+ * @author yuanwq
+ */
+public class JsonRequestBody extends RequestBody {
+  /** 写入json内容 */
+  @FunctionalInterface
+  public interface Writer {
+    public void write(JsonGenerator generator) throws IOException;
+  }
+
+  private final MediaType contentType;
+  private final ByteString content;
+
+  /** @throws UncheckedIOException writer抛出IOException */
+  public JsonRequestBody(MediaType contentType, Writer writer) {
+    this.contentType = contentType;
+    Buffer buffer = new Buffer();
+    try (JsonGenerator generator =
+        JsonUtil.DEFAULT_OBJECT_MAPPER.getFactory().createGenerator(buffer.outputStream())) {
+      writer.write(generator);
+    } catch (IOException e) {
+      throw new UncheckedIOException("fail to write json request body", e);
+    }
+    // snapshot与buffer共享segment，不复制整个请求体
+    this.content = buffer.snapshot();
+  }
+
+  @Override
+  public MediaType contentType() {
+    return contentType;
+  }
+
+  @Override
+  public long contentLength() {
+    return content.size();
+  }
+
+  @Override
+  public void writeTo(BufferedSink sink) throws IOException {
+    sink.write(content);
+  }
+}
@@ -0,0 +1,70 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.api.jssdk;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.RandomStringUtils;
+
+import com.google.common.collect.Lists;
+
+import static com.xwechat.api.jssdk.JsapiSignerTest.TICKET;
+import static com.xwechat.api.jssdk.JsapiSignerTest.legacySign;
+
+/**
+ * {@link JsapiSigner}与原来基于{@code String.format}和{@code DigestUtils.sha1Hex}的实现比较多线程下的吞吐，
+ * 包括缓存模式；结果一致性见{@link JsapiSignerTest}
+ *
+ * <pre>
+ * java ... com.xwechat.api.jssdk.JsapiSignerBenchmark [threads] [seconds]
+ * </pre>
+ *
+ * @author yuanwq
+ */
+public class JsapiSignerBenchmark {
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    String url = "https://example.com/h5/page?from=singlemessage&isappinstalled=0";
+    JsapiSigner signer = new JsapiSigner(TICKET);
+    Runnable legacy = () -> legacySign(TICKET, url, RandomStringUtils.randomAlphanumeric(16),
+        System.currentTimeMillis() / 1000);
+    Runnable current = () -> signer.sign(url);
+    JsapiSigner cachedSigner = new JsapiSigner(TICKET, 100, 1, TimeUnit.MINUTES);
+    Runnable cached = () -> cachedSigner.sign(url);
+    for (int round = 0; round < 2; round++) { // 第一轮预热
+      System.out.printf("legacy:  %,d ops/s%n", throughput(legacy, threads, seconds));
+      System.out.printf("current: %,d ops/s%n", throughput(current, threads, seconds));
+      System.out.printf("cached:  %,d ops/s%n", throughput(cached, threads, seconds));
+    }
+  }
+
+  private static long throughput(Runnable op, int threads, int seconds) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    List<Future<Long>> futures = Lists.newArrayList();
+    for (int i = 0; i < threads; i++) {
+      futures.add(executor.submit(() -> {
+        long ops = 0;
+        while (System.nanoTime() < deadline) {
+          for (int j = 0; j < 1000; j++) {
+            op.run();
+          }
+          ops += 1000;
+        }
+        return ops;
+      }));
+    }
+    long total = 0;
+    for (Future<Long> future : futures) {
+      total += future.get();
+    }
+    executor.shutdown();
+    return total / seconds;
+  }
+}
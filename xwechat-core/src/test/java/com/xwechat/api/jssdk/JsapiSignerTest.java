@@ -0,0 +1,115 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.api.jssdk;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.Test;
+
+import com.xwechat.BaseTest;
+import com.xwechat.api.jssdk.JsapiSigner.Signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link JsapiSigner}的结果与原来基于{@code String.format}和{@code DigestUtils.sha1Hex}的实现一致，吞吐对比见
+ * {@link JsapiSignerBenchmark}
+ *
+ * @author yuanwq
+ */
+public class JsapiSignerTest extends BaseTest {
+  static final String TICKET =
+      "HoagFKDcsGMVCIY2vOjf9nGrUi6Yw2GQDbq8Y5Lh0ckPFsgmqaZAsYe-kV5iWrH9RQ0mRR3_4ToczuEVkdDo3w";
+
+  /** 原来的实现 */
+  static String legacySign(String ticket, String url, String nonceStr, long timestamp) {
+    return DigestUtils.sha1Hex(String.format("jsapi_ticket=%s&noncestr=%s&timestamp=%d&url=%s",
+        ticket, nonceStr, timestamp, url));
+  }
+
+  @Test
+  public void testSameAsLegacy() {
+    JsapiSigner signer = new JsapiSigner(TICKET);
+    String[] urls = {"http://mp.weixin.qq.com?params=value",
+        "https://example.com/h5/page?from=singlemessage&isappinstalled=0",
+        "https://example.com/活动/页面?name=微信", "https://example.com/" + RandomStringUtils
+            .randomAlphanumeric(1000)};
+    for (String url : urls) {
+      Signature signature = signer.sign(url, "Wm3WZYTPz0wzccnW", 1414587457);
+      assertEquals(legacySign(TICKET, url, "Wm3WZYTPz0wzccnW", 1414587457),
+          signature.getSignature());
+
+      signature = signer.sign(url);
+      assertEquals(legacySign(TICKET, url, signature.getNonceStr(), signature.getTimestamp()),
+          signature.getSignature());
+      assertEquals(16, signature.getNonceStr().length());
+      assertEquals(DigestUtils.sha1Hex(signature.getString1()), signature.getSignature());
+    }
+    // 微信文档中的示例
+    signer.reloadTicket(
+        "sM4AOVdWfPE4DxkXGEs8VMCPGGVi4C3VM0P37wVUCFvkVAy_90u5h9nbSlYy3-Sl-HhTdfl2fzFy1AOcHKP7qg");
+    assertEquals("0f9de62fce790f9a083d5c99e95740ceb90c27ed",
+        signer.sign("http://mp.weixin.qq.com?params=value", "Wm3WZYTPz0wzccnW", 1414587457)
+            .getSignature());
+  }
+
+  @Test
+  public void testCache() {
+    JsapiSigner signer = new JsapiSigner(TICKET, 2, 1, TimeUnit.HOURS);
+    Signature signature = signer.sign("https://example.com/a?x=1#top");
+    assertEquals("https://example.com/a?x=1", signature.getUrl());
+    assertSame(signature, signer.sign("https://example.com/a?x=1#bottom"));
+    assertEquals(legacySign(TICKET, signature.getUrl(), signature.getNonceStr(),
+        signature.getTimestamp()), signature.getSignature());
+    // 指定参数时不使用缓存
+    assertNotSame(signature, signer.sign("https://example.com/a?x=1", 0));
+
+    signer.reloadTicket("new-ticket");
+    Signature renewed = signer.sign("https://example.com/a?x=1");
+    assertEquals("new-ticket", renewed.getJsapiTicket());
+    assertSame(renewed, signer.sign("https://example.com/a?x=1"));
+  }
+
+  @Test
+  public void testFragmentIgnoredInBothModes() {
+    JsapiSigner plain = new JsapiSigner(TICKET);
+    JsapiSigner cached = new JsapiSigner(TICKET, 2, 1, TimeUnit.HOURS);
+    String url = "https://example.com/a?x=1";
+    Signature signature = plain.sign(url + "#top", "Wm3WZYTPz0wzccnW", 1414587457);
+    assertEquals(url, signature.getUrl());
+    assertEquals(legacySign(TICKET, url, "Wm3WZYTPz0wzccnW", 1414587457),
+        signature.getSignature());
+    assertEquals(url, plain.sign(url + "#top").getUrl());
+
+    Signature fromCache = cached.sign(url + "#bottom");
+    assertEquals(url, fromCache.getUrl());
+    assertTrue(plain.verify(fromCache));
+    assertTrue(cached.verify(plain.sign(url + "#")));
+  }
+
+  @Test
+  public void testTicketOverlap() {
+    JsapiSigner signer = new JsapiSigner(TICKET);
+    Signature before = signer.sign("https://example.com/a");
+    assertTrue(signer.verify(before));
+
+    signer.reloadTicket("new-ticket");
+    assertEquals("new-ticket", signer.getJsapiTicket());
+    assertEquals(TICKET, signer.getPreviousJsapiTicket());
+    assertTrue(signer.isValidTicket(TICKET));
+    assertTrue(signer.verify(before));
+    assertTrue(signer.verify(signer.sign("https://example.com/a")));
+
+    signer.setTicketOverlap(0, TimeUnit.MILLISECONDS);
+    signer.reloadTicket("newer-ticket");
+    assertFalse(signer.isValidTicket("new-ticket"));
+    assertFalse(signer.verify(before));
+  }
+}
@@ -0,0 +1,58 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.api.wxapp;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.xwechat.util.JsonUtil;
+
+import okio.Buffer;
+
+import static com.xwechat.api.wxapp.CompiledTemplateTest.VALUES;
+import static com.xwechat.api.wxapp.CompiledTemplateTest.compiled;
+import static com.xwechat.api.wxapp.CompiledTemplateTest.legacy;
+
+/**
+ * {@link CompiledTemplate}与{@link TemplateMsg}加{@link JsonUtil}序列化比较单线程的吞吐，json等价见
+ * {@link CompiledTemplateTest}
+ *
+ * <pre>
+ * java ... com.xwechat.api.wxapp.CompiledTemplateBenchmark [seconds]
+ * </pre>
+ *
+ * @author yuanwq
+ */
+public class CompiledTemplateBenchmark {
+  public static void main(String[] args) throws IOException {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+    CompiledTemplate template = compiled();
+    Buffer buffer = new Buffer();
+    for (int round = 0; round < 2; round++) { // 第一轮预热
+      long ops = 0;
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+      while (System.nanoTime() < deadline) {
+        for (int i = 0; i < 1000; i++) {
+          String json = JsonUtil.writeAsString(JsonUtil.DEFAULT_OBJECT_MAPPER,
+              legacy("openid" + i, "form" + i));
+          buffer.writeUtf8(json);
+          buffer.clear();
+        }
+        ops += 1000;
+      }
+      System.out.printf("TemplateMsg + JsonUtil: %,d ops/s%n", ops / seconds);
+
+      ops = 0;
+      deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+      while (System.nanoTime() < deadline) {
+        for (int i = 0; i < 1000; i++) {
+          template.writeTo(buffer, "openid" + i, "form" + i, VALUES);
+          buffer.clear();
+        }
+        ops += 1000;
+      }
+      System.out.printf("CompiledTemplate:       %,d ops/s%n", ops / seconds);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.api.wxapp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.xwechat.BaseTest;
+import com.xwechat.util.JsonRequestBody;
+import com.xwechat.util.JsonUtil;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link CompiledTemplate}生成的json与{@link TemplateMsg}加{@link JsonUtil}序列化等价，吞吐对比见
+ * {@link CompiledTemplateBenchmark}
+ *
+ * @author yuanwq
+ */
+public class CompiledTemplateTest extends BaseTest {
+  static final String[] VALUES = {"339208499", "2015年01月05日 12:30", "粤海喜来登酒店",
+      "广州市天河区天河路208号", "\"引号\"\\反斜杠\n换行"};
+
+  static TemplateMsg legacy(String touser, String formId) {
+    TemplateMsg msg = new TemplateMsg();
+    msg.setTouser(touser);
+    msg.setTemplate_id("TEMPLATE_ID");
+    msg.setPage("index?foo=bar");
+    msg.setForm_id(formId);
+    msg.setEmphasis_keyword("keyword1.DATA");
+    msg.addKeyword(VALUES[0], "#173177");
+    for (int i = 1; i < VALUES.length; i++) {
+      msg.addKeyword(VALUES[i]);
+    }
+    return msg;
+  }
+
+  static CompiledTemplate compiled() {
+    CompiledTemplate.Builder builder = CompiledTemplate.newBuilder("TEMPLATE_ID")
+        .setPage("index?foo=bar").setEmphasisKeyword("keyword1.DATA").addKeyword("#173177");
+    for (int i = 1; i < VALUES.length; i++) {
+      builder.addKeyword();
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void testSameAsTemplateMsg() throws IOException {
+    String expected = JsonUtil.writeAsString(JsonUtil.DEFAULT_OBJECT_MAPPER,
+        legacy("OPENID", "FORMID"));
+    String actual = compiled().render("OPENID", "FORMID", VALUES);
+    assertEquals(JsonUtil.DEFAULT_OBJECT_MAPPER.readTree(expected),
+        JsonUtil.DEFAULT_OBJECT_MAPPER.readTree(actual));
+
+    String empty = CompiledTemplate.newBuilder("T").build().render("O", null);
+    assertEquals(JsonUtil.DEFAULT_OBJECT_MAPPER.readTree(
+        "{\"touser\":\"O\",\"template_id\":\"T\",\"page\":null,\"form_id\":null,\"data\":{},"
+            + "\"color\":null,\"emphasis_keyword\":null}"),
+        JsonUtil.DEFAULT_OBJECT_MAPPER.readTree(empty));
+  }
+
+  @Test
+  public void testRequestBodyHasContentLength() throws IOException {
+    RequestBody compiledBody =
+        compiled().toRequestBody(MediaType.parse("application/json"), "OPENID", "FORMID", VALUES);
+    String expected = compiled().render("OPENID", "FORMID", VALUES);
+    assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, compiledBody.contentLength());
+    assertEquals(expected, readUtf8(compiledBody));
+
+    TemplateMsgSendApi api = new TemplateMsgSendApi().setMessage(legacy("OPENID", "FORMID"));
+    api.setAccessToken("token");
+    RequestBody msgBody = api.toOkHttpRequest().body();
+    String json = readUtf8(msgBody);
+    assertEquals(json.getBytes(StandardCharsets.UTF_8).length, msgBody.contentLength());
+    assertEquals(JsonUtil.DEFAULT_OBJECT_MAPPER.readTree(expected),
+        JsonUtil.DEFAULT_OBJECT_MAPPER.readTree(json));
+    // 重试时发送同样的内容
+    assertEquals(json, readUtf8(msgBody));
+
+    // 序列化错误在创建时抛出，而不是发送时
+    try {
+      new JsonRequestBody(MediaType.parse("application/json"), generator -> {
+        throw new IOException("invalid message");
+      });
+      fail("should throw when created");
+    } catch (UncheckedIOException e) {
+      assertEquals("invalid message", e.getCause().getMessage());
+    }
+  }
+
+  private static String readUtf8(RequestBody body) throws IOException {
+    Buffer buffer = new Buffer();
+    body.writeTo(buffer);
+    return buffer.readUtf8();
+  }
+}
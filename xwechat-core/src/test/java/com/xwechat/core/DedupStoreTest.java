@@ -0,0 +1,219 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.core;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.xwechat.BaseTest;
+import com.xwechat.api.wxapp.TemplateMsg;
+import com.xwechat.api.wxapp.TemplateMsgSendApi;
+import com.xwechat.api.wxapp.WxappApiResp;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author yuanwq
+ */
+public class DedupStoreTest extends BaseTest {
+  private final AtomicInteger calls = new AtomicInteger();
+  private volatile String responseBody = "{\"errcode\":0,\"errmsg\":\"ok\"}";
+  private volatile CountDownLatch gate = new CountDownLatch(0);
+  /** 大于0时前几次请求在读响应时超时，此时微信已经收到请求 */
+  private final AtomicInteger timeouts = new AtomicInteger();
+
+  private Wechat localWechat() {
+    return new Wechat(new OkHttpClient.Builder().addInterceptor(chain -> {
+      calls.incrementAndGet();
+      try {
+        gate.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (timeouts.getAndDecrement() > 0) {
+        throw new SocketTimeoutException("timeout");
+      }
+      return new Response.Builder().request(chain.request()).protocol(Protocol.HTTP_1_1)
+          .code(200).message("OK")
+          .body(ResponseBody.create(MediaType.parse("application/json"), responseBody)).build();
+    }).build());
+  }
+
+  private static TemplateMsgSendApi api(String key) {
+    TemplateMsg msg = new TemplateMsg();
+    msg.setTouser("openid");
+    msg.setTemplate_id("template");
+    msg.setForm_id("form");
+    msg.addKeyword("value");
+    TemplateMsgSendApi api = new TemplateMsgSendApi().setMessage(msg).setIdempotencyKey(key);
+    api.setAccessToken("token");
+    return api;
+  }
+
+  @Test
+  public void testDuplicateAnsweredFromRecord() throws IOException {
+    Wechat wechat = localWechat();
+    wechat.setDedupStore(new DedupStore(1, TimeUnit.MINUTES));
+    ResponseWrapper<WxappApiResp> first = wechat.call(api("order-1"));
+    ResponseWrapper<WxappApiResp> second = wechat.call(api("order-1"));
+    assertEquals(1, calls.get());
+    assertEquals(first.getBody(), second.getBody());
+    assertEquals(0, second.getErrcode());
+
+    wechat.call(api("order-2"));
+    wechat.call(api(null));
+    wechat.call(api(null));
+    assertEquals(4, calls.get());
+  }
+
+  @Test
+  public void testErrorNotRecorded() throws IOException {
+    Wechat wechat = localWechat();
+    wechat.setDedupStore(new DedupStore(1, TimeUnit.MINUTES));
+    responseBody = "{\"errcode\":45047,\"errmsg\":\"out of limit\"}";
+    assertTrue(wechat.call(api("order-1")).isError());
+    responseBody = "{\"errcode\":0,\"errmsg\":\"ok\"}";
+    assertEquals(0, wechat.call(api("order-1")).getErrcode());
+    wechat.call(api("order-1"));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void testConcurrentDuplicatesWaitForInflight() throws Exception {
+    Wechat wechat = localWechat();
+    wechat.setDedupStore(new DedupStore(1, TimeUnit.MINUTES));
+    gate = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<ResponseWrapper<WxappApiResp>>> futures = Lists.newArrayList();
+    for (int i = 0; i < 8; i++) {
+      futures.add(executor.submit(() -> wechat.call(api("order-1"))));
+    }
+    Thread.sleep(100);
+    gate.countDown();
+    for (Future<ResponseWrapper<WxappApiResp>> future : futures) {
+      assertEquals(0, future.get(5, TimeUnit.SECONDS).getErrcode());
+    }
+    executor.shutdown();
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testWindowAndPersistence() throws Exception {
+    Map<String, String> persisted = Maps.newConcurrentMap();
+    DedupStore.Persistence persistence = new DedupStore.Persistence() {
+      @Override
+      public String load(String key) {
+        return persisted.get(key);
+      }
+
+      @Override
+      public void save(String key, String body, long expireTime) {
+        persisted.put(key, body);
+      }
+    };
+    AtomicLong now = new AtomicLong();
+    Wechat wechat = localWechat();
+    wechat.setDedupStore(new DedupStore(50, TimeUnit.MILLISECONDS, null, now::get));
+    wechat.call(api("order-1"));
+    now.set(49);
+    wechat.call(api("order-1"));
+    assertEquals(1, calls.get());
+    now.set(50);
+    wechat.call(api("order-1"));
+    assertEquals(2, calls.get());
+
+    // 重启后内存记录丢失，从持久化存储中恢复
+    wechat.setDedupStore(new DedupStore(1, TimeUnit.MINUTES, persistence));
+    wechat.call(api("order-3"));
+    wechat.setDedupStore(new DedupStore(1, TimeUnit.MINUTES, persistence));
+    wechat.call(api("order-3"));
+    assertEquals(3, calls.get());
+  }
+
+  @Test
+  public void testTimedOutSendNotResent() throws Exception {
+    AtomicLong now = new AtomicLong();
+    DedupStore store = new DedupStore(1, TimeUnit.MINUTES, null, now::get);
+    Wechat wechat = localWechat();
+    wechat.setDedupStore(store);
+    timeouts.set(1);
+    try {
+      wechat.call(api("order-1"));
+      fail("should time out");
+    } catch (SocketTimeoutException e) {
+      // 微信可能已经发出
+    }
+    assertTrue(store.isInDoubt("order-1"));
+    try {
+      wechat.call(api("order-1"));
+      fail("retry should not be resent");
+    } catch (DedupStore.InDoubtException e) {
+      assertEquals("order-1", e.getKey());
+    }
+    assertEquals(1, calls.get());
+
+    // 对账确认没有发出后释放，重试才真正发出
+    assertTrue(store.release("order-1"));
+    assertEquals(0, wechat.call(api("order-1")).getErrcode());
+    assertEquals(2, calls.get());
+
+    // 对账确认已经发出，重试直接得到记录的响应
+    timeouts.set(1);
+    try {
+      wechat.call(api("order-2"));
+      fail("should time out");
+    } catch (SocketTimeoutException e) {
+      // 微信可能已经发出
+    }
+    assertTrue(store.resolve("order-2", "{\"errcode\":0,\"errmsg\":\"ok\"}"));
+    assertEquals(0, wechat.call(api("order-2")).getErrcode());
+    assertEquals(3, calls.get());
+
+    // 窗口期过后不再去重
+    now.set(TimeUnit.MINUTES.toMillis(1));
+    wechat.call(api("order-2"));
+    assertEquals(4, calls.get());
+  }
+
+  @Test
+  public void testSlowSendHeldPastWindow() throws IOException {
+    AtomicLong now = new AtomicLong();
+    DedupStore store = new DedupStore(50, TimeUnit.MILLISECONDS, null, now::get);
+    DedupStore.Claim owner = store.claim("order-1");
+    assertTrue(owner.isOwner());
+
+    // owner的发送超过了窗口期，清理和重复的请求都不会把它当作过期
+    now.set(100);
+    assertTrue(store.claim("order-2").isOwner());
+    assertEquals(2, store.size());
+    DedupStore.Claim duplicate = store.claim("order-1");
+    assertFalse(duplicate.isOwner());
+
+    owner.complete("{\"errcode\":0,\"errmsg\":\"ok\"}");
+    assertEquals("{\"errcode\":0,\"errmsg\":\"ok\"}", duplicate.await());
+    assertTrue(store.claim("order-1").isOwner());
+  }
+}
@@ -0,0 +1,190 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.xwechat.BaseTest;
+import com.xwechat.api.wxapp.TemplateMsg;
+import com.xwechat.schedule.SimulatedScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author yuanwq
+ */
+public class DelayedSendQueueTest extends BaseTest {
+  private static final long START = 1_790_000_000_000L;
+
+  private File dir;
+
+  @Before
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("xwechat-delayed").toFile();
+  }
+
+  @After
+  public void cleanup() {
+    FileUtils.deleteQuietly(dir);
+  }
+
+  private static TemplateMsg msg(String touser) {
+    TemplateMsg msg = new TemplateMsg();
+    msg.setTouser(touser);
+    msg.setTemplate_id("template");
+    msg.setForm_id("form");
+    return msg;
+  }
+
+  @Test
+  public void testFireAndRestore() throws Exception {
+    SimulatedScheduler scheduler = new SimulatedScheduler(START);
+    List<String> fired = Lists.newArrayList();
+    List<Long> firedAt = Lists.newArrayList();
+    AtomicInteger failures = new AtomicInteger(1);
+    OutboundLog log = OutboundLog.open(dir, 64 * 1024, 0, TimeUnit.MILLISECONDS);
+    DelayedSendQueue<TemplateMsg> queue = DelayedSendQueue.forTemplateMsg().setLog(log)
+        .setClock(scheduler).setExecutor(scheduler).setRetryDelay(5, TimeUnit.SECONDS)
+        .setWheelSize(64).setHandler((appId, msg) -> {
+          if (msg.getTouser().equals("retry") && failures.getAndDecrement() > 0) {
+            throw new IOException("queue full");
+          }
+          fired.add(msg.getTouser());
+          firedAt.add(scheduler.currentTimeMillis());
+        }).build();
+    queue.start();
+
+    queue.schedule("wx01", msg("soon"), 3, TimeUnit.SECONDS);
+    queue.schedule("wx01", msg("retry"), 10, TimeUnit.SECONDS);
+    long cancelled = queue.schedule("wx01", msg("cancelled"), 20, TimeUnit.SECONDS);
+    queue.schedule("wx01", msg("later"), 3, TimeUnit.HOURS); // 超过一圈
+    queue.schedule("wx01", msg("tomorrow"), 1, TimeUnit.DAYS);
+    assertTrue(queue.cancel(cancelled));
+    assertFalse(queue.cancel(cancelled));
+
+    scheduler.runUntil(START + TimeUnit.HOURS.toMillis(4));
+    assertEquals(Lists.newArrayList("soon", "retry", "later"), fired);
+    assertEquals(START + 3000, (long) firedAt.get(0));
+    assertEquals(START + 15_000, (long) firedAt.get(1)); // 10秒到期，失败后5秒重试
+    assertEquals(START + TimeUnit.HOURS.toMillis(3), (long) firedAt.get(2));
+    queue.shutdown();
+    log.close();
+
+    // 停机期间到期的消息在重启后的第一秒发出
+    SimulatedScheduler restarted = new SimulatedScheduler(START + TimeUnit.DAYS.toMillis(2));
+    log = OutboundLog.open(dir, 64 * 1024, 0, TimeUnit.MILLISECONDS);
+    fired.clear();
+    queue = DelayedSendQueue.forTemplateMsg().setLog(log).setClock(restarted)
+        .setExecutor(restarted).setHandler((appId, msg) -> fired.add(msg.getTouser())).build();
+    assertEquals(1, queue.size());
+    queue.start();
+    restarted.runUntil(restarted.currentTimeMillis() + 1000);
+    assertEquals(Lists.newArrayList("tomorrow"), fired);
+    assertEquals(0, log.getPendingCount());
+    log.close();
+  }
+
+  @Test
+  public void testCancelWhileFiring() throws Exception {
+    SimulatedScheduler scheduler = new SimulatedScheduler(START);
+    List<Boolean> cancelled = Lists.newArrayList();
+    long[] id = new long[1];
+    OutboundLog log = OutboundLog.open(dir, 64 * 1024, 0, TimeUnit.MILLISECONDS);
+    AtomicReference<DelayedSendQueue<TemplateMsg>> self = new AtomicReference<>();
+    // handler中取消：消息已经交给handler，不能再报告取消成功
+    DelayedSendQueue<TemplateMsg> queue = DelayedSendQueue.forTemplateMsg().setLog(log)
+        .setClock(scheduler).setExecutor(scheduler)
+        .setHandler((appId, msg) -> cancelled.add(self.get().cancel(id[0]))).build();
+    self.set(queue);
+    queue.start();
+    id[0] = queue.schedule("wx01", msg("soon"), 2, TimeUnit.SECONDS);
+    scheduler.runUntil(START + 3000);
+    assertEquals(Lists.newArrayList(false), cancelled);
+    assertEquals(1, queue.getFired());
+    assertEquals(0, log.getPendingCount());
+    assertFalse(queue.cancel(id[0]));
+    queue.shutdown();
+    log.close();
+  }
+
+  @Test
+  public void testCompactPinnedSegments() throws Exception {
+    SimulatedScheduler scheduler = new SimulatedScheduler(START);
+    List<String> fired = Lists.newArrayList();
+    OutboundLog log = OutboundLog.open(dir, 64 * 1024, 0, TimeUnit.MILLISECONDS);
+    DelayedSendQueue<TemplateMsg> queue = DelayedSendQueue.forTemplateMsg().setLog(log)
+        .setClock(scheduler).setExecutor(scheduler)
+        .setHandler((appId, msg) -> fired.add(msg.getTouser())).build();
+    queue.start();
+
+    queue.schedule("wx01", msg("tomorrow"), 1, TimeUnit.DAYS);
+    long cancelled = queue.schedule("wx01", msg("cancelled"), 1, TimeUnit.DAYS);
+    int n = 20_000;
+    for (int i = 0; i < n; i++) {
+      queue.schedule("wx01", msg("soon"), 2, TimeUnit.SECONDS);
+    }
+    assertTrue(log.getSegmentCount() > 8);
+
+    // 到期的消息都发出后，最早的段只剩两条明天的消息，搬走后所有段都可以删除
+    scheduler.runUntil(START + 5000);
+    assertEquals(n, fired.size());
+    assertEquals(2, queue.getCompacted());
+    assertTrue(log.getSegmentCount() <= 2);
+    assertEquals(log.getSegmentCount(), dir.list().length);
+    queue.shutdown();
+    log.close();
+
+    // 重启后按原来的id取消搬移过的消息
+    SimulatedScheduler restarted = new SimulatedScheduler(START + TimeUnit.DAYS.toMillis(2));
+    log = OutboundLog.open(dir, 64 * 1024, 0, TimeUnit.MILLISECONDS);
+    fired.clear();
+    queue = DelayedSendQueue.forTemplateMsg().setLog(log).setClock(restarted)
+        .setExecutor(restarted).setHandler((appId, msg) -> fired.add(msg.getTouser())).build();
+    assertEquals(2, queue.size());
+    assertTrue(queue.cancel(cancelled));
+    queue.start();
+    restarted.runUntil(restarted.currentTimeMillis() + 1000);
+    assertEquals(Lists.newArrayList("tomorrow"), fired);
+    assertEquals(0, log.getPendingCount());
+    log.close();
+  }
+
+  @Test
+  public void testMillionsInWheel() {
+    TimingWheel wheel = new TimingWheel(4096, 0);
+    int n = 2_000_000;
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    long before = runtime.totalMemory() - runtime.freeMemory();
+    long start = System.nanoTime();
+    for (int i = 0; i < n; i++) {
+      wheel.add(1 + (i * 7919L) % 86400, i); // 分布在一天内
+    }
+    long addNanos = System.nanoTime() - start;
+    System.gc();
+    long used = runtime.totalMemory() - runtime.freeMemory() - before;
+    AtomicInteger count = new AtomicInteger();
+    start = System.nanoTime();
+    wheel.advance(86400, id -> count.incrementAndGet());
+    long advanceNanos = System.nanoTime() - start;
+    assertEquals(n, count.get());
+    assertEquals(0, wheel.size());
+    System.out.printf("%,d entries: add %d ns/op, ~%d bytes/entry, advance one day %d ms%n", n,
+        addNanos / n, used / n, advanceNanos / 1_000_000);
+  }
+}
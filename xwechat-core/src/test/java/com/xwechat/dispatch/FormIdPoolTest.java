@@ -0,0 +1,100 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.xwechat.BaseTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author yuanwq
+ */
+public class FormIdPoolTest extends BaseTest {
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+  private final AtomicLong now = new AtomicLong(1_500_000_000_000L);
+
+  @Test
+  public void testTakeInExpiryOrder() {
+    FormIdPool pool = new FormIdPool(FormIdStore.NONE, now::get);
+    pool.addFormId("o1", "form1");
+    now.addAndGet(HOUR);
+    pool.addPrepayId("o1", "prepay1");
+    // 乱序加入，过期最早
+    pool.add("o1", "form0", now.get() + HOUR, 1);
+    assertEquals(3, pool.count("o1"));
+
+    assertEquals("form0", pool.take("o1"));
+    assertEquals("form1", pool.take("o1"));
+    for (int i = 0; i < FormIdPool.PREPAY_ID_USES; i++) {
+      assertEquals("prepay1", pool.take("o1"));
+    }
+    assertNull(pool.take("o1"));
+    assertNull(pool.take("o2"));
+    assertEquals(0, pool.size());
+    assertEquals(0, pool.openids());
+  }
+
+  @Test
+  public void testEvictAndRestore() throws Exception {
+    Map<String, Object[]> persisted = Maps.newConcurrentMap();
+    FormIdStore store = new FormIdStore() {
+      @Override
+      public void load(Loader loader) {
+        persisted.forEach((value, r) -> loader.add((String) r[0], value, (Long) r[1],
+            (Integer) r[2]));
+      }
+
+      @Override
+      public void onAdd(String openid, String value, long expireTime, int uses) {
+        persisted.put(value, new Object[] {openid, expireTime, uses});
+      }
+
+      @Override
+      public void onTake(String openid, String value, int remainingUses) {
+        if (remainingUses == 0) {
+          persisted.remove(value);
+        } else {
+          persisted.get(value)[2] = remainingUses;
+        }
+      }
+
+      @Override
+      public void onExpire(String openid, String value) {
+        persisted.remove(value);
+      }
+    };
+    FormIdPool pool = new FormIdPool(store, now::get);
+    for (int i = 0; i < 100; i++) {
+      pool.addFormId("o" + i, "old" + i);
+    }
+    now.addAndGet(2 * HOUR);
+    for (int i = 0; i < 100; i++) {
+      pool.addFormId("o" + i, "new" + i);
+    }
+    pool.addPrepayId("o0", "prepay");
+    assertEquals("old0", pool.take("o0"));
+    assertEquals(200, pool.size());
+
+    now.addAndGet(FormIdPool.TTL_MILLIS - HOUR);
+    assertEquals(99, pool.evictExpired());
+    assertEquals(101, pool.size());
+    assertEquals(101, persisted.size());
+
+    FormIdPool restored = new FormIdPool(store, now::get);
+    restored.restore();
+    assertEquals(101, restored.size());
+    assertEquals("new0", restored.take("o0"));
+    assertEquals("prepay", restored.take("o0"));
+    assertEquals(2, (int) persisted.get("prepay")[2]);
+  }
+}
@@ -0,0 +1,170 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.xwechat.BaseTest;
+import com.xwechat.api.msg.Message;
+import com.xwechat.api.msg.MessageType;
+import com.xwechat.core.Wechat;
+import com.xwechat.dispatch.ChunkRecord.State;
+import com.xwechat.util.JsonUtil;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author yuanwq
+ */
+public class MassSendPlannerTest extends BaseTest {
+  private File dir;
+  /** 每次群发请求的openid数 */
+  private final List<Integer> requests = Lists.newCopyOnWriteArrayList();
+  /** 第几次请求（从1开始）返回错误，0表示不返回错误 */
+  private volatile int failAt = 0;
+  /** 第failAt次请求返回的内容，null表示抛出RuntimeException */
+  private volatile String failBody =
+      "{\"errcode\":45009,\"errmsg\":\"reach max api daily quota limit\"}";
+  private final AtomicInteger calls = new AtomicInteger();
+
+  @Before
+  public void setup() {
+    dir = Files.createTempDir();
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    FileUtils.deleteDirectory(dir);
+  }
+
+  private MassSendPlanner newPlanner(int chunkSize) throws IOException {
+    OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+      Buffer buffer = new Buffer();
+      chain.request().body().writeTo(buffer);
+      JsonNode root = JsonUtil.DEFAULT_OBJECT_MAPPER.readTree(buffer.readUtf8());
+      int call = calls.incrementAndGet();
+      String body;
+      if (call == failAt) {
+        if (failBody == null) {
+          throw new IllegalStateException("fail after request");
+        }
+        body = failBody;
+      } else {
+        requests.add(root.get("touser").size());
+        body = "{\"errcode\":0,\"errmsg\":\"send job submission success\",\"msg_id\":"
+            + (3147483648L + call) + ",\"msg_data_id\":2247483647}";
+      }
+      return new Response.Builder().request(chain.request()).protocol(Protocol.HTTP_1_1)
+          .code(200).message("OK")
+          .body(ResponseBody.create(MediaType.parse("application/json"), body)).build();
+    }).build();
+    return MassSendPlanner.newBuilder().setWechat(new Wechat(httpClient))
+        .setTokenSource(appId -> "token-" + appId).setChunkSize(chunkSize).setConcurrency(2)
+        .setRate(1000).setCheckpoint(new FileMassSendCheckpoint(dir)).build();
+  }
+
+  private static Stream<String> openids(int count) {
+    return IntStream.range(0, count).mapToObj(i -> "openid" + i);
+  }
+
+  private static Message text() {
+    Message message = new Message(MessageType.TEXT);
+    message.setTextContent("hello");
+    return message;
+  }
+
+  @Test
+  public void testChunkAndResume() throws Exception {
+    failAt = 2;
+    MassSendResult result = newPlanner(3).send("wx01", "c1", text(), openids(10));
+    // 最后剩1个并入前一块
+    assertEquals(3, result.getChunks().size());
+    assertEquals(4, result.getChunks().get(2).getCount());
+    assertEquals(1, result.count(State.FAILED));
+    assertFalse(result.isComplete());
+    assertEquals(2, requests.size());
+
+    failAt = 0;
+    requests.clear();
+    result = newPlanner(3).send("wx01", "c1", text(), openids(10));
+    assertTrue(result.isComplete());
+    assertEquals(1, result.getSentInThisRun());
+    assertEquals(1, requests.size());
+    assertEquals(10, result.getSentOpenids());
+    assertTrue(result.getChunks().get(0).getMsgId() > Integer.MAX_VALUE);
+
+    // 全部完成后再次调用不会发送
+    requests.clear();
+    result = newPlanner(3).send("wx01", "c1", text(), openids(10));
+    assertEquals(0, result.getSentInThisRun());
+    assertTrue(requests.isEmpty());
+  }
+
+  @Test
+  public void testUncertainResponses() throws Exception {
+    // 系统繁忙：不确定是否已发出，保持SENDING，恢复时不重发
+    failAt = 1;
+    failBody = "{\"errcode\":-1,\"errmsg\":\"system error\"}";
+    MassSendResult result = newPlanner(5).send("wx01", "c4", text(), openids(5));
+    assertEquals(1, result.count(State.SENDING));
+    calls.set(0);
+    result = newPlanner(5).send("wx01", "c4", text(), openids(5));
+    assertEquals(1, result.count(State.SENDING));
+    assertEquals(0, calls.get());
+
+    // 没有错误码也没有内容：按已发送记录，不会因为空指针记为失败后重发
+    failBody = "null";
+    calls.set(0);
+    result = newPlanner(5).send("wx01", "c5", text(), openids(5));
+    assertTrue(result.isComplete());
+    assertEquals(0, result.getChunks().get(0).getMsgId());
+    assertEquals(1, result.getSentInThisRun());
+
+    // 请求发出后的RuntimeException：返回结果与checkpoint一致，都是SENDING
+    failBody = null;
+    calls.set(0);
+    result = newPlanner(5).send("wx01", "c6", text(), openids(5));
+    assertEquals(1, result.count(State.SENDING));
+    calls.set(0);
+    result = newPlanner(5).send("wx01", "c6", text(), openids(5));
+    assertEquals(1, result.count(State.SENDING));
+    assertEquals(0, calls.get());
+  }
+
+  @Test
+  public void testFullChunkTail() throws Exception {
+    MassSendResult result = newPlanner(9999).send("wx01", "c2", text(), openids(19999));
+    assertTrue(result.isComplete());
+    assertEquals(Lists.newArrayList(9999, 9998, 2), Lists.transform(result.getChunks(),
+        ChunkRecord::getCount));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testChangedOpenids() throws Exception {
+    newPlanner(3).send("wx01", "c3", text(), openids(10));
+    newPlanner(4).send("wx01", "c3", text(), openids(10));
+  }
+}
@@ -0,0 +1,159 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.xwechat.BaseTest;
+import com.xwechat.api.msg.Message;
+import com.xwechat.api.msg.MessageType;
+import com.xwechat.api.wxapp.TemplateMsg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author yuanwq
+ */
+public class OutboundLogTest extends BaseTest {
+  private File dir;
+
+  @Before
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("xwechat-wal").toFile();
+  }
+
+  @After
+  public void cleanup() {
+    FileUtils.deleteQuietly(dir);
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testReplayUnacked() throws Exception {
+    OutboundLog log = OutboundLog.open(dir, 4096, 5, TimeUnit.MILLISECONDS);
+    List<Long> positions = Lists.newArrayList();
+    for (int i = 0; i < 300; i++) {
+      positions.add(log.append(bytes("msg-" + i)));
+    }
+    assertTrue(log.getSegmentCount() > 1);
+    for (int i = 0; i < 300; i++) {
+      if (i % 3 != 0) {
+        log.ack(positions.get(i));
+      }
+    }
+    log.ack(positions.get(1)); // 重复ack忽略
+    log.awaitDurable(positions.get(299)).get(1, TimeUnit.SECONDS);
+    assertEquals(100, log.getPendingCount());
+    log.close();
+
+    OutboundLog reopened = OutboundLog.open(dir, 4096, 5, TimeUnit.MILLISECONDS);
+    List<OutboundLog.Record> replayed = reopened.getReplayed();
+    assertEquals(100, replayed.size());
+    for (int i = 0; i < 100; i++) {
+      String payload = new String(replayed.get(i).getPayload(), StandardCharsets.UTF_8);
+      assertEquals("msg-" + i * 3, payload);
+    }
+    int segments = reopened.getSegmentCount();
+    for (OutboundLog.Record record : replayed) {
+      reopened.ack(record.getPosition());
+    }
+    // 旧的段全部ack后删除，只剩写入中的段
+    assertTrue(reopened.getSegmentCount() < segments);
+    assertEquals(1, reopened.getSegmentCount());
+    reopened.close();
+
+    OutboundLog empty = OutboundLog.open(dir, 4096, 0, TimeUnit.MILLISECONDS);
+    assertEquals(0, empty.getReplayed().size());
+    empty.close();
+  }
+
+  @Test
+  public void testTornTailIgnored() throws Exception {
+    OutboundLog log = OutboundLog.open(dir, 4096, 0, TimeUnit.MILLISECONDS);
+    log.append(bytes("first"));
+    long second = log.append(bytes("second"));
+    log.close();
+    // 模拟掉电：第二条记录的内容没有完整写入
+    File segment = new File(dir, String.format("%010d.wal", OutboundLog.segmentOf(second)));
+    try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+      raf.seek(OutboundLog.offsetOf(second) + 9);
+      raf.write(bytes("xx"));
+    }
+    OutboundLog reopened = OutboundLog.open(dir, 4096, 0, TimeUnit.MILLISECONDS);
+    assertEquals(1, reopened.getReplayed().size());
+    assertTrue(Arrays.equals(bytes("first"), reopened.getReplayed().get(0).getPayload()));
+    reopened.close();
+  }
+
+  @Test
+  public void testQueueRoundTrip() throws Exception {
+    OutboundQueue<TemplateMsg> templates =
+        OutboundQueue.forTemplateMsg(OutboundLog.open(new File(dir, "template")));
+    TemplateMsg msg = new TemplateMsg();
+    msg.setTouser("openid");
+    msg.setTemplate_id("template");
+    msg.setForm_id("form");
+    msg.addKeyword("订单已发货").addKeyword("2026-10-19", "#ff0000");
+    templates.append("wx01", msg);
+    templates.close();
+
+    OutboundQueue<Message> messages =
+        OutboundQueue.forMessage(OutboundLog.open(new File(dir, "message")));
+    Message text = new Message(MessageType.TEXT);
+    text.setTextContent("hello");
+    text.addOpenids(Arrays.asList("o1", "o2"));
+    messages.append("wx02", text);
+    messages.close();
+
+    templates = OutboundQueue.forTemplateMsg(OutboundLog.open(new File(dir, "template")));
+    OutboundQueue.Entry<TemplateMsg> entry = templates.poll();
+    assertEquals("wx01", entry.getAppId());
+    assertEquals("form", entry.getMsg().getForm_id());
+    assertEquals("#ff0000", entry.getMsg().getData().get("keyword2").getColor());
+    assertEquals("订单已发货", entry.getMsg().getData().get("keyword1").getValue());
+    templates.ack(entry);
+    assertNull(templates.poll());
+    templates.close();
+
+    messages = OutboundQueue.forMessage(OutboundLog.open(new File(dir, "message")));
+    Message replayed = messages.poll().getMsg();
+    assertEquals(text.toJson(), replayed.toJson());
+    messages.close();
+  }
+
+  @Test
+  public void testAppendLatency() throws Exception {
+    OutboundLog log = OutboundLog.open(dir);
+    byte[] payload = new byte[256];
+    int n = 200_000;
+    long start = System.nanoTime();
+    long last = 0;
+    for (int i = 0; i < n; i++) {
+      last = log.append(payload);
+    }
+    long elapsed = System.nanoTime() - start;
+    log.awaitDurable(last).get(5, TimeUnit.SECONDS);
+    System.out.printf("append %,d records of %d bytes: avg %d ns%n", n, payload.length,
+        elapsed / n);
+    log.close();
+  }
+}
@@ -0,0 +1,250 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.dispatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.xwechat.BaseTest;
+import com.xwechat.api.wxapp.TemplateMsg;
+import com.xwechat.core.Wechat;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author yuanwq
+ */
+public class TemplateMsgDispatcherTest extends BaseTest {
+
+  private static Wechat localWechat(Interceptor interceptor) {
+    return new Wechat(new OkHttpClient.Builder().addInterceptor(interceptor).build());
+  }
+
+  private static Response ok(Interceptor.Chain chain, String body) {
+    return new Response.Builder().request(chain.request()).protocol(Protocol.HTTP_1_1).code(200)
+        .message("OK").body(ResponseBody.create(MediaType.parse("application/json"), body))
+        .build();
+  }
+
+  private static TemplateMsg msg(String touser) {
+    TemplateMsg msg = new TemplateMsg();
+    msg.setTouser(touser);
+    msg.setTemplate_id("template");
+    msg.setForm_id("form");
+    msg.addKeyword("value");
+    return msg;
+  }
+
+  @Test
+  public void testDispatch() throws Exception {
+    Wechat wechat = localWechat(chain -> {
+      try {
+        Thread.sleep(2); // 模拟网络耗时
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      String url = chain.request().url().toString();
+      return ok(chain, url.contains("token-wx02") ? "{\"errcode\":40037,\"errmsg\":\"invalid\"}"
+          : "{\"errcode\":0,\"errmsg\":\"ok\"}");
+    });
+    TemplateMsgDispatcher dispatcher = TemplateMsgDispatcher.newBuilder().setWechat(wechat)
+        .setTokenSource(appId -> appId.equals("wx03") ? null : "token-" + appId).build();
+    dispatcher.setRateLimit("wx04", 100);
+    dispatcher.start();
+
+    AtomicInteger success = new AtomicInteger();
+    List<DispatchResult> failures = Lists.newCopyOnWriteArrayList();
+    DispatchCallback callback = r -> {
+      if (r.isSuccess()) {
+        success.incrementAndGet();
+      } else {
+        failures.add(r);
+      }
+    };
+    long start = System.nanoTime();
+    for (int i = 0; i < 5000; i++) {
+      dispatcher.put("wx01", msg("openid" + i), callback);
+    }
+    dispatcher.put("wx02", msg("openid"), callback);
+    dispatcher.put("wx03", msg("openid"), callback);
+    for (int i = 0; i < 30; i++) {
+      dispatcher.put("wx04", msg("openid" + i), callback);
+    }
+    dispatcher.shutdown();
+    assertTrue(dispatcher.awaitTermination(30, TimeUnit.SECONDS));
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    System.out.println("sent 5032 in " + millis + "ms, " + dispatcher);
+
+    assertEquals(5030, success.get());
+    assertEquals(2, failures.size());
+    assertEquals(5030, dispatcher.getSuccess());
+    assertEquals(0, dispatcher.getPending());
+    assertFalse(dispatcher.offer("wx01", msg("openid"), callback));
+  }
+
+  @Test
+  public void testThrottlingDecreasesConcurrency() throws Exception {
+    Wechat wechat = localWechat(
+        chain -> ok(chain, "{\"errcode\":45009,\"errmsg\":\"reach max api daily quota limit\"}"));
+    TemplateMsgDispatcher dispatcher = TemplateMsgDispatcher.newBuilder().setWechat(wechat)
+        .setTokenSource(appId -> "token").setConcurrency(1, 16, 64)
+        .setTargetLatency(1, TimeUnit.MINUTES).build();
+    dispatcher.start();
+    for (int i = 0; i < 5; i++) {
+      assertTrue(dispatcher.offer("wx01", msg("openid" + i), null));
+    }
+    dispatcher.shutdown();
+    assertTrue(dispatcher.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(5, dispatcher.getFailure());
+    // 耗时远小于目标，只因限流错误码减小，每个目标耗时内最多一次
+    assertEquals(14, dispatcher.getConcurrencyLimit());
+  }
+
+  @Test
+  public void testAwaitTerminationWithoutStart() throws Exception {
+    TemplateMsgDispatcher dispatcher = TemplateMsgDispatcher.newBuilder()
+        .setWechat(localWechat(chain -> ok(chain, "{\"errcode\":0,\"errmsg\":\"ok\"}")))
+        .setTokenSource(appId -> "token").build();
+    assertFalse(dispatcher.offer("wx01", msg("openid"), null));
+    assertTrue(dispatcher.awaitTermination(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testBackpressure() throws Exception {
+    CountDownLatch blocked = new CountDownLatch(1);
+    Wechat wechat = localWechat(chain -> {
+      try {
+        blocked.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return ok(chain, "{\"errcode\":0,\"errmsg\":\"ok\"}");
+    });
+    List<Boolean> signals = Lists.newCopyOnWriteArrayList();
+    TemplateMsgDispatcher dispatcher = TemplateMsgDispatcher.newBuilder().setWechat(wechat)
+        .setTokenSource(appId -> "token").setCapacity(10)
+        .setBackpressureListener((overloaded, pending) -> signals.add(overloaded)).build();
+    dispatcher.start();
+    for (int i = 0; i < 10; i++) {
+      assertTrue(dispatcher.offer("wx01", msg("openid" + i), null));
+    }
+    assertFalse(dispatcher.offer("wx01", msg("openid"), null));
+    assertTrue(dispatcher.isOverloaded());
+
+    blocked.countDown();
+    dispatcher.shutdown();
+    assertTrue(dispatcher.awaitTermination(10, TimeUnit.SECONDS));
+    assertFalse(dispatcher.isOverloaded());
+    assertEquals(Lists.newArrayList(true, false), signals);
+  }
+
+  @Test
+  public void testDrainAcksOnlyDefiniteResults() throws Exception {
+    AtomicBoolean networkDown = new AtomicBoolean(true);
+    Wechat wechat = localWechat(chain -> {
+      String url = chain.request().url().toString();
+      if (url.contains("token-wx02") && networkDown.get()) {
+        throw new IOException("timeout");
+      }
+      return ok(chain, url.contains("token-wx03") ? "{\"errcode\":40037,\"errmsg\":\"invalid\"}"
+          : "{\"errcode\":0,\"errmsg\":\"ok\"}");
+    });
+    AtomicBoolean hasToken = new AtomicBoolean(false);
+    TemplateMsgDispatcher dispatcher = TemplateMsgDispatcher.newBuilder().setWechat(wechat)
+        .setTokenSource(appId -> !appId.equals("wx04") || hasToken.get() ? "token-" + appId
+            : null)
+        .build();
+    dispatcher.start();
+    File dir = Files.createTempDirectory("xwechat-drain").toFile();
+    try {
+      OutboundQueue<TemplateMsg> queue = OutboundQueue.forTemplateMsg(OutboundLog.open(dir));
+      for (int i = 1; i <= 4; i++) {
+        queue.append("wx0" + i, msg("openid" + i));
+      }
+      CountDownLatch first = new CountDownLatch(4);
+      assertEquals(4, dispatcher.drain(queue, 10, r -> first.countDown()));
+      assertTrue(first.await(5, TimeUnit.SECONDS));
+      // 成功和确定的错误码已ack；超时和没有token的放回队列
+      assertEquals(2, queue.size());
+      assertEquals(2, queue.getLog().getPendingCount());
+      queue.close();
+
+      // 重启后也只重放临时失败的消息
+      queue = OutboundQueue.forTemplateMsg(OutboundLog.open(dir));
+      assertEquals(2, queue.size());
+      networkDown.set(false);
+      hasToken.set(true);
+      List<DispatchResult> retried = Lists.newCopyOnWriteArrayList();
+      CountDownLatch second = new CountDownLatch(2);
+      assertEquals(2, dispatcher.drain(queue, 10, r -> {
+        retried.add(r);
+        second.countDown();
+      }));
+      assertTrue(second.await(5, TimeUnit.SECONDS));
+      assertTrue(retried.get(0).isSuccess() && retried.get(1).isSuccess());
+      assertNull(queue.peek());
+      assertEquals(0, queue.getLog().getPendingCount());
+      queue.close();
+    } finally {
+      dispatcher.shutdown();
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+
+  @Test
+  public void testDrainRequeuesThrottled() throws Exception {
+    AtomicBoolean throttling = new AtomicBoolean(true);
+    Wechat wechat = localWechat(chain -> ok(chain, throttling.get()
+        ? "{\"errcode\":45009,\"errmsg\":\"reach max api daily quota limit\"}"
+        : "{\"errcode\":0,\"errmsg\":\"ok\"}"));
+    TemplateMsgDispatcher dispatcher = TemplateMsgDispatcher.newBuilder().setWechat(wechat)
+        .setTokenSource(appId -> "token").build();
+    dispatcher.start();
+    File dir = Files.createTempDirectory("xwechat-drain").toFile();
+    try {
+      OutboundQueue<TemplateMsg> queue = OutboundQueue.forTemplateMsg(OutboundLog.open(dir));
+      queue.append("wx01", msg("openid"));
+      CountDownLatch first = new CountDownLatch(1);
+      assertEquals(1, dispatcher.drain(queue, 10, r -> {
+        assertTrue(r.isRetryable());
+        first.countDown();
+      }));
+      assertTrue(first.await(5, TimeUnit.SECONDS));
+      // 限流不ack，留在队列中等待重试
+      assertEquals(1, queue.size());
+      assertEquals(1, queue.getLog().getPendingCount());
+
+      throttling.set(false);
+      CountDownLatch second = new CountDownLatch(1);
+      assertEquals(1, dispatcher.drain(queue, 10, r -> second.countDown()));
+      assertTrue(second.await(5, TimeUnit.SECONDS));
+      assertNull(queue.peek());
+      assertEquals(0, queue.getLog().getPendingCount());
+      queue.close();
+    } finally {
+      dispatcher.shutdown();
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.xwechat.BaseTest;
+import com.xwechat.enums.TicketType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author yuanwq
+ */
+public class CompactTaskRepositoryTest extends BaseTest {
+
+  private static TaskDef task(String appId, long expireTime, Boolean stableToken,
+      TicketType... types) {
+    TaskDef task = new TaskDef(appId, 1000);
+    task.setExecuteTime(2000);
+    task.setExpireTime(expireTime);
+    task.setStableToken(stableToken);
+    for (TicketType type : types) {
+      task.addTicketType(type);
+    }
+    return task;
+  }
+
+  @Test
+  public void testRoundTrip() {
+    CompactTaskRepository repo = new CompactTaskRepository();
+    repo.update("wx01", task("wx01", 3000, null));
+    repo.update("wx02", task("wx02", 4000, true, TicketType.JSAPI, TicketType.WX_CARD));
+    repo.update("wx03", task("wx03", 5000, false, TicketType.WX_CARD));
+
+    TaskDef wx02 = repo.get("wx02");
+    assertEquals("wx02", wx02.getAppId());
+    assertEquals(1000, wx02.getCreateTime());
+    assertEquals(2000, wx02.getExecuteTime());
+    assertEquals(4000, wx02.getExpireTime());
+    assertEquals(Boolean.TRUE, wx02.getStableToken());
+    assertEquals(ImmutableSet.of(TicketType.JSAPI, TicketType.WX_CARD),
+        ImmutableSet.copyOf(wx02.getTicketTypes()));
+    assertNull(repo.get("wx01").getStableToken());
+    assertEquals(Boolean.FALSE, repo.get("wx03").getStableToken());
+    assertNull(repo.get("wx04"));
+
+    // get返回副本，修改后update才会保存
+    wx02.setExpireTime(9000);
+    assertEquals(4000, repo.get("wx02").getExpireTime());
+    repo.update("wx02", wx02);
+    assertEquals(9000, repo.get("wx02").getExpireTime());
+    assertEquals(3, repo.size());
+  }
+
+  @Test
+  public void testDeleteAndSharedDictionary() {
+    AppIdDictionary dictionary = new AppIdDictionary();
+    CompactTaskRepository tasks = new CompactTaskRepository(dictionary);
+    CompactTokenRepository tokens = new CompactTokenRepository(dictionary);
+    for (int i = 0; i < 100; i++) {
+      tasks.update("wx" + i, task("wx" + i, i, null));
+    }
+    tokens.update("wx50", new ExpirableValue("token", 1000));
+    assertEquals(100, dictionary.size());
+
+    tasks.delete("wx0");
+    tasks.delete("wx0");
+    assertNull(tasks.get("wx0"));
+    assertEquals(99, tasks.size());
+    Map<String, TaskDef> all = tasks.all();
+    assertEquals(99, all.size());
+    assertEquals(50, all.get("wx50").getExpireTime());
+
+    // 删除后重新加入沿用原来的id
+    tasks.update("wx0", task("wx0", 7, null));
+    assertEquals(7, tasks.get("wx0").getExpireTime());
+    assertEquals(100, tasks.size());
+    assertEquals(100, dictionary.size());
+  }
+}
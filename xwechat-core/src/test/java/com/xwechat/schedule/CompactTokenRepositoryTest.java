@@ -0,0 +1,68 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.xwechat.BaseTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author yuanwq
+ */
+public class CompactTokenRepositoryTest extends BaseTest {
+
+  @Test
+  public void testRoundTrip() {
+    CompactTokenRepository repo = new CompactTokenRepository();
+    repo.update("wx01", new ExpirableValue("token-01", 100, 7300));
+    repo.update("wx02", new ExpirableValue("令牌", 200, 7400));
+    repo.update("wx03", new ExpirableValue(null, 300, 7500));
+
+    ExpirableValue wx01 = repo.get("wx01");
+    assertEquals("token-01", wx01.getValue());
+    assertEquals(100, wx01.getCreateTime());
+    assertEquals(7300, wx01.getExpireTime());
+    assertEquals("令牌", repo.getValue("wx02"));
+    assertEquals(7400, repo.getExpireTime("wx02"));
+    assertEquals("", repo.getValue("wx03"));
+    assertNull(repo.get("wx04"));
+    assertNull(repo.getValue("wx04"));
+    assertEquals(0, repo.getExpireTime("wx04"));
+
+    // get返回副本
+    wx01.setValue("changed");
+    assertEquals("token-01", repo.getValue("wx01"));
+    assertEquals(3, repo.size());
+  }
+
+  @Test
+  public void testOverwriteAndCompact() {
+    CompactTokenRepository repo = new CompactTokenRepository();
+    int apps = 1000;
+    // 反复覆盖产生大量垃圾字节，触发arena整理
+    for (int round = 0; round < 20; round++) {
+      for (int i = 0; i < apps; i++) {
+        repo.update("wx" + i, new ExpirableValue("token-" + i + "-" + round, round));
+      }
+    }
+    for (int i = 0; i < apps; i += 2) {
+      repo.delete("wx" + i);
+    }
+    repo.update("wx0", new ExpirableValue("back", 99));
+    assertEquals(apps / 2 + 1, repo.size());
+    Map<String, ExpirableValue> all = repo.all();
+    assertEquals(apps / 2 + 1, all.size());
+    for (int i = 1; i < apps; i += 2) {
+      assertEquals("token-" + i + "-19", all.get("wx" + i).getValue());
+      assertEquals(19, all.get("wx" + i).getExpireTime());
+    }
+    assertEquals("back", repo.getValue("wx0"));
+    assertNull(repo.get("wx2"));
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.xwechat.BaseTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author yuanwq
+ */
+public class ConsistentHashRingTest extends BaseTest {
+
+  @Test
+  public void testBalanceAndMinimalMovement() {
+    int apps = 10_000;
+    ConsistentHashRing three = new ConsistentHashRing(ImmutableList.of("n1", "n2", "n3"), 160);
+    ConsistentHashRing four =
+        new ConsistentHashRing(ImmutableList.of("n1", "n2", "n3", "n4"), 160);
+    Map<String, Integer> counts = Maps.newHashMap();
+    int moved = 0;
+    for (int i = 0; i < apps; i++) {
+      String appId = "wx" + i;
+      String before = three.nodeFor(appId);
+      String after = four.nodeFor(appId);
+      counts.merge(before, 1, Integer::sum);
+      if (!before.equals(after)) {
+        // 只会移到新节点，已有节点之间不互相迁移
+        assertEquals(appId, "n4", after);
+        moved++;
+      }
+    }
+    for (int count : counts.values()) {
+      assertTrue("unbalanced: " + counts, Math.abs(count - apps / 3) < apps / 3 * 0.2);
+    }
+    assertTrue("moved " + moved, Math.abs(moved - apps / 4) < apps / 4 * 0.2);
+  }
+
+  @Test
+  public void testDeterministicAndEmpty() {
+    ConsistentHashRing ring = new ConsistentHashRing(ImmutableList.of("n1", "n2"), 16);
+    ConsistentHashRing same = new ConsistentHashRing(ImmutableList.of("n2", "n1"), 16);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(ring.nodeFor("wx" + i), same.nodeFor("wx" + i));
+    }
+    assertNull(new ConsistentHashRing(ImmutableList.of(), 16).nodeFor("wx01"));
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.xwechat.BaseTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author yuanwq
+ */
+public class FailurePolicyTest extends BaseTest {
+  private static final long SECOND = TimeUnit.SECONDS.toMillis(1);
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+  private final FailurePolicy policy = new FailurePolicy();
+
+  @Test
+  public void testRetryable() {
+    assertTrue(policy.isRetryable(new IOException("timeout")));
+    assertTrue(policy.isRetryable(new RefreshException("wx01", -1, "system error")));
+    // 请求ticket时access_token刚被其它地方刷新
+    assertTrue(policy.isRetryable(new RefreshException("wx01", 40001, "invalid credential")));
+    assertFalse(policy.isRetryable(new RefreshException("wx01", 40125, "invalid appsecret")));
+    assertFalse(policy.isRetryable(new RefreshException("wx01", 40164, "invalid ip")));
+  }
+
+  @Test
+  public void testExponentialBackoff() {
+    IOException e = new IOException("timeout");
+    assertEquals(30 * SECOND, policy.backoffMillis(e, 1, -1));
+    assertEquals(60 * SECOND, policy.backoffMillis(e, 2, -1));
+    assertEquals(16 * MINUTE, policy.backoffMillis(e, 6, -1));
+    assertEquals(30 * MINUTE, policy.backoffMillis(e, 7, -1));
+    assertEquals(30 * MINUTE, policy.backoffMillis(e, 100, -1));
+  }
+
+  @Test
+  public void testCappedByExpiry() {
+    IOException retryable = new IOException("timeout");
+    RefreshException permanent = new RefreshException("wx01", 40125, "invalid appsecret");
+    // 没有token时不受限制
+    assertEquals(30 * MINUTE, policy.backoffMillis(permanent, 1, 0));
+    // 可重试的错误最多等剩余有效期的一半
+    assertEquals(10 * MINUTE, policy.backoffMillis(retryable, 10, 20 * MINUTE));
+    // 不可重试的错误也要在过期前的余量之前重试
+    assertEquals(19 * MINUTE, policy.backoffMillis(permanent, 1, 20 * MINUTE));
+    assertEquals(30 * SECOND, policy.backoffMillis(retryable, 1, 90 * SECOND));
+    assertEquals(0, policy.backoffMillis(permanent, 1, 30 * SECOND));
+    assertEquals(0, policy.backoffMillis(retryable, 1, 30 * SECOND));
+
+    FailurePolicy noMargin = new FailurePolicy().setExpiryMargin(0, TimeUnit.MILLISECONDS);
+    assertEquals(20 * MINUTE, noMargin.backoffMillis(permanent, 1, 20 * MINUTE));
+  }
+}
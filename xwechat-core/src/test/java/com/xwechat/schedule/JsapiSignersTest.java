@@ -0,0 +1,86 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.xwechat.BaseTest;
+import com.xwechat.api.jssdk.JsapiSigner;
+import com.xwechat.enums.TicketType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author yuanwq
+ */
+public class JsapiSignersTest extends BaseTest {
+
+  private static TokenEvent jsapi(String appId, String ticket) {
+    return new TokenEvent(appId, TicketType.JSAPI, new ExpirableValue(ticket, 0L));
+  }
+
+  @Test
+  public void testReloadOnChange() {
+    MapRepository<ExpirableValue> repo = new MapRepository<>();
+    repo.update("wx01", new ExpirableValue("ticket1", 0L));
+    JsapiSigners signers = new JsapiSigners(repo, 0, 0);
+    JsapiSigner signer = signers.get("wx01");
+    assertEquals("ticket1", signer.getJsapiTicket());
+
+    signers.onChange(jsapi("wx01", "ticket2"));
+    assertSame(signer, signers.get("wx01"));
+    assertEquals("ticket2", signer.getJsapiTicket());
+    signers.onChange(new TokenEvent("wx01", TicketType.WX_CARD,
+        new ExpirableValue("card", 0L)));
+    signers.onChange(new TokenEvent("wx01", null, new ExpirableValue("token", 0L)));
+    assertEquals("ticket2", signer.getJsapiTicket());
+    // 还没有signer的app忽略
+    signers.onChange(jsapi("wx02", "ticket"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoTicketYet() {
+    new JsapiSigners(new MapRepository<>(), 0, 0).get("wx01");
+  }
+
+  @Test
+  public void testChangeDuringCreation() throws Exception {
+    CountDownLatch reading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    MapRepository<ExpirableValue> repo = new MapRepository<ExpirableValue>() {
+      @Override
+      public ExpirableValue get(String appId) {
+        ExpirableValue value = super.get(appId);
+        reading.countDown();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return value;
+      }
+    };
+    repo.update("wx01", new ExpirableValue("ticket1", 0L));
+    JsapiSigners signers = new JsapiSigners(repo, 16, 60_000);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    // 创建signer时读到旧ticket，此时ticket更新并发布事件
+    Future<JsapiSigner> creating = executor.submit(() -> signers.get("wx01"));
+    reading.await(5, TimeUnit.SECONDS);
+    repo.update("wx01", new ExpirableValue("ticket2", 0L));
+    Future<?> changing = executor.submit(() -> signers.onChange(jsapi("wx01", "ticket2")));
+    Thread.sleep(50);
+    release.countDown();
+    JsapiSigner signer = creating.get(5, TimeUnit.SECONDS);
+    changing.get(5, TimeUnit.SECONDS);
+    executor.shutdown();
+    assertEquals("ticket2", signer.getJsapiTicket());
+  }
+}
@@ -0,0 +1,202 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.Maps;
+import com.xwechat.util.JsonUtil;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+/**
+ * 本地模拟的微信token接口，作为OkHttp拦截器直接返回结果，不发出网络请求。支持cgi-bin/token、cgi-bin/stable_token、
+ * cgi-bin/ticket/getticket，按{@link Clock}计算有效期，并统计：
+ * <ul>
+ * <li>每个时间窗口内的请求数，用于观察刷新是否平滑</li>
+ * <li>每个app在新token颁发前已经没有有效token的次数和时长（过期未刷新）</li>
+ * <li>同一个app两次颁发的间隔</li>
+ * </ul>
+ *
+ * @author yuanwq
+ */
+public class LocalWechatEndpoint implements Interceptor {
+  private static final MediaType JSON = MediaType.parse("application/json");
+  private static final long EXPIRES_IN_SECONDS = 7200;
+  /** 稳定版token在过期前5分钟内请求才会返回新的 */
+  private static final long STABLE_RENEW_WINDOW = TimeUnit.MINUTES.toMillis(5);
+
+  private final Clock clock;
+  private final long windowMillis;
+  private final double errorRate;
+  private final Random random = new Random(0);
+
+  private final Map<String, AppState> apps = Maps.newHashMap();
+  private final Map<String, String> tokenOwners = Maps.newHashMap();
+  private final Map<Long, Integer> callsPerWindow = Maps.newTreeMap();
+
+  private long calls;
+  private long forcedCalls;
+  private long errors;
+  private long misses;
+  private long missedMillis;
+  private long intervals;
+  private long intervalTotalMillis;
+  private long intervalMaxMillis;
+  private long intervalMinMillis = Long.MAX_VALUE;
+
+  /**
+   * @param windowMillis 统计请求数的时间窗口
+   * @param errorRate 返回系统繁忙（errcode=-1）的概率
+   */
+  public LocalWechatEndpoint(Clock clock, long windowMillis, double errorRate) {
+    this.clock = clock;
+    this.windowMillis = windowMillis;
+    this.errorRate = errorRate;
+  }
+
+  @Override
+  public synchronized Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    long now = clock.currentTimeMillis();
+    calls++;
+    callsPerWindow.merge(now / windowMillis, 1, Integer::sum);
+    String body;
+    if (errorRate > 0 && random.nextDouble() < errorRate) {
+      errors++;
+      body = "{\"errcode\":-1,\"errmsg\":\"system error\"}";
+    } else {
+      String path = request.url().encodedPath();
+      if (path.endsWith("/cgi-bin/token")) {
+        body = issueToken(request.url().queryParameter("appid"), false, now);
+      } else if (path.endsWith("/cgi-bin/stable_token")) {
+        JsonNode root = JsonUtil.DEFAULT_OBJECT_MAPPER.readTree(readBody(request));
+        boolean force = root.path("force_refresh").asBoolean();
+        if (force) {
+          forcedCalls++;
+        }
+        body = issueToken(root.get("appid").asText(), !force, now);
+      } else if (path.endsWith("/cgi-bin/ticket/getticket")) {
+        body = issueTicket(request.url().queryParameter("access_token"),
+            request.url().queryParameter("type"), now);
+      } else {
+        body = "{\"errcode\":40066,\"errmsg\":\"invalid url\"}";
+      }
+    }
+    return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200)
+        .message("OK").body(ResponseBody.create(JSON, body)).build();
+  }
+
+  private String issueToken(String appId, boolean reuse, long now) {
+    AppState app = apps.computeIfAbsent(appId, k -> new AppState());
+    if (reuse && app.token != null && app.expireTime - now > STABLE_RENEW_WINDOW) {
+      return tokenBody(app.token, (app.expireTime - now) / 1000);
+    }
+    if (app.token != null) {
+      if (now > app.expireTime) {
+        misses++;
+        missedMillis += now - app.expireTime;
+      }
+      long interval = now - app.issueTime;
+      intervals++;
+      intervalTotalMillis += interval;
+      intervalMaxMillis = Math.max(intervalMaxMillis, interval);
+      intervalMinMillis = Math.min(intervalMinMillis, interval);
+      tokenOwners.remove(app.token);
+    }
+    app.token = appId + "-" + (++app.seq);
+    app.issueTime = now;
+    app.expireTime = now + TimeUnit.SECONDS.toMillis(EXPIRES_IN_SECONDS);
+    tokenOwners.put(app.token, appId);
+    return tokenBody(app.token, EXPIRES_IN_SECONDS);
+  }
+
+  private String issueTicket(String accessToken, String type, long now) {
+    if (!tokenOwners.containsKey(accessToken)) {
+      return "{\"errcode\":40001,\"errmsg\":\"invalid credential\"}";
+    }
+    return "{\"errcode\":0,\"errmsg\":\"ok\",\"ticket\":\"" + type + "-" + accessToken + "-" + now
+        + "\",\"expires_in\":" + EXPIRES_IN_SECONDS + "}";
+  }
+
+  private static String tokenBody(String token, long expiresIn) {
+    return "{\"access_token\":\"" + token + "\",\"expires_in\":" + expiresIn + "}";
+  }
+
+  private static String readBody(Request request) throws IOException {
+    Buffer buffer = new Buffer();
+    request.body().writeTo(buffer);
+    return buffer.readUtf8();
+  }
+
+  public synchronized long getCalls() {
+    return calls;
+  }
+
+  /** @return 稳定版token强制刷新的请求数 */
+  public synchronized long getForcedCalls() {
+    return forcedCalls;
+  }
+
+  public synchronized long getErrors() {
+    return errors;
+  }
+
+  /** @return 新token颁发时旧token已经过期的次数 */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getMissedMillis() {
+    return missedMillis;
+  }
+
+  public synchronized long getIntervalAvgMillis() {
+    return intervals == 0 ? 0 : intervalTotalMillis / intervals;
+  }
+
+  public synchronized long getIntervalMaxMillis() {
+    return intervalMaxMillis;
+  }
+
+  public synchronized long getIntervalMinMillis() {
+    return intervalMinMillis;
+  }
+
+  /** @return [窗口数, 平均, 标准差, 最大] 只统计[from, to)内的窗口，没有请求的窗口计为0 */
+  public synchronized double[] callRateStats(long from, long to) {
+    long first = from / windowMillis;
+    long last = (to - 1) / windowMillis;
+    long n = last - first + 1;
+    double sum = 0;
+    double sumSq = 0;
+    int max = 0;
+    for (long w = first; w <= last; w++) {
+      int c = callsPerWindow.getOrDefault(w, 0);
+      sum += c;
+      sumSq += (double) c * c;
+      max = Math.max(max, c);
+    }
+    double mean = sum / n;
+    double stddev = Math.sqrt(Math.max(sumSq / n - mean * mean, 0));
+    return new double[] {n, mean, stddev, max};
+  }
+
+  private static class AppState {
+    private String token;
+    private long seq;
+    private long issueTime;
+    private long expireTime;
+  }
+}
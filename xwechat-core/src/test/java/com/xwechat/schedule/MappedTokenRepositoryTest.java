@@ -0,0 +1,166 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.xwechat.BaseTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author yuanwq
+ */
+public class MappedTokenRepositoryTest extends BaseTest {
+  private File file;
+
+  @Before
+  public void setup() throws IOException {
+    file = File.createTempFile("xwechat-token", ".tbl");
+    file.delete();
+  }
+
+  @After
+  public void cleanup() {
+    file.delete();
+    new File(file.getPath() + ".lock").delete();
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    MappedTokenRepository writer = MappedTokenRepository.openWriter(file, 16);
+    MappedTokenRepository reader = MappedTokenRepository.openReader(file);
+    assertNull(reader.get("wx01"));
+
+    for (int i = 0; i < 16; i++) {
+      writer.update("wx" + i, new ExpirableValue("token" + i, 1000L + i));
+    }
+    for (int i = 0; i < 16; i++) {
+      ExpirableValue value = reader.get("wx" + i);
+      assertEquals("token" + i, value.getValue());
+      assertEquals(1000L + i, value.getExpireTime());
+    }
+    assertEquals(16, reader.all().size());
+
+    writer.update("wx3", new ExpirableValue("token3-new", 2000L));
+    assertEquals("token3-new", reader.get("wx3").getValue());
+    writer.delete("wx3");
+    assertNull(reader.get("wx3"));
+    assertEquals(15, reader.all().size());
+
+    // 重新打开沿用已有数据
+    writer.close();
+    MappedTokenRepository reopened = MappedTokenRepository.openWriter(file, 1);
+    assertEquals(16, reopened.getCapacity());
+    assertEquals("token5", reopened.get("wx5").getValue());
+    reopened.close();
+  }
+
+  @Test
+  public void testSingleWriter() throws IOException {
+    MappedTokenRepository writer = MappedTokenRepository.openWriter(file, 4);
+    try {
+      MappedTokenRepository.openWriter(file, 4);
+      fail("second writer opened");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    writer.close();
+    MappedTokenRepository.openWriter(file, 4).close();
+  }
+
+  @Test
+  public void testInterruptedWrite() throws IOException {
+    MappedTokenRepository writer = MappedTokenRepository.openWriter(file, 1);
+    writer.update("wx01", new ExpirableValue("token", 0L));
+    writer.close();
+    // 模拟writer在写入中途退出：唯一槽位（头部64字节之后）的seq停在奇数
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(64);
+      raf.writeLong(3);
+    }
+    MappedTokenRepository reader = MappedTokenRepository.openReader(file);
+    long start = System.nanoTime();
+    assertNull(reader.get("wx01"));
+    assertTrue(reader.all().isEmpty());
+    assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+
+    writer = MappedTokenRepository.openWriter(file, 1);
+    assertNull(reader.get("wx01"));
+    writer.update("wx01", new ExpirableValue("token2", 0L));
+    assertEquals("token2", reader.get("wx01").getValue());
+    writer.close();
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testReaderNotWritable() throws IOException {
+    MappedTokenRepository.openWriter(file, 4).close();
+    MappedTokenRepository.openReader(file).update("wx01", new ExpirableValue("token", 0L));
+  }
+
+  @Test
+  public void testConcurrentWriterAndReaders() throws Exception {
+    MappedTokenRepository writer = MappedTokenRepository.openWriter(file, 4);
+    writer.update("wx01", value(0));
+    AtomicBoolean running = new AtomicBoolean(true);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Integer>> readers = Lists.newArrayList();
+    for (int r = 0; r < 3; r++) {
+      // 每个reader单独映射，与跨进程读取一致
+      MappedTokenRepository reader = MappedTokenRepository.openReader(file);
+      readers.add(executor.submit(() -> {
+        int reads = 0;
+        long last = 0;
+        while (running.get()) {
+          ExpirableValue value = reader.get("wx01");
+          long version = value.getCreateTime();
+          // 三个字段来自同一次写入，且不会读到更旧的版本
+          assertEquals(value(version).getValue(), value.getValue());
+          assertEquals(version + 7200, value.getExpireTime());
+          assertTrue(version >= last);
+          last = version;
+          reads++;
+        }
+        return reads;
+      }));
+    }
+    Future<?> writes = executor.submit(() -> {
+      for (int i = 1; i <= 200_000; i++) {
+        writer.update("wx01", value(i));
+      }
+      running.set(false);
+    });
+    writes.get(30, TimeUnit.SECONDS);
+    for (Future<Integer> reader : readers) {
+      assertTrue(reader.get(5, TimeUnit.SECONDS) > 0);
+    }
+    executor.shutdown();
+    assertEquals(200_000, writer.get("wx01").getCreateTime());
+    writer.close();
+  }
+
+  /** 不同版本的长度不同，读到撕裂的值时长度和内容都对不上 */
+  private static ExpirableValue value(long version) {
+    String token = Strings.repeat(Long.toString(version), (int) (version % 7) + 1);
+    return new ExpirableValue(token, version, version + 7200);
+  }
+}
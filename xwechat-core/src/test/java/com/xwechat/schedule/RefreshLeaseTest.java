@@ -0,0 +1,71 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.xwechat.BaseTest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author yuanwq
+ */
+public class RefreshLeaseTest extends BaseTest {
+
+  @Test
+  public void testMemoryLeaseExpires() {
+    AtomicLong now = new AtomicLong(1000);
+    MemoryRefreshLease n1 = new MemoryRefreshLease(now::get);
+    MemoryRefreshLease n2 = n1.forNode("n2");
+    assertTrue(n1.tryAcquire("wx01", 100));
+    assertFalse(n2.tryAcquire("wx01", 100));
+    assertTrue(n2.tryAcquire("wx02", 100));
+
+    // 续约后有效期顺延，过期后其它节点接管
+    now.set(1050);
+    assertTrue(n1.tryAcquire("wx01", 100));
+    now.set(1120);
+    assertFalse(n2.tryAcquire("wx01", 100));
+    now.set(1151);
+    assertTrue(n2.tryAcquire("wx01", 100));
+    assertFalse(n1.tryAcquire("wx01", 100));
+
+    // 只能释放自己持有的
+    n1.release("wx01");
+    assertFalse(n1.tryAcquire("wx01", 100));
+    n2.release("wx01");
+    assertTrue(n1.tryAcquire("wx01", 100));
+  }
+
+  @Test
+  public void testFileLeaseInSameJvm() throws IOException {
+    File dir = Files.createTempDirectory("xwechat-lease").toFile();
+    try {
+      FileRefreshLease n1 = new FileRefreshLease(dir);
+      FileRefreshLease n2 = new FileRefreshLease(dir);
+      assertTrue(n1.tryAcquire("wx01", 0));
+      assertTrue(n1.tryAcquire("wx01", 0));
+      assertFalse(n2.tryAcquire("wx01", 0));
+      // n2失败的尝试不影响n1持有的锁
+      assertFalse(n2.tryAcquire("wx01", 0));
+      assertTrue(n2.tryAcquire("wx02", 0));
+
+      n1.release("wx01");
+      assertTrue(n2.tryAcquire("wx01", 0));
+      assertFalse(n1.tryAcquire("wx01", 0));
+      n2.release("wx01");
+      n2.release("wx02");
+    } finally {
+      FileUtils.deleteQuietly(dir);
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.xwechat.BaseTest;
+import com.xwechat.core.Application;
+import com.xwechat.core.Wechat;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用虚拟时间模拟大量app长时间运行的调度情况，不访问网络：{@link SimulatedScheduler}驱动所有线程池和时钟，
+ * {@link LocalWechatEndpoint}代替微信接口。输出每分钟刷新请求数的平均值、标准差、最大值（是否平滑），
+ * token过期后才刷新的次数，以及刷新间隔。
+ * <p>
+ * 调度器不会重新打散任务，每个app按接入时间固定落在一个槽位，所以接入窗口小于刷新周期（默认100分钟）时，
+ * 每个周期都会有一段时间没有刷新，可以把接入窗口设为60分钟观察
+ *
+ * <pre>
+ * 大规模运行：java ... com.xwechat.schedule.SchedulerBenchmark [apps] [days] [errorRate] [onboardMinutes]
+ * </pre>
+ *
+ * @author yuanwq
+ */
+public class SchedulerBenchmark extends BaseTest {
+  private static final long START_TIME = 1_500_000_000_000L;
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+  private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+  private static final long DURATION = 100 * MINUTE;
+
+  @Test
+  public void testSmoothRefresh() {
+    Result result = run(10_000, 1, 0.001, DURATION);
+    assertEquals(0, result.endpoint.getMisses());
+    // app在第一个刷新周期内陆续接入，之后每分钟的刷新数应该接近平均值
+    assertTrue(result.toString(), result.rate[3] < result.rate[1] * 1.5);
+    assertTrue(result.toString(), result.endpoint.getIntervalMaxMillis() < 2 * HOUR);
+  }
+
+  public static void main(String[] args) {
+    int apps = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+    int days = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    double errorRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.001;
+    long onboardMillis = args.length > 3 ? Long.parseLong(args[3]) * MINUTE : DURATION;
+    setupLogger();
+    System.out.println(run(apps, days, errorRate, onboardMillis));
+  }
+
+  /** @param onboardMillis 在这段时间内均匀接入所有app */
+  private static Result run(int apps, int days, double errorRate, long onboardMillis) {
+    // 注入的错误会产生大量失败日志，只保留error，结束后恢复，不影响同一个jvm中的其它测试
+    Logger logger = Logger.getLogger("com.xwechat");
+    Level level = logger.getLevel();
+    logger.setLevel(Level.ERROR);
+    try {
+      return simulate(apps, days, errorRate, onboardMillis);
+    } finally {
+      logger.setLevel(level);
+    }
+  }
+
+  private static Result simulate(int apps, int days, double errorRate, long onboardMillis) {
+    SimulatedScheduler sim = new SimulatedScheduler(START_TIME);
+    LocalWechatEndpoint endpoint = new LocalWechatEndpoint(sim, MINUTE, errorRate);
+    Wechat wechat = new Wechat(new OkHttpClient.Builder().addInterceptor(endpoint).build());
+    MapRepository<Application> appRepo = new MapRepository<>();
+    WechatScheduler scheduler = WechatScheduler.newBuilder().setAppRepo(appRepo)
+        .setTaskRepo(new CompactTaskRepository()).setAccessTokenRepo(new CompactTokenRepository())
+        .setDuration(DURATION, TimeUnit.MILLISECONDS).setWechat(wechat).setClock(sim)
+        .setTaskExecutor(sim).setScheduledExecutor(sim)
+        .setTicketExecutor(MoreExecutors.directExecutor())
+        .setEventExecutor(MoreExecutors.directExecutor()).build();
+    scheduler.start();
+
+    for (int i = 0; i < apps; i++) {
+      String appId = String.format("wx%016d", i);
+      appRepo.update(appId, new Application(appId, "secret" + i));
+      sim.schedule(() -> scheduler.scheduleAccessToken(appId), i * onboardMillis / apps,
+          TimeUnit.MILLISECONDS);
+    }
+
+    long end = START_TIME + TimeUnit.DAYS.toMillis(days);
+    long wallStart = System.nanoTime();
+    sim.runUntil(end);
+    long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - wallStart);
+    scheduler.shutdown();
+    sim.shutdownNow();
+
+    // 跳过接入和第一轮刷新，统计稳定后的分布
+    double[] rate = endpoint.callRateStats(START_TIME + onboardMillis + DURATION, end);
+    return new Result(apps, days, wallMillis, endpoint, scheduler.getMetrics(), rate);
+  }
+
+  private static class Result {
+    private final int apps;
+    private final int days;
+    private final long wallMillis;
+    private final LocalWechatEndpoint endpoint;
+    private final SchedulerMetrics metrics;
+    private final double[] rate;
+
+    private Result(int apps, int days, long wallMillis, LocalWechatEndpoint endpoint,
+        SchedulerMetrics metrics, double[] rate) {
+      this.apps = apps;
+      this.days = days;
+      this.wallMillis = wallMillis;
+      this.endpoint = endpoint;
+      this.metrics = metrics;
+      this.rate = rate;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "apps=%d, days=%d, wall=%dms%n"
+              + "calls=%d, errors=%d, perMinute: mean=%.1f, stddev=%.1f, max=%.0f%n"
+              + "expired before refresh: %d times, %dms in total%n"
+              + "refresh interval: min=%dms, avg=%dms, max=%dms%n"
+              + "tick lag max=%dms, min time to expiry=%dms%n%s",
+          apps, days, wallMillis, endpoint.getCalls(), endpoint.getErrors(), rate[1], rate[2],
+          rate[3], endpoint.getMisses(), endpoint.getMissedMillis(),
+          endpoint.getIntervalMinMillis(), endpoint.getIntervalAvgMillis(),
+          endpoint.getIntervalMaxMillis(), metrics.getMaxTickLagMillis(),
+          metrics.getMinTimeToExpiryMillis(), metrics);
+    }
+  }
+}
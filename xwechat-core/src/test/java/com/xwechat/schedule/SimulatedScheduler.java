@@ -0,0 +1,159 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 虚拟时间的单线程执行器，同时作为{@link Clock}：任务按计划时间排序，{@link #runUntil(long)}时依次执行并把时钟推进到任务的计划时间，
+ * 用于在几秒内模拟几天的调度。所有任务都在调用runUntil的线程中执行，不要在任务中阻塞等待其它任务
+ *
+ * @author yuanwq
+ */
+public class SimulatedScheduler extends AbstractExecutorService
+    implements ScheduledExecutorService, Clock {
+  private final PriorityQueue<SimTask<?>> queue = new PriorityQueue<>();
+  private long now;
+  private long seq = 0;
+  private boolean shutdown = false;
+
+  public SimulatedScheduler(long startTime) {
+    this.now = startTime;
+  }
+
+  @Override
+  public long currentTimeMillis() {
+    return now;
+  }
+
+  /** 执行计划时间不晚于time的所有任务（包括执行中新加入的），最后把时钟推进到time */
+  public void runUntil(long time) {
+    SimTask<?> task;
+    while ((task = queue.peek()) != null && task.time <= time) {
+      queue.poll();
+      now = Math.max(now, task.time);
+      task.run();
+      if (task.period > 0 && !task.isCancelled()) {
+        task.time += task.period;
+        queue.add(task);
+      }
+    }
+    now = Math.max(now, time);
+  }
+
+  public int pending() {
+    return queue.size();
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    schedule(command, 0, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+    return enqueue(new SimTask<>(Executors.callable(command, null), now + unit.toMillis(delay), 0));
+  }
+
+  @Override
+  public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+    return enqueue(new SimTask<>(callable, now + unit.toMillis(delay), 0));
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period,
+      TimeUnit unit) {
+    return enqueue(new SimTask<>(Executors.callable(command, null),
+        now + unit.toMillis(initialDelay), unit.toMillis(period)));
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay,
+      long delay, TimeUnit unit) {
+    // 任务执行不消耗虚拟时间，与fixed rate相同
+    return scheduleAtFixedRate(command, initialDelay, delay, unit);
+  }
+
+  private <V> SimTask<V> enqueue(SimTask<V> task) {
+    if (shutdown) throw new IllegalStateException("shutdown");
+    queue.add(task);
+    return task;
+  }
+
+  @Override
+  public void shutdown() {
+    shutdown = true;
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    shutdown = true;
+    queue.clear();
+    return Collections.emptyList();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return shutdown && queue.isEmpty();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) {
+    return isTerminated();
+  }
+
+  private class SimTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+    private final long seqNo = seq++;
+    private final long period;
+    private long time;
+
+    private SimTask(Callable<V> callable, long time, long period) {
+      super(callable);
+      this.time = time;
+      this.period = period;
+    }
+
+    @Override
+    public void run() {
+      if (period > 0) {
+        runAndReset();
+      } else {
+        super.run();
+      }
+    }
+
+    @Override
+    public boolean isPeriodic() {
+      return period > 0;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(time - now, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+      SimTask<?> other = (SimTask<?>) o;
+      int c = Long.compare(time, other.time);
+      return c != 0 ? c : Long.compare(seqNo, other.seqNo);
+    }
+  }
+}
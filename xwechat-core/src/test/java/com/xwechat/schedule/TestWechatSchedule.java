@@ -5,6 +5,7 @@ package com.xwechat.schedule;
 
 import java.util.concurrent.TimeUnit;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -36,14 +37,25 @@ public class TestWechatSchedule extends BaseTest {
         .setGap(1, TimeUnit.SECONDS).build();
     scheduler.setDebug(true);
     scheduler.start();
-    System.err.println("dump in setup:\n" + scheduler.dump());
+    System.err.println("snapshot in setup:\n" + snapshot());
+  }
+
+  private String snapshot() {
+    StringBuilder sb = new StringBuilder();
+    scheduler.snapshot(app -> sb.append(app).append('\n'));
+    return sb.toString();
+  }
+
+  @After
+  public void teardown() {
+    scheduler.shutdown();
   }
 
   @Test
   public void testSchedule() throws InterruptedException {
     scheduler.scheduleAccessToken(appId);
     Thread.sleep(2000); // wait for task run
-    System.err.println("dump after schedule accessToken:\n" + scheduler.dump());
+    System.err.println("snapshot after schedule accessToken:\n" + snapshot());
     assertEquals(1, scheduler.getAppRepo().all().size());
     assertEquals(1, scheduler.getTaskRepo().all().size());
     assertEquals(1, scheduler.getAccessTokenRepo().all().size());
@@ -54,7 +66,7 @@ public class TestWechatSchedule extends BaseTest {
 
     scheduler.scheduleJsTicket(appId);
     Thread.sleep(2000); // wait for task run
-    System.err.println("dump after schedule jsTicket:\n" + scheduler.dump());
+    System.err.println("snapshot after schedule jsTicket:\n" + snapshot());
     assertEquals(1, scheduler.getAppRepo().all().size());
     assertEquals(1, scheduler.getTaskRepo().all().size());
     assertEquals(1, scheduler.getAccessTokenRepo().all().size());
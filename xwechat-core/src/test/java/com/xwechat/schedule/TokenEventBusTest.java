@@ -0,0 +1,95 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.xwechat.BaseTest;
+import com.xwechat.enums.TicketType;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author yuanwq
+ */
+public class TokenEventBusTest extends BaseTest {
+
+  private static ExpirableValue value(String token) {
+    return new ExpirableValue(token, 0L);
+  }
+
+  @Test
+  public void testCoalesceAndDedup() {
+    Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    TokenEventBus bus = new TokenEventBus(tasks::add);
+    List<String> received = Lists.newArrayList();
+    bus.addListener(e -> received.add(e.getAppId() + "/" + e.getTicketType() + "/"
+        + e.getValue().getValue()));
+
+    bus.publish("wx01", null, value("t1"));
+    bus.publish("wx01", null, value("t2"));
+    bus.publish("wx01", TicketType.JSAPI, value("j1"));
+    bus.publish("wx01", null, value("t2"));
+    assertEquals(1, tasks.size());
+    tasks.poll().run();
+    // 未投递的t1被t2覆盖，重复的t2被过滤；不同key之间不保证顺序
+    assertEquals(Sets.newHashSet("wx01/null/t2", "wx01/JSAPI/j1"), Sets.newHashSet(received));
+    assertEquals(2, received.size());
+
+    bus.publish("wx01", null, value("t2"));
+    assertEquals(0, tasks.size());
+    bus.publish("wx01", null, value("t3"));
+    tasks.poll().run();
+    assertEquals("wx01/null/t3", received.get(received.size() - 1));
+  }
+
+  @Test
+  public void testConcurrentPublishNeverEndsStale() throws Exception {
+    ExecutorService eventExecutor = Executors.newSingleThreadExecutor();
+    ExecutorService publishers = Executors.newFixedThreadPool(4);
+    for (int round = 0; round < 50; round++) {
+      TokenEventBus bus = new TokenEventBus(eventExecutor);
+      Map<String, String> lastReceived = Maps.newConcurrentMap();
+      AtomicInteger events = new AtomicInteger();
+      bus.addListener(e -> {
+        lastReceived.put(e.getAppId(), e.getValue().getValue());
+        events.incrementAndGet();
+      });
+      List<Future<?>> futures = Lists.newArrayList();
+      for (int t = 0; t < 4; t++) {
+        int thread = t;
+        futures.add(publishers.submit(() -> {
+          for (int i = 0; i < 200; i++) {
+            bus.publish("wx01", null, value(thread + "-" + i));
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(5, TimeUnit.SECONDS);
+      }
+      eventExecutor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+
+      // 最后收到的必须是最后发布的值：重新发布它会被当作重复过滤
+      int before = events.get();
+      bus.publish("wx01", null, value(lastReceived.get("wx01")));
+      eventExecutor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+      assertEquals("round " + round, before, events.get());
+    }
+    publishers.shutdown();
+    eventExecutor.shutdown();
+  }
+}
@@ -0,0 +1,302 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.schedule;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.xwechat.BaseTest;
+import com.xwechat.api.base.ClientCredentialApi;
+import com.xwechat.api.base.StableAccessTokenApi;
+import com.xwechat.api.jssdk.JsapiTicketApi;
+import com.xwechat.core.Application;
+import com.xwechat.core.Wechat;
+import com.xwechat.enums.TicketType;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用{@link SimulatedScheduler}和{@link LocalWechatEndpoint}在虚拟时间中验证调度行为，不访问网络
+ *
+ * @author yuanwq
+ */
+public class WechatSchedulerTest extends BaseTest {
+  private static final long START_TIME = 1_500_000_000_000L;
+  private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+  private final SimulatedScheduler sim = new SimulatedScheduler(START_TIME);
+  private final LocalWechatEndpoint endpoint = new LocalWechatEndpoint(sim, MINUTE, 0);
+  private final AtomicInteger attempts = new AtomicInteger();
+  /** 模拟网络故障，请求不会到达endpoint */
+  private volatile boolean networkDown;
+  private final Wechat wechat = new Wechat(new OkHttpClient.Builder().addInterceptor(chain -> {
+    attempts.incrementAndGet();
+    if (networkDown) {
+      throw new IOException("network down");
+    }
+    return endpoint.intercept(chain);
+  }).build());
+  private final MapRepository<Application> appRepo = new MapRepository<>();
+
+  private WechatScheduler.Builder newBuilder() {
+    appRepo.update("wx01", new Application("wx01", "secret"));
+    return WechatScheduler.newBuilder().setAppRepo(appRepo).setWechat(wechat).setClock(sim)
+        .setTaskExecutor(sim).setScheduledExecutor(sim)
+        .setTicketExecutor(MoreExecutors.directExecutor())
+        .setEventExecutor(MoreExecutors.directExecutor());
+  }
+
+  @Test
+  public void testInvalidateStableTokenWithoutForce() throws Exception {
+    WechatScheduler scheduler = newBuilder().setStableToken(true).build();
+    scheduler.start();
+    scheduler.scheduleAccessToken("wx01");
+    sim.runUntil(START_TIME + MINUTE);
+    String first = scheduler.getAccessToken("wx01");
+    assertEquals("wx01-1", first);
+
+    // 其它节点已经强制刷新过，普通模式就能拿到新token，不再强制刷新
+    StableAccessTokenApi api = new StableAccessTokenApi().setForceRefresh(true);
+    api.setAppId("wx01").setAppSecret("secret");
+    wechat.call(api);
+    assertEquals(1, endpoint.getForcedCalls());
+    assertTrue(scheduler.invalidate("wx01", first));
+    sim.runUntil(START_TIME + 2 * MINUTE);
+    assertEquals("wx01-2", scheduler.getAccessToken("wx01"));
+    assertEquals(1, endpoint.getForcedCalls());
+
+    // 微信仍返回失效的token时才强制刷新
+    assertTrue(scheduler.invalidate("wx01", "wx01-2"));
+    sim.runUntil(START_TIME + 3 * MINUTE);
+    assertEquals("wx01-3", scheduler.getAccessToken("wx01"));
+    assertEquals(2, endpoint.getForcedCalls());
+    sim.shutdownNow();
+  }
+
+  @Test
+  public void testRefreshAhead() {
+    WechatScheduler scheduler = newBuilder().setDuration(200, TimeUnit.MINUTES)
+        .setRefreshAhead(5, TimeUnit.MINUTES)
+        .setFailurePolicy(new FailurePolicy().setInitialBackoff(10, TimeUnit.MINUTES)).build();
+    scheduler.start();
+    scheduler.scheduleAccessToken("wx01");
+    sim.runUntil(START_TIME + MINUTE);
+    assertEquals(1, attempts.get());
+
+    // 剩余4分钟：并发的读取只触发一次刷新
+    networkDown = true;
+    sim.runUntil(START_TIME + 116 * MINUTE);
+    for (int i = 0; i < 10; i++) {
+      assertEquals("wx01-1", scheduler.getAccessToken("wx01"));
+    }
+    assertFalse(scheduler.invalidate("wx01", "wx01-1"));
+    sim.runUntil(START_TIME + 116 * MINUTE + 1);
+    assertEquals(2, attempts.get());
+
+    // 退避期（不超过剩余有效期的一半，即2分钟）内读取和失效报告都不触发刷新
+    sim.runUntil(START_TIME + 117 * MINUTE);
+    assertEquals("wx01-1", scheduler.getAccessToken("wx01"));
+    assertFalse(scheduler.invalidate("wx01", "wx01-1"));
+    sim.runUntil(START_TIME + 117 * MINUTE + 1);
+    assertEquals(2, attempts.get());
+
+    // 过期的值按未命中处理
+    sim.runUntil(START_TIME + 121 * MINUTE);
+    assertNull(scheduler.getAccessToken("wx01"));
+
+    // 网络恢复后由tick重试
+    networkDown = false;
+    sim.runUntil(START_TIME + 160 * MINUTE);
+    assertEquals("wx01-2", scheduler.getAccessToken("wx01"));
+    sim.shutdownNow();
+  }
+
+  @Test
+  public void testStableTokenReadAheadOncePerCycle() {
+    WechatScheduler scheduler = newBuilder().setStableToken(true)
+        .setDuration(200, TimeUnit.MINUTES).setRefreshAhead(10, TimeUnit.MINUTES).build();
+    scheduler.start();
+    scheduler.scheduleAccessToken("wx01");
+    sim.runUntil(START_TIME + MINUTE);
+    assertEquals(1, attempts.get());
+
+    // 剩余8分钟，还在续期窗口之外：提前刷新拿到同一个token，之后的读取不再请求
+    for (int minute = 113; minute <= 116; minute++) {
+      sim.runUntil(START_TIME + minute * MINUTE);
+      assertEquals("wx01-1", scheduler.getAccessToken("wx01"));
+      sim.runUntil(START_TIME + minute * MINUTE + 1);
+    }
+    assertEquals(2, attempts.get());
+
+    // 到计划刷新时间（过期前3分钟）由tick刷新
+    sim.runUntil(START_TIME + 120 * MINUTE);
+    assertEquals("wx01-2", scheduler.getAccessToken("wx01"));
+    assertEquals(3, attempts.get());
+    sim.shutdownNow();
+  }
+
+  @Test
+  public void testBackoffLongerThanDuration() {
+    WechatScheduler scheduler = newBuilder().setDuration(10, TimeUnit.MINUTES)
+        .setFailurePolicy(new FailurePolicy().setInitialBackoff(30, TimeUnit.MINUTES)).build();
+    scheduler.start();
+    networkDown = true;
+    scheduler.scheduleAccessToken("wx01");
+    // 退避30分钟，超过taskLoop一圈（10分钟）也不会提前重试
+    sim.runUntil(START_TIME + 29 * MINUTE);
+    assertEquals(1, attempts.get());
+
+    networkDown = false;
+    sim.runUntil(START_TIME + 31 * MINUTE);
+    assertEquals(2, attempts.get());
+    assertEquals("wx01-1", scheduler.getAccessToken("wx01"));
+    sim.shutdownNow();
+  }
+
+  @Test
+  public void testRebalance() {
+    StaticMembership membership = new StaticMembership(ImmutableList.of("n1"));
+    WechatScheduler scheduler = newBuilder().setSharding("n1", membership).build();
+    List<String> appIds = Lists.newArrayList();
+    for (int i = 0; i < 20; i++) {
+      String appId = String.format("app%02d", i);
+      appRepo.update(appId, new Application(appId, "secret"));
+      appIds.add(appId);
+    }
+    scheduler.start();
+    appIds.forEach(scheduler::scheduleAccessToken);
+    sim.runUntil(START_TIME + MINUTE);
+    assertEquals(20, endpoint.getCalls());
+
+    // 加入n2后，分给n2的app移出taskLoop
+    membership.setMembers(ImmutableList.of("n1", "n2"));
+    sim.runUntil(START_TIME + MINUTE + 1);
+    ConsistentHashRing ring = new ConsistentHashRing(ImmutableList.of("n1", "n2"), 160);
+    int moved = 0;
+    for (String appId : appIds) {
+      boolean owned = ring.nodeFor(appId).equals("n1");
+      assertEquals(appId, owned, scheduler.owns(appId));
+      assertEquals(appId, owned, scheduler.getTaskLoop().contains(appId));
+      moved += owned ? 0 : 1;
+    }
+    assertTrue(moved > 0 && moved < 20);
+
+    // n2退出后接管回来，token仍然有效，不请求微信，也不重复加入
+    membership.setMembers(ImmutableList.of("n1"));
+    sim.runUntil(START_TIME + 2 * MINUTE);
+    for (String appId : appIds) {
+      assertTrue(appId, scheduler.getTaskLoop().contains(appId));
+    }
+    assertEquals(20, Arrays.stream(scheduler.getSlotOccupancy()).sum());
+    assertEquals(20, endpoint.getCalls());
+    sim.shutdownNow();
+  }
+
+  @Test
+  public void testTakenTaskStaysInLoop() {
+    TaskLoop loop = new TaskLoop(4);
+    loop.add(0, "wx01");
+    Collection<String> current = loop.current();
+    loop.moveOn();
+    assertEquals(ImmutableList.of("wx01"), ImmutableList.copyOf(current));
+    // 执行期间仍视为在调度中，rebalance不会再次加入
+    assertTrue(loop.contains("wx01"));
+    assertEquals(-1, loop.stepsAhead("wx01"));
+    loop.add(2, "wx01");
+    assertEquals(2, loop.stepsAhead("wx01"));
+    loop.remove("wx01");
+    assertFalse(loop.contains("wx01"));
+  }
+
+  @Test
+  public void testFollowerPersistsExpireTime() {
+    MemoryRefreshLease lease = new MemoryRefreshLease(sim);
+    MapRepository<ExpirableValue> accessTokenRepo = new MapRepository<>();
+    WechatScheduler leader =
+        newBuilder().setRefreshLease(lease).setAccessTokenRepo(accessTokenRepo).build();
+    leader.start();
+    leader.scheduleAccessToken("wx01");
+    sim.runUntil(START_TIME + MINUTE);
+
+    // follower的taskRepo返回副本，follow得到的过期时间需要写回
+    CompactTaskRepository taskRepo = new CompactTaskRepository();
+    WechatScheduler follower = newBuilder().setRefreshLease(lease.forNode("n2"))
+        .setAccessTokenRepo(accessTokenRepo).setTaskRepo(taskRepo).build();
+    follower.start();
+    follower.scheduleAccessToken("wx01");
+    sim.runUntil(START_TIME + 2 * MINUTE);
+    assertEquals(1, endpoint.getCalls());
+    assertEquals(accessTokenRepo.get("wx01").getExpireTime(),
+        taskRepo.get("wx01").getExpireTime());
+    sim.shutdownNow();
+  }
+
+  @Test
+  public void testTrackExistingToken() throws Exception {
+    MapRepository<TaskDef> taskRepo = new MapRepository<>();
+    MapRepository<ExpirableValue> accessTokenRepo = new MapRepository<>();
+    WechatScheduler first =
+        newBuilder().setTaskRepo(taskRepo).setAccessTokenRepo(accessTokenRepo).build();
+    first.start();
+    first.scheduleAccessToken("wx01");
+    sim.runUntil(START_TIME + MINUTE);
+    assertEquals("wx01-1", first.getAccessToken("wx01"));
+
+    // 重启：沿用repository中仍有效的token，不请求微信
+    Wechat restarted = new Wechat(new OkHttpClient.Builder().addInterceptor(endpoint).build());
+    WechatScheduler second = newBuilder().setTaskRepo(taskRepo)
+        .setAccessTokenRepo(accessTokenRepo).setWechat(restarted).build();
+    second.start();
+    second.scheduleAccessToken("wx01");
+    sim.runUntil(START_TIME + 2 * MINUTE);
+    assertEquals(1, endpoint.getCalls());
+
+    // 其它地方用同一个secret刷新了token，调用接口返回40001后自动刷新
+    ClientCredentialApi rotate = new ClientCredentialApi();
+    rotate.setAppId("wx01").setAppSecret("secret");
+    wechat.call(rotate);
+    JsapiTicketApi api = new JsapiTicketApi(TicketType.JSAPI);
+    api.setAccessToken("wx01-1");
+    assertEquals(40001, restarted.call(api).getErrcode());
+    sim.runUntil(START_TIME + 3 * MINUTE);
+    assertEquals("wx01-3", second.getAccessToken("wx01"));
+    sim.shutdownNow();
+  }
+
+  @Test
+  public void testShutdown() throws Exception {
+    WechatScheduler scheduler = newBuilder().build();
+    scheduler.start();
+    scheduler.scheduleAccessToken("wx01");
+    sim.runUntil(START_TIME + MINUTE);
+    scheduler.shutdown();
+
+    // 注销了失效token的监听，tick也不再推进
+    ClientCredentialApi rotate = new ClientCredentialApi();
+    rotate.setAppId("wx01").setAppSecret("secret");
+    wechat.call(rotate);
+    JsapiTicketApi api = new JsapiTicketApi(TicketType.JSAPI);
+    api.setAccessToken("wx01-1");
+    assertEquals(40001, wechat.call(api).getErrcode());
+    int calls = attempts.get();
+    sim.runUntil(START_TIME + 300 * MINUTE);
+    assertEquals(calls, attempts.get());
+    assertFalse(scheduler.invalidate("wx01", "wx01-1"));
+    sim.shutdownNow();
+  }
+}
@@ -0,0 +1,191 @@
+/**
+ * @author yuanwq, date: 2026年10月19日
+ */
+package com.xwechat.sync;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.xwechat.BaseTest;
+import com.xwechat.api.mp.UserInfo;
+import com.xwechat.core.Wechat;
+import com.xwechat.schedule.MapRepository;
+import com.xwechat.util.JsonUtil;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author yuanwq
+ */
+public class FollowerSyncTest extends BaseTest {
+
+  /** 模拟user/get和user/info/batchget，openid为o000000到o(n-1) */
+  private static class LocalFollowers implements Interceptor {
+    private final int followers;
+    private final long pageLatencyMillis;
+    private final long batchLatencyMillis;
+    private final AtomicInteger pageCalls = new AtomicInteger();
+    private final AtomicInteger batchCalls = new AtomicInteger();
+    private volatile String failingOpenid;
+
+    private LocalFollowers(int followers, long pageLatencyMillis, long batchLatencyMillis) {
+      this.followers = followers;
+      this.pageLatencyMillis = pageLatencyMillis;
+      this.batchLatencyMillis = batchLatencyMillis;
+    }
+
+    private static String openid(int i) {
+      return String.format("o%06d", i);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+      Request request = chain.request();
+      ObjectNode root = JsonUtil.DEFAULT_OBJECT_MAPPER.createObjectNode();
+      if (request.url().encodedPath().endsWith("/user/get")) {
+        pageCalls.incrementAndGet();
+        sleep(pageLatencyMillis);
+        String next = request.url().queryParameter("next_openid");
+        int from = next == null ? 0 : Integer.parseInt(next.substring(1)) + 1;
+        int to = Math.min(followers, from + FollowerSync.PAGE_SIZE);
+        ArrayNode openids = root.put("total", followers).put("count", to - from)
+            .putObject("data").putArray("openid");
+        for (int i = from; i < to; i++) {
+          openids.add(openid(i));
+        }
+        root.put("next_openid", to > from ? openid(to - 1) : "");
+      } else {
+        batchCalls.incrementAndGet();
+        sleep(batchLatencyMillis);
+        Buffer body = new Buffer();
+        request.body().writeTo(body);
+        JsonNode userList = JsonUtil.DEFAULT_OBJECT_MAPPER.readTree(body.readUtf8())
+            .get("user_list");
+        ArrayNode infos = root.putArray("user_info_list");
+        for (JsonNode user : userList) {
+          String openid = user.get("openid").asText();
+          if (openid.equals(failingOpenid)) {
+            root.removeAll();
+            root.put("errcode", 45009).put("errmsg", "reach max api daily quota limit");
+            break;
+          }
+          infos.addObject().put("subscribe", 1).put("openid", openid).put("nickname", openid);
+        }
+      }
+      return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200)
+          .message("OK")
+          .body(ResponseBody.create(MediaType.parse("application/json"), root.toString()))
+          .build();
+    }
+
+    private static void sleep(long millis) {
+      try {
+        Thread.sleep(millis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static FollowerSync newSync(LocalFollowers endpoint, MapRepository<String> checkpoint,
+      int concurrency) {
+    Wechat wechat = new Wechat(new OkHttpClient.Builder().addInterceptor(endpoint).build());
+    return FollowerSync.newBuilder().setWechat(wechat).setTokenSource(appId -> "token")
+        .setCheckpoint(checkpoint).setConcurrency(concurrency)
+        .setRetry(2, 1, TimeUnit.MILLISECONDS).build();
+  }
+
+  @Test
+  public void testPipelinedSync() throws Exception {
+    int followers = 30_000;
+    LocalFollowers endpoint = new LocalFollowers(followers, 30, 5);
+    MapRepository<String> checkpoint = new MapRepository<>();
+    Set<String> seen = Sets.newConcurrentHashSet();
+    FollowerSync sync = newSync(endpoint, checkpoint, 16);
+    FollowerSyncResult result = sync.sync("wx01", (appId, users) -> {
+      for (UserInfo user : users) {
+        assertTrue("duplicate " + user.getOpenid(), seen.add(user.getOpenid()));
+      }
+    });
+    assertEquals(followers, seen.size());
+    assertEquals(followers, result.getUsers());
+    assertEquals(followers, result.getTotal());
+    // 第3页正好满10000个，多一次请求得到空页
+    assertEquals(4, result.getPages());
+    assertEquals(4, endpoint.pageCalls.get());
+    assertEquals(300, endpoint.batchCalls.get());
+    assertNull(checkpoint.get("wx01"));
+    long serial = 4 * 30 + 300 * 5;
+    System.out.printf("%,d followers: pipelined %d ms, serial ~%d ms%n", followers,
+        result.getElapsedMillis(), serial);
+  }
+
+  @Test
+  public void testResumeFromCheckpoint() throws Exception {
+    int followers = 25_001;
+    LocalFollowers endpoint = new LocalFollowers(followers, 0, 0);
+    endpoint.failingOpenid = "o012345";
+    MapRepository<String> checkpoint = new MapRepository<>();
+    Set<String> seen = Sets.newConcurrentHashSet();
+    FollowerSync sync = newSync(endpoint, checkpoint, 8);
+    try {
+      sync.sync("wx01", (appId, users) -> users.forEach(u -> seen.add(u.getOpenid())));
+      fail("should abort");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("45009"));
+    }
+    // 第1页已全部写入sink，从第2页继续
+    assertEquals("o009999", checkpoint.get("wx01"));
+
+    endpoint.failingOpenid = null;
+    endpoint.pageCalls.set(0);
+    List<String> resumed = Lists.newCopyOnWriteArrayList();
+    FollowerSyncResult result = sync.sync("wx01", (appId, users) -> {
+      users.forEach(u -> resumed.add(u.getOpenid()));
+      seen.addAll(resumed);
+    });
+    assertEquals("o009999", result.getResumedFrom());
+    assertEquals(2, result.getPages());
+    assertEquals(2, endpoint.pageCalls.get());
+    assertEquals(followers - FollowerSync.PAGE_SIZE, resumed.size());
+    assertEquals(followers, seen.size());
+    assertNull(checkpoint.get("wx01"));
+  }
+
+  @Test
+  public void testSinkBackpressure() throws Exception {
+    LocalFollowers endpoint = new LocalFollowers(5_000, 0, 0);
+    AtomicInteger inSink = new AtomicInteger();
+    AtomicInteger maxInSink = new AtomicInteger();
+    FollowerSync sync = newSync(endpoint, new MapRepository<>(), 4);
+    sync.sync("wx01", (appId, users) -> {
+      maxInSink.accumulateAndGet(inSink.incrementAndGet(), Math::max);
+      Thread.sleep(2);
+      inSink.decrementAndGet();
+    });
+    assertTrue(maxInSink.get() <= 4);
+    assertEquals(50, endpoint.batchCalls.get());
+  }
+}